@@ -0,0 +1,58 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+
+// Balance arithmetic on a single account shared by all benchmark threads, the worst case for contention.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+
+  private static final BigDecimal AMOUNT = new BigDecimal("1.25");
+
+  @Param({ "-1", "2" })
+  public int fixedPointScale;
+
+  private Account account;
+
+  @Setup
+  public void setUp() {
+    account = new Account("Id-Bench", new BigDecimal(1_000_000_000L));
+    if (fixedPointScale >= 0) {
+      account.useFixedPointBalance(fixedPointScale);
+    }
+  }
+
+  @Benchmark
+  public void deposit() {
+    account.deposit(AMOUNT);
+  }
+
+  @Benchmark
+  public void withdraw() {
+    account.withdraw(AMOUNT);
+  }
+
+  @Benchmark
+  public BigDecimal getBalance() {
+    return account.getBalance();
+  }
+}
@@ -0,0 +1,101 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.CompactAccountsRepository;
+
+// Loads the same accounts into the in-memory and the compact repository and prints what an account costs in
+// each, on and off the heap, and how long the collector pauses while transfers run against the full table.
+// Not a JMH benchmark, footprint and collector pauses need one big table rather than many short iterations.
+// usage: AccountFootprint <accounts> <transfers>, with a heap large enough for the in-memory repository
+public final class AccountFootprint {
+
+  private AccountFootprint() {
+  }
+
+  public static void main(String[] args) {
+    int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+    int transfers = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+    System.out.printf("%d accounts, %d transfers%n", accounts, transfers);
+    measure("memory", AccountsRepositoryInMemory::new, accounts, transfers);
+    measure("memory fixed point", () -> new AccountsRepositoryInMemory(2), accounts, transfers);
+    measure("compact", () -> new CompactAccountsRepository(2, accounts), accounts, transfers);
+  }
+
+  private static void measure(String name, Supplier<AccountsRepository> factory, int accounts, int transfers) {
+    long heapBefore = settledHeap();
+    long offHeapBefore = directMemory();
+    AccountsRepository repository = factory.get();
+    long loadStarted = System.nanoTime();
+    for (int i = 0; i < accounts; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    long loadMillis = (System.nanoTime() - loadStarted) / 1_000_000;
+    long heapBytes = settledHeap() - heapBefore;
+    long offHeapBytes = directMemory() - offHeapBefore;
+
+    long collectionsBefore = collections();
+    long collectionMillisBefore = collectionMillis();
+    Random random = new Random(42);
+    long transfersStarted = System.nanoTime();
+    for (int i = 0; i < transfers; i++) {
+      repository.tryTransfer("Id-" + random.nextInt(accounts), "Id-" + random.nextInt(accounts), BigDecimal.ONE);
+    }
+    long transferMillis = (System.nanoTime() - transfersStarted) / 1_000_000;
+    long collections = collections() - collectionsBefore;
+    long collectionMillis = collectionMillis() - collectionMillisBefore;
+
+    // a full collection has to trace every live object, with the table still reachable
+    long fullGcStarted = System.nanoTime();
+    System.gc();
+    long fullGcMillis = (System.nanoTime() - fullGcStarted) / 1_000_000;
+
+    System.out.printf("%-20s heap %6.1f B/account, off heap %6.1f B/account, load %6d ms, transfers %6d ms, "
+        + "%4d collections taking %5d ms during transfers, full gc %5d ms%n",
+      name, (double) heapBytes / accounts, (double) offHeapBytes / accounts, loadMillis, transferMillis,
+      collections, collectionMillis, fullGcMillis);
+    repository.clearAccounts();
+  }
+
+  private static long settledHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long directMemory() {
+    long used = 0;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName())) {
+        used += pool.getMemoryUsed();
+      }
+    }
+    return used;
+  }
+
+  private static long collections() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, collector.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long collectionMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, collector.getCollectionTime());
+    }
+    return millis;
+  }
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountLookupBenchmark {
+
+  @Param({ AccountPicker.UNIFORM, AccountPicker.ZIPF })
+  public String distribution;
+
+  @Param({ "100000" })
+  public int accounts;
+
+  private AccountsRepositoryInMemory repository;
+
+  private String[] accountIds;
+
+  private AccountPicker picker;
+
+  private final AtomicLong nextId = new AtomicLong();
+
+  // a fresh repository every iteration keeps createAccount from measuring an ever growing map
+  @Setup(Level.Iteration)
+  public void setUp() {
+    repository = new AccountsRepositoryInMemory();
+    picker = new AccountPicker(distribution, accounts, 1.1);
+    accountIds = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      accountIds[i] = "Id-" + i;
+      repository.createAccount(new Account(accountIds[i], BigDecimal.TEN));
+    }
+  }
+
+  @Benchmark
+  public Account getAccount() {
+    return repository.getAccount(accountIds[picker.next()]);
+  }
+
+  @Benchmark
+  public void createAccount() {
+    repository.createAccount(new Account("New-" + nextId.incrementAndGet(), BigDecimal.TEN));
+  }
+}
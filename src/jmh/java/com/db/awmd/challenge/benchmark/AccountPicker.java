@@ -0,0 +1,52 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Picks account indexes either uniformly or following a Zipf distribution, where a handful of hot
+// accounts take part in most transfers.
+public final class AccountPicker {
+
+  public static final String UNIFORM = "uniform";
+
+  public static final String ZIPF = "zipf";
+
+  private final int accounts;
+
+  // cumulative probabilities, only used for zipf
+  private final double[] cdf;
+
+  public AccountPicker(String distribution, int accounts, double zipfExponent) {
+    this.accounts = accounts;
+    if (ZIPF.equals(distribution)) {
+      cdf = new double[accounts];
+      double sum = 0;
+      for (int i = 0; i < accounts; i++) {
+        sum += 1 / Math.pow(i + 1, zipfExponent);
+        cdf[i] = sum;
+      }
+      for (int i = 0; i < accounts; i++) {
+        cdf[i] /= sum;
+      }
+    } else if (UNIFORM.equals(distribution)) {
+      cdf = null;
+    } else {
+      throw new IllegalArgumentException("Unknown distribution " + distribution);
+    }
+  }
+
+  public int next() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (cdf == null) {
+      return random.nextInt(accounts);
+    }
+    int index = Arrays.binarySearch(cdf, random.nextDouble());
+    return Math.min(accounts - 1, index >= 0 ? index : -index - 1);
+  }
+
+  // a different account than from, drawn from the same distribution
+  public int nextOtherThan(int from) {
+    int to = next();
+    return to != from ? to : (from + 1) % accounts;
+  }
+}
@@ -0,0 +1,35 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs every benchmark once per thread count and writes results-<threads>-threads.json for each,
+// usage: BenchmarkRunner <output directory> <comma separated thread counts> [include regex]
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    File outputDirectory = new File(args.length > 0 ? args[0] : "build/reports/jmh");
+    String[] threadCounts = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+    String include = args.length > 2 ? args[2] : BenchmarkRunner.class.getPackage().getName() + ".*";
+    outputDirectory.mkdirs();
+
+    for (String threadCount : threadCounts) {
+      int threads = Integer.parseInt(threadCount.trim());
+      Options options = new OptionsBuilder()
+        .include(include)
+        .threads(threads)
+        .resultFormat(ResultFormatType.JSON)
+        .result(new File(outputDirectory, "results-" + threads + "-threads.json").getPath())
+        .build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.FxRateTable;
+
+// Transfers between accounts of the same currency against transfers converted with the in process rate
+// table, and converted transfers while another thread swaps in new rates nonstop, which they never wait for.
+// The debited account holds enough for every transfer a run makes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FxTransferBenchmark {
+
+  private static final BigDecimal AMOUNT = new BigDecimal("1.25");
+
+  private AccountsRepositoryInMemory repository;
+
+  private FxRateTable fxRates;
+
+  private Map<String, BigDecimal> rates;
+
+  @Setup
+  public void setUp() {
+    fxRates = new FxRateTable("EUR", "", 60_000, 0);
+    rates = new HashMap<>();
+    for (String currency : new String[] { "USD", "GBP", "CHF", "JPY", "SEK", "NOK", "PLN", "CZK" }) {
+      rates.put(currency, new BigDecimal("1.1"));
+    }
+    fxRates.update(rates);
+    repository = new AccountsRepositoryInMemory();
+    repository.setFxRates(fxRates);
+    repository.createAccount(new Account("Id-EUR-1", new BigDecimal(1_000_000_000L), "EUR"));
+    repository.createAccount(new Account("Id-EUR-2", new BigDecimal(1_000_000_000L), "EUR"));
+    repository.createAccount(new Account("Id-USD", new BigDecimal(1_000_000_000L), "USD"));
+  }
+
+  @Benchmark
+  @Threads(3)
+  public TransferResult sameCurrency() {
+    return repository.tryTransfer("Id-EUR-1", "Id-EUR-2", AMOUNT);
+  }
+
+  @Benchmark
+  @Threads(3)
+  public TransferResult converted() {
+    return repository.tryTransfer("Id-EUR-1", "Id-USD", AMOUNT);
+  }
+
+  @Benchmark
+  @Group("refreshing")
+  @GroupThreads(3)
+  public TransferResult convertedWhileRefreshing() {
+    return repository.tryTransfer("Id-EUR-1", "Id-USD", AMOUNT);
+  }
+
+  @Benchmark
+  @Group("refreshing")
+  @GroupThreads(1)
+  public void refreshRates() {
+    fxRates.update(rates);
+  }
+}
@@ -0,0 +1,89 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+
+// What durability costs a transfer: the plain in-memory repository, the journal without waiting for the
+// flusher, and the journal with group commit, where every transfer waits for the fsync its batch shares.
+// Run with jmhScaling, group commit only pays off once many threads wait on the same fsync.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+  private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+  @Param({ "memory", "journal", "group-commit" })
+  public String durability;
+
+  @Param({ "10000" })
+  public int accounts;
+
+  private Path directory;
+
+  private AccountsRepositoryInMemory repository;
+
+  private String[] accountIds;
+
+  private AccountPicker picker;
+
+  @Setup
+  public void setUp() throws IOException {
+    if ("memory".equals(durability)) {
+      repository = new AccountsRepositoryInMemory();
+    } else {
+      directory = Files.createTempDirectory("journal-benchmark");
+      repository = new JournaledAccountsRepository(-1, directory.resolve("journal").toString(), 64, 10,
+        "group-commit".equals(durability), directory.resolve("accounts.snapshot").toString(), 0);
+    }
+    picker = new AccountPicker(AccountPicker.UNIFORM, accounts, 1.1);
+    accountIds = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      accountIds[i] = "Id-" + i;
+      repository.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000L)));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (directory == null) {
+      return;
+    }
+    ((JournaledAccountsRepository) repository).destroy();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public TransferResult tryTransfer() {
+    int from = picker.next();
+    return repository.tryTransfer(accountIds[from], accountIds[picker.nextOtherThan(from)], AMOUNT);
+  }
+}
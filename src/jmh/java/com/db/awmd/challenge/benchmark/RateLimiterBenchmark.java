@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.service.TransferRateLimiter;
+
+// Cost the rate limiter adds to every transfer request, which should stay well below a microsecond. The
+// limits are high enough that requests are accepted, so this measures the common path of an account
+// bucket lookup plus two compare and sets; with more accounts than max-accounts the lookups also evict.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+  @Param({ AccountPicker.UNIFORM, AccountPicker.ZIPF })
+  public String distribution;
+
+  @Param({ "10000", "1000000" })
+  public int accounts;
+
+  private TransferRateLimiter limiter;
+
+  private String[] accountIds;
+
+  private AccountPicker picker;
+
+  @Setup
+  public void setUp() {
+    limiter = new TransferRateLimiter(1_000_000_000L, 0, 1_000_000_000L, 0, 100_000);
+    picker = new AccountPicker(distribution, accounts, 1.1);
+    accountIds = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      accountIds[i] = "Id-" + i;
+    }
+  }
+
+  @Benchmark
+  public boolean tryAcquire() {
+    return limiter.tryAcquire(accountIds[picker.next()]);
+  }
+}
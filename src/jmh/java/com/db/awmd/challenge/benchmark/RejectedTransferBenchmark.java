@@ -0,0 +1,100 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+
+// Cost of a rejected transfer. The *Result methods are the path requests take now: a result code whose
+// message is a constant. exceptionWithStackTrace is the path rejections used to take, an exception with a
+// stack trace and a message built for the request, and stacklessException what the legacy
+// updateAccountBalance path costs now. Under a servlet container the stack is much deeper than here, so
+// the gap in production is larger than the one measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RejectedTransferBenchmark {
+
+  private static final BigDecimal TOO_MUCH = new BigDecimal(1_000_000);
+
+  // more decimal places than the fixed point scale
+  private static final BigDecimal TOO_PRECISE = new BigDecimal("0.001");
+
+  private AccountsRepositoryInMemory repository;
+
+  private AccountsService service;
+
+  private Account accountFrom;
+
+  private Account accountTo;
+
+  @Setup
+  public void setUp() {
+    repository = new AccountsRepositoryInMemory(2);
+    service = new AccountsService(repository, (account, description) -> { });
+    accountFrom = new Account("Id-From", BigDecimal.TEN);
+    accountTo = new Account("Id-To", BigDecimal.TEN);
+    repository.createAccount(accountFrom);
+    repository.createAccount(accountTo);
+  }
+
+  @Benchmark
+  public String insufficientBalanceResult() {
+    TransferResult result = service.transferAmount(null, "Id-From", "Id-To", TOO_MUCH);
+    return result.getMessage();
+  }
+
+  @Benchmark
+  public String amountOutOfRangeResult() {
+    TransferResult result = service.transferAmount(null, "Id-From", "Id-To", TOO_PRECISE);
+    return result.getMessage();
+  }
+
+  @Benchmark
+  public String unknownAccountResult() {
+    TransferResult result = service.transferAmount(null, "Id-Unknown", "Id-To", BigDecimal.ONE);
+    return result.getMessage();
+  }
+
+  @Benchmark
+  public String stacklessException() {
+    try {
+      repository.updateAccountBalance(accountFrom, accountTo, TOO_MUCH);
+      return null;
+    } catch (InvalidAmountException iae) {
+      return iae.getMessage();
+    }
+  }
+
+  @Benchmark
+  public String exceptionWithStackTrace() {
+    try {
+      TransferResult result = repository.tryTransfer("Id-From", "Id-To", TOO_MUCH);
+      if (result == TransferResult.INSUFFICIENT_BALANCE) {
+        throw new IllegalStateException("Account id " + accountFrom.getAccountId()
+          + " does not have sufficient balance to transfer");
+      }
+      return null;
+    } catch (IllegalStateException ise) {
+      return ise.getMessage();
+    }
+  }
+}
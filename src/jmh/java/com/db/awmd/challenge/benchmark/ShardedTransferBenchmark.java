@@ -0,0 +1,88 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.ShardedAccountsRepository;
+
+// Transfers through the sharded repository with a single shard, whose one writer thread applies everything,
+// against several shards. tryTransfer waits for every transfer; pipelined keeps a window of transfers in
+// flight the way the async endpoints do, which is where more shards should pay off. Run with jmhScaling to
+// see how each scales with the number of client threads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedTransferBenchmark {
+
+  private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+  private static final int WINDOW = 256;
+
+  @Param({ "1", "4" })
+  public int shards;
+
+  @Param({ AccountPicker.UNIFORM, AccountPicker.ZIPF })
+  public String distribution;
+
+  @Param({ "10000" })
+  public int accounts;
+
+  private ShardedAccountsRepository repository;
+
+  private String[] accountIds;
+
+  private AccountPicker picker;
+
+  @Setup
+  public void setUp() {
+    repository = new ShardedAccountsRepository(shards);
+    picker = new AccountPicker(distribution, accounts, 1.1);
+    accountIds = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      accountIds[i] = "Id-" + i;
+      repository.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000L)));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    repository.destroy();
+  }
+
+  @Benchmark
+  public TransferResult tryTransfer() {
+    int from = picker.next();
+    return repository.tryTransfer(accountIds[from], accountIds[picker.nextOtherThan(from)], AMOUNT);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WINDOW)
+  public void pipelined() {
+    CompletableFuture<?>[] window = new CompletableFuture<?>[WINDOW];
+    for (int i = 0; i < WINDOW; i++) {
+      int from = picker.next();
+      window[i] = repository.tryTransferAsync(accountIds[from], accountIds[picker.nextOtherThan(from)], AMOUNT);
+    }
+    CompletableFuture.allOf(window).join();
+  }
+}
@@ -0,0 +1,135 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Starts the application jar as a new process, in the full and in the lean mode, and prints how long it takes
+// until /health reports UP, the resident memory of the process at that point and how long the first transfers
+// over HTTP take. Not a JMH benchmark, a cold start only happens once per process.
+// usage: StartupFootprint <application jar> <runs per mode>, on Linux or macOS
+public final class StartupFootprint {
+
+  private static final int PORT = 18180;
+
+  private static final int FIRST_TRANSFERS = 1000;
+
+  private StartupFootprint() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    String jar = args[0];
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    for (int run = 1; run <= runs; run++) {
+      measure("full", jar, false);
+      measure("lean", jar, true);
+    }
+  }
+
+  private static void measure(String name, String jar, boolean lean) throws Exception {
+    List<String> command = new ArrayList<>(Arrays.asList("sh", "-c", "echo $$; exec \"$@\"", "sh",
+      System.getProperty("java.home") + File.separator + "bin" + File.separator + "java"));
+    if (lean) {
+      command.add("-Dstartup.lean=true");
+    }
+    // nothing of a previous run is reloaded
+    command.addAll(Arrays.asList("-jar", jar, "--server.port=" + PORT, "--transfers.schedule.path="));
+    long started = System.nanoTime();
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    try {
+      BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+        StandardCharsets.UTF_8));
+      String pid = output.readLine().trim();
+      Thread drain = new Thread(() -> {
+        try {
+          while (output.readLine() != null) {
+            // the log of the application is not needed
+          }
+        } catch (IOException ignored) {
+          // the process was stopped
+        }
+      });
+      drain.setDaemon(true);
+      drain.start();
+
+      long readyMillis = awaitHealthy(process, started);
+      long rssKb = residentKb(pid);
+      request("POST", "/v1/accounts", "{\"accountId\":\"Id-1\",\"balance\":1000000}");
+      request("POST", "/v1/accounts", "{\"accountId\":\"Id-2\",\"balance\":1000000}");
+      long transfersStarted = System.nanoTime();
+      for (int i = 0; i < FIRST_TRANSFERS; i++) {
+        request("PUT", "/v1/accounts/transfer", i % 2 == 0
+          ? "{\"accountIdFrom\":\"Id-1\",\"accountIdTo\":\"Id-2\",\"balance\":1}"
+          : "{\"accountIdFrom\":\"Id-2\",\"accountIdTo\":\"Id-1\",\"balance\":1}");
+      }
+      long transferMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - transfersStarted) / FIRST_TRANSFERS;
+      System.out.printf("%-5s ready %6d ms, rss %7.1f MB, first %d transfers %5d us each%n", name, readyMillis,
+        rssKb / 1024.0, FIRST_TRANSFERS, transferMicros);
+    } finally {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+    }
+  }
+
+  private static long awaitHealthy(Process process, long started) throws Exception {
+    long deadline = started + TimeUnit.MINUTES.toNanos(2);
+    while (System.nanoTime() < deadline) {
+      if (!process.isAlive()) {
+        throw new IllegalStateException("Application exited with " + process.exitValue());
+      }
+      try {
+        if (request("GET", "/health", null) == 200) {
+          return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+      } catch (IOException notListeningYet) {
+        // the server is not up yet
+      }
+      Thread.sleep(10);
+    }
+    throw new IllegalStateException("Application did not report UP within two minutes");
+  }
+
+  private static long residentKb(String pid) throws Exception {
+    Process ps = new ProcessBuilder("ps", "-o", "rss=", "-p", pid).start();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(ps.getInputStream(), StandardCharsets.UTF_8))) {
+      String line = in.readLine();
+      ps.waitFor();
+      return line != null ? Long.parseLong(line.trim()) : -1;
+    }
+  }
+
+  private static int request(String method, String path, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + PORT + path).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(1000);
+    connection.setReadTimeout(10_000);
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    // read the body so the connection is kept alive for the next request
+    try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      byte[] buffer = new byte[4096];
+      while (in != null && in.read(buffer) >= 0) {
+        // discarded
+      }
+    }
+    return status;
+  }
+}
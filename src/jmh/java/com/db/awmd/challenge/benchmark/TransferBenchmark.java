@@ -0,0 +1,87 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+
+// Transfer hot path from the repository up to the service. Balances are large enough that no transfer
+// is ever rejected, so every operation measures a successful transfer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferBenchmark {
+
+  private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+  @Param({ AccountPicker.UNIFORM, AccountPicker.ZIPF })
+  public String distribution;
+
+  @Param({ "10000" })
+  public int accounts;
+
+  // -1 keeps BigDecimal balances
+  @Param({ "-1", "2" })
+  public int fixedPointScale;
+
+  private AccountsRepositoryInMemory repository;
+
+  private AccountsService service;
+
+  private Account[] accountObjects;
+
+  private String[] accountIds;
+
+  private AccountPicker picker;
+
+  @Setup
+  public void setUp() {
+    repository = new AccountsRepositoryInMemory(fixedPointScale);
+    // notifications are left out so the numbers show the transfer itself
+    service = new AccountsService(repository, (account, description) -> { });
+    picker = new AccountPicker(distribution, accounts, 1.1);
+    accountObjects = new Account[accounts];
+    accountIds = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      accountIds[i] = "Id-" + i;
+      accountObjects[i] = new Account(accountIds[i], new BigDecimal(1_000_000_000L));
+      repository.createAccount(accountObjects[i]);
+    }
+  }
+
+  @Benchmark
+  public void updateAccountBalance() {
+    int from = picker.next();
+    repository.updateAccountBalance(accountObjects[from], accountObjects[picker.nextOtherThan(from)], AMOUNT);
+  }
+
+  @Benchmark
+  public TransferResult tryTransfer() {
+    int from = picker.next();
+    return repository.tryTransfer(accountIds[from], accountIds[picker.nextOtherThan(from)], AMOUNT);
+  }
+
+  @Benchmark
+  public TransferResult serviceTransferAmount() {
+    int from = picker.next();
+    return service.transferAmount(accountIds[from], accountIds[picker.nextOtherThan(from)], AMOUNT);
+  }
+}
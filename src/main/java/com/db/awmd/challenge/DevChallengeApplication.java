@@ -7,6 +7,11 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class DevChallengeApplication {
 
   public static void main(String[] args) {
+    // -Dstartup.lean=true or STARTUP_LEAN=true starts the lean variant, see LeanChallengeApplication
+    if (Boolean.parseBoolean(System.getProperty("startup.lean", System.getenv("STARTUP_LEAN")))) {
+      LeanChallengeApplication.main(args);
+      return;
+    }
     SpringApplication.run(DevChallengeApplication.class, args);
   }
 }
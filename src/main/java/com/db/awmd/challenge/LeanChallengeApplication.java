@@ -0,0 +1,119 @@
+package com.db.awmd.challenge;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.autoconfigure.AuditAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.EndpointMBeanExportAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.MetricExportAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.MetricFilterAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.TraceRepositoryAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.TraceWebFilterAutoConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jmx.JmxAutoConfiguration;
+import org.springframework.boot.autoconfigure.websocket.WebSocketAutoConfiguration;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.util.ClassUtils;
+
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.metrics.TransferMetricsEndpoint;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.CompactAccountsRepository;
+import com.db.awmd.challenge.repository.FxRateTable;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.repository.ReplicatedAccountsRepository;
+import com.db.awmd.challenge.repository.ShardedAccountsRepository;
+import com.db.awmd.challenge.repository.TransferLedger;
+import com.db.awmd.challenge.service.AccountReadCache;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AsyncNotificationService;
+import com.db.awmd.challenge.service.BalanceAuditor;
+import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.service.TransferExecutor;
+import com.db.awmd.challenge.service.TransferIdCache;
+import com.db.awmd.challenge.service.TransferRateLimiter;
+import com.db.awmd.challenge.service.TransferScheduler;
+import com.db.awmd.challenge.service.TransferWarmup;
+import com.db.awmd.challenge.web.AccountsBulkController;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.AsyncAccountsController;
+import com.db.awmd.challenge.web.BinaryTransferServer;
+import com.db.awmd.challenge.web.ReplicationController;
+import com.db.awmd.challenge.web.ScheduledTransfersController;
+import com.db.awmd.challenge.web.StandbyReadOnlyAdvice;
+
+// The same application started for a fast cold start: the components are registered here instead of being
+// found by scanning the classpath, auto-configurations the service does not need (JMX, websockets, audit,
+// request tracing and per request metrics) are left out, and actuator beans are only created once they are
+// first used. The lean profile also warms up the transfer path before /health reports UP.
+//
+// Not annotated as a configuration, so the component scan of DevChallengeApplication does not pick it up.
+// Start it as the main class, or start DevChallengeApplication with -Dstartup.lean=true. A new component has
+// to be added to the list below.
+@EnableAutoConfiguration(exclude = { JmxAutoConfiguration.class, WebSocketAutoConfiguration.class,
+  EndpointMBeanExportAutoConfiguration.class, AuditAutoConfiguration.class, TraceRepositoryAutoConfiguration.class,
+  TraceWebFilterAutoConfiguration.class, MetricFilterAutoConfiguration.class, MetricExportAutoConfiguration.class })
+@Import({ AccountsRepositoryInMemory.class, JournaledAccountsRepository.class, ShardedAccountsRepository.class,
+  CompactAccountsRepository.class, ReplicatedAccountsRepository.class, FxRateTable.class, TransferLedger.class,
+  AccountsService.class, AccountReadCache.class, AccountsBulkService.class, EmailNotificationService.class,
+  AsyncNotificationService.class, TransferExecutor.class, TransferIdCache.class, TransferRateLimiter.class,
+  TransferScheduler.class, TransferWarmup.class, BalanceAuditor.class, TransferMetrics.class,
+  TransferMetricsEndpoint.class, AccountsController.class, AccountsBulkController.class, AsyncAccountsController.class,
+  ReplicationController.class, ScheduledTransfersController.class, StandbyReadOnlyAdvice.class,
+  BinaryTransferServer.class })
+public class LeanChallengeApplication {
+
+  static final String PROFILE = "lean";
+
+  private static final String ACTUATOR_PACKAGE = "org.springframework.boot.actuate.";
+
+  // beans of these types take part in startup callbacks that skip beans which are not created yet
+  private static final Class<?>[] EAGER_TYPES = { SmartInitializingSingleton.class, Lifecycle.class,
+    ApplicationListener.class, BeanPostProcessor.class, BeanFactoryPostProcessor.class };
+
+  public static void main(String[] args) {
+    SpringApplication application = new SpringApplication(LeanChallengeApplication.class);
+    application.setAdditionalProfiles(PROFILE);
+    application.run(args);
+  }
+
+  // the actuator endpoints are then created with the handler mappings of the dispatcher servlet, on the first
+  // request it handles, and health indicators and metrics beans with the endpoints that use them
+  @Bean
+  public static BeanFactoryPostProcessor lazyActuatorBeans() {
+    return beanFactory -> {
+      for (String name : beanFactory.getBeanDefinitionNames()) {
+        BeanDefinition definition = beanFactory.getBeanDefinition(name);
+        MethodMetadata factoryMethod = definition instanceof AnnotatedBeanDefinition
+          ? ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata() : null;
+        String declaredBy = factoryMethod != null ? factoryMethod.getDeclaringClassName() : definition.getBeanClassName();
+        String type = factoryMethod != null ? factoryMethod.getReturnTypeName() : definition.getBeanClassName();
+        if (declaredBy != null && declaredBy.startsWith(ACTUATOR_PACKAGE)
+          && !isEager(type, beanFactory.getBeanClassLoader())) {
+          definition.setLazyInit(true);
+        }
+      }
+    };
+  }
+
+  private static boolean isEager(String type, ClassLoader classLoader) {
+    if (type == null || !ClassUtils.isPresent(type, classLoader)) {
+      return true;
+    }
+    Class<?> beanType = ClassUtils.resolveClassName(type, classLoader);
+    for (Class<?> eagerType : EAGER_TYPES) {
+      if (eagerType.isAssignableFrom(beanType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
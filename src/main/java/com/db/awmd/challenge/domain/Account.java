@@ -1,15 +1,25 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import org.hibernate.validator.constraints.NotBlank;
 import org.hibernate.validator.constraints.NotEmpty;
 
 @Data
+@EqualsAndHashCode(exclude = { "fixedPointBalance", "version", "cutEpoch", "cutBalance", "removed" })
+@ToString(exclude = { "fixedPointBalance", "version", "cutEpoch", "cutBalance", "removed" })
 public class Account {
 
   @NotNull
@@ -18,22 +28,86 @@ public class Account {
 
   @NotNull
   @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  private volatile BigDecimal balance;
+
+  //ISO 4217 code, an account without one holds the base currency of the FX rate table
+  @Pattern(regexp = "[A-Z]{3}", message = "Currency must be an ISO 4217 code.")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final String currency;
+
+  //set when the account keeps its balance as fixed point minor units instead of a BigDecimal
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile FixedPointBalance fixedPointBalance;
+
+  //journal position of the last recorded mutation of this account, maintained by the repository
+  @JsonIgnore
+  private volatile long version;
+
+  //last balance cut that has this account, and the balance it has in that cut when a transfer changed the
+  //account while the cut was taken; maintained by the repository under the account's stripe lock
+  @JsonIgnore
+  private long cutEpoch;
+
+  @JsonIgnore
+  private BigDecimal cutBalance;
+
+  //set by the repository under every stripe lock when the accounts are cleared, so a transfer that looked the
+  //account up before then finds out under the account's stripe lock
+  @JsonIgnore
+  private boolean removed;
 
   public Account(String accountId) {
-    this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
+    this(accountId, BigDecimal.ZERO);
+  }
+
+  public Account(String accountId, BigDecimal balance) {
+    this(accountId, balance, null);
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
-    @JsonProperty("balance") BigDecimal balance) {
+    @JsonProperty("balance") BigDecimal balance, @JsonProperty("currency") String currency) {
     this.accountId = accountId;
     this.balance = balance;
+    this.currency = currency;
+  }
+
+  public BigDecimal getBalance() {
+    FixedPointBalance fixed = this.fixedPointBalance;
+    return fixed != null ? fixed.toBigDecimal() : balance;
   }
-  
+
+  public void setBalance(BigDecimal balance) {
+    FixedPointBalance fixed = this.fixedPointBalance;
+    if (fixed != null) {
+      fixed.setMinorUnits(FixedPointBalance.toMinorUnits(balance, fixed.getScale()));
+    } else {
+      this.balance = balance;
+    }
+  }
+
+  //switches the account to lock free fixed point arithmetic, fails if the balance does not fit the scale.
+  //must happen before the account is shared with other threads
+  public synchronized void useFixedPointBalance(int scale) {
+    if (fixedPointBalance == null) {
+      fixedPointBalance = new FixedPointBalance(scale, balance);
+      balance = null;
+    }
+  }
+
+  public FixedPointBalance fixedPointBalance() {
+    return fixedPointBalance;
+  }
+
   //to deposit amount
  public void deposit(BigDecimal amount) {
+	 FixedPointBalance fixed = this.fixedPointBalance;
+	 if (fixed != null) {
+		 fixed.credit(FixedPointBalance.toMinorUnits(amount, fixed.getScale()));
+		 return;
+	 }
 	 synchronized (this) {
 		 balance =balance.add(amount);
 	 }
@@ -41,8 +115,13 @@ public class Account {
 
  // to withdraw amount
  public void withdraw(BigDecimal amount) {
+	FixedPointBalance fixed = this.fixedPointBalance;
+	if (fixed != null) {
+		fixed.debit(FixedPointBalance.toMinorUnits(amount, fixed.getScale()));
+		return;
+	}
 	synchronized (this) {
 	  balance = balance.subtract(amount);
 	}
- }	
+ }
 }
@@ -0,0 +1,20 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AccountStatement {
+
+  private final String accountId;
+
+  //newest first
+  private final List<LedgerEntry> transactions;
+
+  //pass as cursor to get the next, older page; absent when there is none
+  private final Long nextCursor;
+}
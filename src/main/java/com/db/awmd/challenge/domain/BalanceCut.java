@@ -0,0 +1,38 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Data;
+
+//balances of all accounts at one instant, summed per currency, next to what had been created in every currency
+//up to that instant net of what transfers converted out of and into it
+@Data
+public class BalanceCut {
+
+  private final long epoch;
+
+  private final long accounts;
+
+  private final Map<String, BigDecimal> balances;
+
+  private final Map<String, BigDecimal> created;
+
+  //balances minus created, only the currencies where they differ
+  private final Map<String, BigDecimal> drift;
+
+  private final long negativeAccounts;
+
+  //the first few of them
+  private final List<String> negativeAccountIds;
+
+  private final long tookMicros;
+
+  @JsonIgnore
+  public boolean isConsistent() {
+    return drift.isEmpty() && negativeAccounts == 0;
+  }
+}
@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+@Data
+public class BalanceSnapshot {
+
+  private final String accountId;
+
+  private final BigDecimal balance;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final String currency;
+
+  //version of the account when the balance was read, it grows with every later change of the balance
+  @JsonIgnore
+  private final long version;
+}
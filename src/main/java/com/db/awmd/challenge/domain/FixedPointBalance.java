@@ -0,0 +1,232 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.db.awmd.challenge.exception.InvalidAmountException;
+
+// Balance kept as a long number of minor units (e.g. cents for scale 2). Debits and credits are
+// CAS loops on the long, so they neither allocate nor take a monitor. BigDecimal is only used
+// when converting from/to the JSON representation.
+//
+// A balance can be split for an account that takes part in most transfers: credits are then spread over
+// per thread cells like a LongAdder, debits borrow from the cells when the main balance runs short, and
+// reads add everything up. A read that races with a borrow may briefly miss the borrowed amount.
+public class FixedPointBalance {
+
+  public static final int MAX_SCALE = 9;
+
+  // what minorUnitsOrOutOfRange returns for an amount that has no exact long representation
+  public static final long OUT_OF_RANGE = Long.MIN_VALUE;
+
+  private static final BigDecimal MIN_UNITS = BigDecimal.valueOf(Long.MIN_VALUE);
+
+  private static final BigDecimal MAX_UNITS = BigDecimal.valueOf(Long.MAX_VALUE);
+
+  // longs between two cells, so cells written by different threads are on different cache lines
+  private static final int CELL_STRIDE = 8;
+
+  private final int scale;
+
+  private final AtomicLong minorUnits;
+
+  // allocated the first time the balance is split and kept after merging, so a credit that raced with
+  // the merge and still landed in a cell is counted
+  private volatile Cells cells;
+
+  private volatile boolean split;
+
+  public FixedPointBalance(int scale, BigDecimal balance) {
+    this.scale = validateScale(scale);
+    this.minorUnits = new AtomicLong(toMinorUnits(balance, scale));
+  }
+
+  public int getScale() {
+    return scale;
+  }
+
+  public long getMinorUnits() {
+    long total = minorUnits.get();
+    Cells cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < cells.count; i++) {
+        total += cells.values.get(i * CELL_STRIDE);
+      }
+    }
+    return total;
+  }
+
+  // not meant to race with credits to a split balance
+  public void setMinorUnits(long units) {
+    Cells cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < cells.count; i++) {
+        cells.values.set(i * CELL_STRIDE, 0);
+      }
+    }
+    minorUnits.set(units);
+  }
+
+  public boolean isSplit() {
+    return split;
+  }
+
+  // later credits go to one of cellCount cells, rounded up to a power of two
+  public synchronized void split(int cellCount) {
+    if (cells == null) {
+      cells = new Cells(Integer.highestOneBit(Math.max(1, cellCount - 1)) << 1);
+    }
+    split = true;
+  }
+
+  // later credits go to the main balance again, and what the cells hold is moved there
+  public void merge() {
+    split = false;
+    borrow();
+  }
+
+  // number of credits that went to the cells since the last call
+  public long takeSplitCredits() {
+    Cells cells = this.cells;
+    return cells != null ? cells.credits.sumThenReset() : 0;
+  }
+
+  public BigDecimal toBigDecimal() {
+    return BigDecimal.valueOf(getMinorUnits(), scale);
+  }
+
+  // debits only if the balance covers the amount, returns false otherwise
+  public boolean tryDebit(long units) {
+    while (true) {
+      long current = minorUnits.get();
+      if (current < units) {
+        if (borrow()) {
+          continue;
+        }
+        return false;
+      }
+      if (minorUnits.compareAndSet(current, current - units)) {
+        return true;
+      }
+    }
+  }
+
+  // credits unless the balance would overflow a long, returns false in that case. Credits to a split
+  // balance check the overflow of their cell only
+  public boolean tryCredit(long units) {
+    if (split) {
+      return cells.credit(units);
+    }
+    long current;
+    long updated;
+    do {
+      current = minorUnits.get();
+      updated = current + units;
+      if (((current ^ updated) & (units ^ updated)) < 0) {
+        return false;
+      }
+    } while (!minorUnits.compareAndSet(current, updated));
+    return true;
+  }
+
+  // unconditional subtraction, mirrors the BigDecimal Account.withdraw semantics
+  public void debit(long units) {
+    long current;
+    long updated;
+    do {
+      current = minorUnits.get();
+      updated = current - units;
+      if (((current ^ units) & (current ^ updated)) < 0) {
+        throw new InvalidAmountException("Balance would overflow");
+      }
+    } while (!minorUnits.compareAndSet(current, updated));
+  }
+
+  public void credit(long units) {
+    if (!tryCredit(units)) {
+      throw new InvalidAmountException("Balance would overflow");
+    }
+  }
+
+  // moves whatever the cells hold to the main balance, true if there was anything
+  private boolean borrow() {
+    Cells cells = this.cells;
+    if (cells == null) {
+      return false;
+    }
+    boolean borrowed = false;
+    for (int i = 0; i < cells.count; i++) {
+      long units = cells.values.getAndSet(i * CELL_STRIDE, 0);
+      if (units != 0) {
+        minorUnits.addAndGet(units);
+        borrowed = true;
+      }
+    }
+    return borrowed;
+  }
+
+  public static long toMinorUnits(BigDecimal amount, int scale) {
+    if (amount.scale() > scale && amount.stripTrailingZeros().scale() > scale) {
+      throw new InvalidAmountException("Amount " + amount + " has more than " + scale + " decimal places");
+    }
+    try {
+      return amount.movePointRight(scale).longValueExact();
+    } catch (ArithmeticException ae) {
+      throw new InvalidAmountException("Amount " + amount + " is out of range");
+    }
+  }
+
+  // same conversion for amounts of transfers, where out of range amounts are a rejection rather than an error
+  // and are reported without building an exception
+  public static long minorUnitsOrOutOfRange(BigDecimal amount, int scale) {
+    if (amount.scale() > scale && amount.stripTrailingZeros().scale() > scale) {
+      return OUT_OF_RANGE;
+    }
+    BigDecimal units = amount.movePointRight(scale);
+    if (units.compareTo(MIN_UNITS) <= 0 || units.compareTo(MAX_UNITS) > 0) {
+      return OUT_OF_RANGE;
+    }
+    // only zeros can be left after the point here
+    return units.longValue();
+  }
+
+  private static int validateScale(int scale) {
+    if (scale < 0 || scale > MAX_SCALE) {
+      throw new IllegalArgumentException("Fixed point scale must be between 0 and " + MAX_SCALE);
+    }
+    return scale;
+  }
+
+  private static final class Cells {
+
+    private final int count;
+
+    private final AtomicLongArray values;
+
+    private final LongAdder credits = new LongAdder();
+
+    private Cells(int count) {
+      this.count = count;
+      this.values = new AtomicLongArray(count * CELL_STRIDE);
+    }
+
+    boolean credit(long units) {
+      // threads keep hitting the same cell, different threads mostly different ones
+      int index = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 40) & (count - 1);
+      int offset = index * CELL_STRIDE;
+      long current;
+      long updated;
+      do {
+        current = values.get(offset);
+        updated = current + units;
+        if (((current ^ updated) & (units ^ updated)) < 0) {
+          return false;
+        }
+      } while (!values.compareAndSet(offset, current, updated));
+      credits.increment();
+      return true;
+    }
+  }
+}
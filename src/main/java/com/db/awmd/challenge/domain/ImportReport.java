@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class ImportReport {
+
+  private final long imported;
+
+  private final long duplicates;
+
+  private final long rejected;
+
+  //false when the input could not be read to the end, everything before that point was still imported
+  private final boolean complete;
+
+  //the first duplicate ids and errors only, the counts are always exact
+  private final List<String> duplicateIds;
+
+  private final List<String> errors;
+}
@@ -0,0 +1,28 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+@Data
+public class LedgerEntry {
+
+  //position in the ledger, also the cursor to continue a statement after this entry
+  private final long sequence;
+
+  //epoch millis
+  private final long timestamp;
+
+  private final String accountIdFrom;
+
+  private final String accountIdTo;
+
+  private final BigDecimal amount;
+
+  //what the account to transfer to was credited in its own currency, only set when it differs from the
+  //currency of the account to transfer from
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final BigDecimal creditedAmount;
+}
@@ -0,0 +1,52 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+// A future dated or standing order transfer, run through the normal transfer path once it is due
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScheduledTransfer {
+
+  // assigned when the transfer is scheduled
+  private String scheduleId;
+
+  @NotNull
+  @NotEmpty
+  private String accountIdFrom;
+
+  @NotNull
+  @NotEmpty
+  private String accountIdTo;
+
+  @NotNull
+  @Min(value = 1, message = "Balance to transfer should be positive")
+  private BigDecimal balance;
+
+  @Pattern(regexp = "[A-Z]{3}")
+  private String currency;
+
+  // epoch millis of the next run, a time in the past runs right away
+  @NotNull
+  private Long executeAt;
+
+  // a standing order repeats this often after executeAt, 0 runs once
+  @Min(0)
+  private long intervalMs;
+
+  // runs left of a standing order, 0 repeats until it is cancelled
+  @Min(0)
+  private long remaining;
+
+  // outcome of the latest run since this instance started
+  private TransferResult lastResult;
+}
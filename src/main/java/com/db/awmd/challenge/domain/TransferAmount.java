@@ -4,6 +4,8 @@ import java.math.BigDecimal;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -11,6 +13,10 @@ import lombok.Data;
 
 @Data
 public class TransferAmount {
+
+	//optional client supplied id, a retry with the same id gets the original outcome
+	@Size(max = 128)
+	private String transferId;
 	
 	@NotNull
 	@NotEmpty
@@ -23,4 +29,9 @@ public class TransferAmount {
 	@NotNull
 	@Min(value = 1, message = "Balance to transfer should be positive")
     private BigDecimal balance;
+
+	//optional currency of balance, the transfer is refused when the account to transfer from holds another
+	//one. The account to transfer to is credited the converted amount in its own currency
+	@Pattern(regexp = "[A-Z]{3}")
+	private String currency;
 }
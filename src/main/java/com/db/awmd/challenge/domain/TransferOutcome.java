@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferOutcome {
+
+  private final int index;
+
+  private final TransferResult status;
+
+  private final String message;
+}
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+//what a transfer did to each account, in the account's own currency: amount was debited in currencyFrom and
+//credited in currencyTo, which differ only for a converted transfer. A null currency is the base currency.
+//Only the result is set unless the transfer succeeded
+@Data
+public class TransferReceipt {
+
+  private final TransferResult result;
+
+  private final BigDecimal amount;
+
+  private final String currencyFrom;
+
+  private final BigDecimal credited;
+
+  private final String currencyTo;
+
+  public TransferReceipt(TransferResult result, BigDecimal amount, String currencyFrom, BigDecimal credited,
+    String currencyTo) {
+    this.result = result;
+    this.amount = amount;
+    this.currencyFrom = currencyFrom;
+    this.credited = credited;
+    this.currencyTo = currencyTo;
+  }
+
+  public TransferReceipt(TransferResult result) {
+    this(result, null, null, null, null);
+  }
+
+  //for repositories that never convert, the account to transfer to is credited the amount in the same currency
+  public static TransferReceipt unconverted(TransferResult result, Account accountFrom, BigDecimal amount) {
+    if (result != TransferResult.SUCCESS || accountFrom == null) {
+      return new TransferReceipt(result);
+    }
+    return new TransferReceipt(result, amount, accountFrom.getCurrency(), amount, accountFrom.getCurrency());
+  }
+}
@@ -0,0 +1,40 @@
+package com.db.awmd.challenge.domain;
+
+// The message is the body of the response and the same for every transfer with this result, so
+// rejections are answered without building a string.
+public enum TransferResult {
+
+  SUCCESS("Amount successfully transferred"),
+
+  ACCOUNT_FROM_NOT_FOUND("Account to transfer from does not exist"),
+
+  ACCOUNT_TO_NOT_FOUND("Account to transfer to does not exist"),
+
+  SAME_ACCOUNT("Both accounts cannot be same"),
+
+  INSUFFICIENT_BALANCE("Account to transfer from does not have sufficient balance to transfer"),
+
+  AMOUNT_OUT_OF_RANGE("Amount cannot be transferred"),
+
+  INVALID_REQUEST("Transfer request is invalid"),
+
+  BATCH_ABORTED("Transfer not applied because the atomic batch failed"),
+
+  TRANSFER_IN_PROGRESS("Transfer id is already being processed"),
+
+  RATE_LIMITED("Too many transfers, retry later"),
+
+  CURRENCY_MISMATCH("Transfer currency does not match the account to transfer from"),
+
+  FX_RATE_UNAVAILABLE("Amount cannot be converted between the account currencies");
+
+  private final String message;
+
+  TransferResult(String message) {
+    this.message = message;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
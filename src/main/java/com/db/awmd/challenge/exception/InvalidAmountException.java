@@ -1,8 +1,9 @@
 package com.db.awmd.challenge.exception;
 
+//rejections of client requests, no stack trace is captured since the message says all there is to know
 public class InvalidAmountException extends RuntimeException{
 	
 	public InvalidAmountException(String message) {
-	    super(message);
+	    super(message, null, false, false);
 	  }
 }
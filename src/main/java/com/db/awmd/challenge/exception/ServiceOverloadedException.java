@@ -0,0 +1,8 @@
+package com.db.awmd.challenge.exception;
+
+public class ServiceOverloadedException extends RuntimeException {
+
+  public ServiceOverloadedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,8 @@
+package com.db.awmd.challenge.exception;
+
+public class StandbyReadOnlyException extends RuntimeException {
+
+  public StandbyReadOnlyException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,95 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of nanosecond values in the spirit of HdrHistogram: every power of two is split
+// into 8 linear sub buckets, so any reported percentile is within 12.5% of the recorded value. Recording
+// is an index computation and a LongAdder increment, it does not allocate once the adders have settled.
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder total = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    buckets[indexOf(value)].increment();
+    count.increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  // count, mean, max and percentiles in microseconds
+  public Map<String, Object> snapshot() {
+    long[] counts = new long[BUCKETS];
+    long recorded = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      recorded += counts[i];
+    }
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("count", recorded);
+    snapshot.put("mean", recorded == 0 ? 0 : toMicros(total.sum() / (double) recorded));
+    int bucket = 0;
+    long cumulative = counts[0];
+    for (int p = 0; p < PERCENTILES.length; p++) {
+      long rank = (long) Math.ceil(PERCENTILES[p] * recorded);
+      while (cumulative < rank && bucket < BUCKETS - 1) {
+        cumulative += counts[++bucket];
+      }
+      snapshot.put(PERCENTILE_NAMES[p], recorded == 0 ? 0 : toMicros(highestValueIn(bucket)));
+    }
+    snapshot.put("max", toMicros(max.get()));
+    return snapshot;
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueIn(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  private static double toMicros(double nanos) {
+    return Math.round(nanos / TimeUnit.MICROSECONDS.toNanos(1) * 1000) / 1000.0;
+  }
+}
@@ -0,0 +1,152 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.TransferResult;
+
+// Counters and histograms recorded on the transfer hot path. Everything is LongAdder based so recording
+// neither allocates nor contends on a shared cache line. The transfer rate comes from a sampler thread that
+// reads the transfer count once a second, so reading a snapshot changes nothing another reader sees.
+@Component
+public class TransferMetrics {
+
+  private final LatencyHistogram transferLatency = new LatencyHistogram();
+
+  private final LatencyHistogram lockWait = new LatencyHistogram();
+
+  private final LatencyHistogram notificationDispatchLag = new LatencyHistogram();
+
+  private final LongAdder uncontendedLocks = new LongAdder();
+
+  private final LongAdder hotAccountsSplit = new LongAdder();
+
+  private final LongAdder hotAccountsMerged = new LongAdder();
+
+  private final LongAdder splitCredits = new LongAdder();
+
+  private final LongAdder[] results = new LongAdder[TransferResult.values().length];
+
+  private static final int RATE_WINDOW_SECONDS = 10;
+
+  // successful transfer counts one second apart, a ring with the newest at sampleCount - 1
+  private final long[] rateSamples = new long[RATE_WINDOW_SECONDS + 1];
+
+  private long sampleCount;
+
+  private ScheduledExecutorService rateSampler;
+
+  public TransferMetrics() {
+    for (int i = 0; i < results.length; i++) {
+      results[i] = new LongAdder();
+    }
+  }
+
+  public void recordTransfer(TransferResult result, long latencyNanos) {
+    results[result.ordinal()].increment();
+    transferLatency.record(latencyNanos);
+  }
+
+  public void recordResult(TransferResult result) {
+    results[result.ordinal()].increment();
+  }
+
+  public void recordUncontendedLock() {
+    uncontendedLocks.increment();
+  }
+
+  public void recordLockWait(long nanos) {
+    lockWait.record(nanos);
+  }
+
+  public void recordHotAccountSplit() {
+    hotAccountsSplit.increment();
+  }
+
+  public void recordHotAccountMerged() {
+    hotAccountsMerged.increment();
+  }
+
+  public void recordSplitCredit() {
+    splitCredits.increment();
+  }
+
+  public void recordNotificationDispatch(long lagNanos) {
+    notificationDispatchLag.record(lagNanos);
+  }
+
+  public long getTransfers() {
+    return results[TransferResult.SUCCESS.ordinal()].sum();
+  }
+
+  // without the sampler, as when created outside Spring, the rate stays at zero
+  @PostConstruct
+  public void start() {
+    rateSampler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "transfer-rate-sampler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    rateSampler.scheduleAtFixedRate(this::sampleRate, 0, 1, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (rateSampler != null) {
+      rateSampler.shutdownNow();
+    }
+  }
+
+  // per second over the last RATE_WINDOW_SECONDS, or over as many seconds as have been sampled so far
+  public synchronized double getTransfersPerSecond() {
+    int seconds = (int) Math.min(sampleCount - 1, RATE_WINDOW_SECONDS);
+    if (seconds < 1) {
+      return 0;
+    }
+    long newest = rateSamples[(int) ((sampleCount - 1) % rateSamples.length)];
+    long oldest = rateSamples[(int) ((sampleCount - 1 - seconds) % rateSamples.length)];
+    return (newest - oldest) / (double) seconds;
+  }
+
+  public Map<String, Object> snapshot() {
+    long transfers = getTransfers();
+    double rate = getTransfersPerSecond();
+
+    Map<String, Object> rejected = new LinkedHashMap<>();
+    for (TransferResult result : TransferResult.values()) {
+      if (result != TransferResult.SUCCESS) {
+        rejected.put(result.name(), results[result.ordinal()].sum());
+      }
+    }
+    Map<String, Object> locks = new LinkedHashMap<>();
+    locks.put("uncontended", uncontendedLocks.sum());
+    locks.put("waits", lockWait.snapshot());
+    Map<String, Object> hotAccounts = new LinkedHashMap<>();
+    hotAccounts.put("split", hotAccountsSplit.sum());
+    hotAccounts.put("merged", hotAccountsMerged.sum());
+    hotAccounts.put("splitCredits", splitCredits.sum());
+
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("transfers", transfers);
+    snapshot.put("transfersPerSecond", Math.round(rate * 10) / 10.0);
+    snapshot.put("latencyMicros", transferLatency.snapshot());
+    snapshot.put("lockWaitMicros", locks);
+    snapshot.put("rejected", rejected);
+    snapshot.put("hotAccounts", hotAccounts);
+    snapshot.put("notificationDispatchLagMicros", notificationDispatchLag.snapshot());
+    return snapshot;
+  }
+
+  private synchronized void sampleRate() {
+    rateSamples[(int) (sampleCount++ % rateSamples.length)] = getTransfers();
+  }
+}
@@ -0,0 +1,25 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+// GET /transfers, the transfer rate is the average over the last few seconds whoever asks
+@Component
+public class TransferMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+  private final TransferMetrics transferMetrics;
+
+  @Autowired
+  public TransferMetricsEndpoint(TransferMetrics transferMetrics) {
+    super("transfers");
+    this.transferMetrics = transferMetrics;
+  }
+
+  @Override
+  public Map<String, Object> invoke() {
+    return transferMetrics.snapshot();
+  }
+}
@@ -1,8 +1,14 @@
 package com.db.awmd.challenge.repository;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 
 public interface AccountsRepository {
@@ -11,7 +17,40 @@ public interface AccountsRepository {
 
   Account getAccount(String accountId);
 
+  // weakly consistent, accounts created or removed meanwhile may or may not be seen
+  void forEachAccount(Consumer<Account> action);
+
   void clearAccounts();
   
   void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance);
+
+  TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount);
+
+  TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic);
+
+  // like tryTransfer, the receipt of a transfer that succeeded tells what each account was debited or credited
+  // in its own currency. Repositories that convert between currencies override it with the amount they credited
+  default TransferReceipt tryTransferWithReceipt(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    TransferResult result = tryTransfer(accountIdFrom, accountIdTo, amount);
+    return TransferReceipt.unconverted(result, getAccount(accountIdFrom), amount);
+  }
+
+  // like tryTransferBatch, with one receipt per transfer
+  default TransferReceipt[] tryTransferBatchWithReceipts(List<TransferAmount> transfers, boolean atomic) {
+    TransferResult[] results = tryTransferBatch(transfers, atomic);
+    TransferReceipt[] receipts = new TransferReceipt[results.length];
+    for (int i = 0; i < results.length; i++) {
+      TransferAmount transfer = transfers.get(i);
+      receipts[i] = TransferReceipt.unconverted(results[i], getAccount(transfer.getAccountIdFrom()),
+        transfer.getBalance());
+    }
+    return receipts;
+  }
+
+  // repositories that apply transfers on threads of their own complete the future there, the lock
+  // based ones apply the transfer on the calling thread
+  default CompletableFuture<TransferResult> tryTransferAsync(String accountIdFrom, String accountIdTo,
+    BigDecimal amount) {
+    return CompletableFuture.completedFuture(tryTransfer(accountIdFrom, accountIdTo, amount));
+  }
 }
@@ -1,27 +1,153 @@
 package com.db.awmd.challenge.repository;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceCut;
+import com.db.awmd.challenge.domain.FixedPointBalance;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
-
-import lombok.extern.slf4j.Slf4j;
+import com.db.awmd.challenge.exception.InvalidAccountException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 
 @Repository
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "memory", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
+  // must be a power of two so a stripe can be picked with a mask
+  private static final int LOCK_STRIPES = 1024;
+
+  // transfers in one non-atomic batch are applied this many at a time under a single set of locks
+  private static final int BATCH_CHUNK_SIZE = 256;
+
+  // what a balance cut reports for accounts without a currency when there is no rate table
+  private static final String BASE_CURRENCY = "base";
+
+  // ids of negative balances a cut lists
+  private static final int MAX_NEGATIVE_IDS = 10;
+
   private final Map<String, Account> accounts = new ConcurrentHashMap<>();
 
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  private TransferMetrics transferMetrics = new TransferMetrics();
+
+  private TransferLedger transferLedger;
+
+  private BalanceListener balanceListener;
+
+  private FxRateTable fxRates;
+
+  // negative keeps balances as BigDecimal, otherwise accounts are switched to fixed point on creation
+  private final int fixedPointScale;
+
+  // null unless hot accounts are split, credits to a split account do not lock its stripe
+  private final HotAccounts hotAccounts;
+
+  // balance cuts are numbered; a change made under the stripe locks reads the number once and belongs to the
+  // cut it reads, see takeBalanceCut
+  private volatile long cutEpoch;
+
+  // set while a cut is taken, credits to split accounts then lock the stripe of the account as well
+  private volatile boolean cutting;
+
+  // one cut at a time, and no clear while one is taken
+  private final Object cutLock = new Object();
+
+  // what creations, conversions and replays changed in every currency, per stripe and parity of the epoch they
+  // read; guarded by the stripe lock, allocated on first use
+  private final CurrencyTotals[][] createdByStripe = new CurrencyTotals[2][LOCK_STRIPES];
+
+  // what the changes belonging to cuts taken so far added up to, guarded by cutLock
+  private final CurrencyTotals createdUpToCut = new CurrencyTotals();
+
+  public AccountsRepositoryInMemory() {
+    this(-1);
+  }
+
+  // without split hot accounts, the journaled subclass relies on every change of an account being
+  // applied under the account's stripe lock
+  public AccountsRepositoryInMemory(int fixedPointScale) {
+    this(fixedPointScale, false, 0, 0);
+  }
+
+  // hot accounts are only split with fixed point balances
+  @Autowired
+  public AccountsRepositoryInMemory(@Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale,
+    @Value("${accounts.hot.enabled:false}") boolean splitHotAccounts,
+    @Value("${accounts.hot.contended-per-second:200}") int contendedPerSecond,
+    @Value("${accounts.hot.cells:0}") int cells) {
+    this.fixedPointScale = fixedPointScale;
+    this.hotAccounts = splitHotAccounts && fixedPointScale >= 0
+      ? new HotAccounts(contendedPerSecond, cells, this::stripeLock) : null;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    this.transferMetrics = transferMetrics;
+  }
+
+  @Autowired(required = false)
+  public void setTransferLedger(TransferLedger transferLedger) {
+    this.transferLedger = transferLedger;
+  }
+
+  @Autowired(required = false)
+  public void setBalanceListener(BalanceListener balanceListener) {
+    this.balanceListener = balanceListener;
+  }
+
+  @Autowired(required = false)
+  public void setFxRates(FxRateTable fxRates) {
+    this.fxRates = fxRates;
+  }
+
   @Override
   public void createAccount(Account account) throws DuplicateAccountIdException {
-    Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-    if (previousAccount != null) {
-      throw new DuplicateAccountIdException(
-        "Account id " + account.getAccountId() + " already exists!");
+    if (fixedPointScale >= 0) {
+      account.useFixedPointBalance(fixedPointScale);
+    }
+    // the account's stripe is held so no transfer on it can be recorded before its creation
+    ReentrantLock lock = locks[stripeOf(account.getAccountId())];
+    lock.lock();
+    try {
+      // the id can only be taken by a creation on this stripe, so nothing can come between the check and the put
+      if (accounts.containsKey(account.getAccountId())) {
+        throw new DuplicateAccountIdException(
+          "Account id " + account.getAccountId() + " already exists!");
+      }
+      onAccountCreated(account);
+      accounts.put(account.getAccountId(), account);
+      // a cut already being taken leaves the account out, and its balance with the changes of the next cut
+      long epoch = cutEpoch;
+      account.setCutEpoch(epoch);
+      created(account, account.getBalance(), epoch);
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -30,18 +156,752 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
     return accounts.get(accountId);
   }
 
+  @Override
+  public void forEachAccount(Consumer<Account> action) {
+    accounts.values().forEach(action);
+  }
+
   @Override
   public void clearAccounts() {
-    accounts.clear();
+    synchronized (cutLock) {
+      // every stripe is held across the hook and the clear, so a transfer is logged and applied either
+      // wholly before the clear or wholly after it, and a log replays to what was in memory
+      for (ReentrantLock lock : locks) {
+        lock.lock();
+      }
+      try {
+        onAccountsCleared();
+        for (Account account : accounts.values()) {
+          account.setRemoved(true);
+        }
+        accounts.clear();
+        createdUpToCut.clear();
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+          createdByStripe[0][stripe] = null;
+          createdByStripe[1][stripe] = null;
+        }
+      } finally {
+        for (int stripe = LOCK_STRIPES - 1; stripe >= 0; stripe--) {
+          locks[stripe].unlock();
+        }
+      }
+    }
+    if (transferLedger != null) {
+      transferLedger.clear();
+    }
+    if (balanceListener != null) {
+      balanceListener.balancesCleared();
+    }
+    if (hotAccounts != null) {
+      hotAccounts.clear();
+    }
+  }
+
+  // The balances all accounts had at one instant, taken while transfers keep running, and what had been created
+  // in every currency up to that instant. Starting a cut bumps the epoch; a transfer reads the epoch once under
+  // its stripe locks, and one that reads the new epoch first keeps the balance each of its accounts had, unless
+  // the account is in the cut already. The cut then visits every account under its stripe lock and takes the
+  // kept balance or else the current one, so every transfer is either wholly in the cut or wholly out of it.
+  // Nothing is locked longer than one account's visit, and transfers between cuts only compare two epochs.
+  //
+  // Creations and transfers between currencies add what they change in a currency to per stripe totals of
+  // the epoch they read, which the cut sums once every change of the previous epoch has finished.
+  public BalanceCut takeBalanceCut() {
+    synchronized (cutLock) {
+      long started = System.nanoTime();
+      cutting = true;
+      try {
+        // credits to split accounts that started without the stripe lock of the account hold the stripe of
+        // the debited account until they are done, later ones see cutting and lock both stripes
+        awaitStripes();
+        long epoch = cutEpoch + 1;
+        cutEpoch = epoch;
+        // every change that read the previous epoch has finished once its stripes were free
+        int previous = (int) ((epoch - 1) & 1);
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+          locks[stripe].lock();
+          try {
+            CurrencyTotals changes = createdByStripe[previous][stripe];
+            if (changes != null) {
+              createdUpToCut.addAll(changes);
+              changes.clear();
+            }
+          } finally {
+            locks[stripe].unlock();
+          }
+        }
+
+        CurrencyTotals balances = new CurrencyTotals();
+        long visited = 0;
+        long negative = 0;
+        List<String> negativeIds = new ArrayList<>();
+        for (Account account : accounts.values()) {
+          ReentrantLock lock = stripeLock(account.getAccountId());
+          lock.lock();
+          try {
+            boolean belowZero;
+            if (account.getCutEpoch() == epoch) {
+              // kept by a transfer, or null when the account was created after the cut started
+              BigDecimal kept = account.getCutBalance();
+              if (kept == null) {
+                continue;
+              }
+              account.setCutBalance(null);
+              balances.add(account.getCurrency(), kept);
+              belowZero = kept.signum() < 0;
+            } else {
+              account.setCutEpoch(epoch);
+              FixedPointBalance fixed = account.fixedPointBalance();
+              if (fixed != null) {
+                long units = fixed.getMinorUnits();
+                balances.addUnits(account.getCurrency(), units, fixed.getScale());
+                belowZero = units < 0;
+              } else {
+                BigDecimal balance = account.getBalance();
+                balances.add(account.getCurrency(), balance);
+                belowZero = balance.signum() < 0;
+              }
+            }
+            visited++;
+            if (belowZero && negative++ < MAX_NEGATIVE_IDS) {
+              negativeIds.add(account.getAccountId());
+            }
+          } finally {
+            lock.unlock();
+          }
+        }
+
+        String baseCurrency = fxRates != null ? fxRates.getBaseCurrency() : BASE_CURRENCY;
+        Map<String, BigDecimal> balanceSums = balances.toMap(baseCurrency);
+        Map<String, BigDecimal> createdSums = createdUpToCut.toMap(baseCurrency);
+        Map<String, BigDecimal> drift = new TreeMap<>();
+        for (Map.Entry<String, BigDecimal> entry : balanceSums.entrySet()) {
+          BigDecimal difference = entry.getValue().subtract(createdSums.getOrDefault(entry.getKey(), BigDecimal.ZERO));
+          if (difference.signum() != 0) {
+            drift.put(entry.getKey(), difference);
+          }
+        }
+        for (Map.Entry<String, BigDecimal> entry : createdSums.entrySet()) {
+          if (!balanceSums.containsKey(entry.getKey()) && entry.getValue().signum() != 0) {
+            drift.put(entry.getKey(), entry.getValue().negate());
+          }
+        }
+        return new BalanceCut(epoch, visited, balanceSums, createdSums, drift, negative, negativeIds,
+          TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+      } finally {
+        cutting = false;
+      }
+    }
+  }
+
+  // extension points for subclasses that record mutations; the transfer and creation hooks are called
+  // while the stripe locks of the accounts involved are held, the clear hook while all of them are, so they see mutations of an account in
+  // the order they were applied. Each hook runs before the mutation is counted anywhere else, and one that
+  // throws fails the mutation: the account is not created, the accounts are not cleared, the transfer is
+  // undone. A subclass never holds state its log is missing
+  protected void onAccountCreated(Account account) {
+  }
+
+  // credited is the amount itself unless accountTo holds another currency
+  protected void onTransferApplied(Account accountFrom, Account accountTo, BigDecimal amount,
+    BigDecimal credited) {
+  }
+
+  protected void onAccountsCleared() {
+  }
+
+  protected Collection<Account> allAccounts() {
+    return accounts.values();
+  }
+
+  // holding it excludes every transfer on the account
+  protected ReentrantLock stripeLock(String accountId) {
+    return locks[stripeOf(accountId)];
+  }
+
+  // applies a transfer read back from a log without checking the balance. Each half is skipped for an
+  // account whose version is not older than the record, which an image taken while transfers kept running
+  // may already contain; the hooks are not called
+  protected void replayTransfer(long version, String accountIdFrom, String accountIdTo, BigDecimal amount,
+    BigDecimal credited) {
+    int fromStripe = stripeOf(accountIdFrom);
+    int toStripe = stripeOf(accountIdTo);
+    ReentrantLock first = locks[Math.min(fromStripe, toStripe)];
+    ReentrantLock second = locks[Math.max(fromStripe, toStripe)];
+    first.lock();
+    second.lock();
+    try {
+      long epoch = cutEpoch;
+      Account accountFrom = accounts.get(accountIdFrom);
+      boolean debited = accountFrom != null && accountFrom.getVersion() < version;
+      if (debited) {
+        keepForCut(accountFrom, epoch);
+        accountFrom.withdraw(amount);
+        accountFrom.setVersion(version);
+        balanceChanged(accountFrom);
+      }
+      Account accountTo = accounts.get(accountIdTo);
+      boolean deposited = accountTo != null && accountTo.getVersion() < version;
+      if (deposited) {
+        keepForCut(accountTo, epoch);
+        accountTo.deposit(credited);
+        accountTo.setVersion(version);
+        balanceChanged(accountTo);
+      }
+      // a half the image already had was counted with the balance the image created the account with
+      if (debited != deposited || debited && !sameCurrency(accountFrom, accountTo)) {
+        if (debited) {
+          created(accountFrom, amount.negate(), epoch);
+        }
+        if (deposited) {
+          created(accountTo, credited, epoch);
+        }
+      }
+    } finally {
+      second.unlock();
+      first.unlock();
+    }
+  }
+
+  // removes the accounts a logged clear removed, accounts created after it have a newer version
+  protected void replayClear(long version) {
+    synchronized (cutLock) {
+      for (Account account : accounts.values()) {
+        if (account.getVersion() >= version) {
+          continue;
+        }
+        ReentrantLock lock = stripeLock(account.getAccountId());
+        lock.lock();
+        try {
+          if (accounts.remove(account.getAccountId(), account)) {
+            created(account, account.getBalance().negate(), cutEpoch);
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+    if (balanceListener != null) {
+      balanceListener.balancesCleared();
+    }
   }
 
   @Override
   public void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance) {
-	 synchronized (this) {
-		accountFrom.withdraw(balance);
-		accountTo.deposit(balance);
-	}	
+    TransferResult result = transferLocked(accountFrom, accountTo, balance);
+    if (result == TransferResult.ACCOUNT_FROM_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountFrom.getAccountId() + " does not exist");
+    } else if (result == TransferResult.ACCOUNT_TO_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountTo.getAccountId() + " does not exist");
+    } else if (result == TransferResult.INSUFFICIENT_BALANCE) {
+      throw new InvalidAmountException("Account id " + accountFrom.getAccountId()
+        + " does not have sufficient balance to transfer");
+    } else if (result == TransferResult.AMOUNT_OUT_OF_RANGE) {
+      throw new InvalidAmountException("Amount " + balance + " cannot be transferred");
+    } else if (result == TransferResult.FX_RATE_UNAVAILABLE) {
+      throw new InvalidAmountException(result.getMessage());
+    }
   }
 
-}
+  @Override
+  public TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    Account accountFrom = accounts.get(accountIdFrom);
+    if (accountFrom == null) {
+      return TransferResult.ACCOUNT_FROM_NOT_FOUND;
+    }
+    Account accountTo = accounts.get(accountIdTo);
+    if (accountTo == null) {
+      return TransferResult.ACCOUNT_TO_NOT_FOUND;
+    }
+    if (accountIdFrom.equals(accountIdTo)) {
+      return TransferResult.SAME_ACCOUNT;
+    }
+    return transferLocked(accountFrom, accountTo, amount);
+  }
 
+  @Override
+  public TransferReceipt tryTransferWithReceipt(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    Account accountFrom = accounts.get(accountIdFrom);
+    if (accountFrom == null) {
+      return new TransferReceipt(TransferResult.ACCOUNT_FROM_NOT_FOUND);
+    }
+    Account accountTo = accounts.get(accountIdTo);
+    if (accountTo == null) {
+      return new TransferReceipt(TransferResult.ACCOUNT_TO_NOT_FOUND);
+    }
+    if (accountIdFrom.equals(accountIdTo)) {
+      return new TransferReceipt(TransferResult.SAME_ACCOUNT);
+    }
+    BigDecimal credit = credit(accountFrom, accountTo, amount);
+    TransferResult result = transferLocked(accountFrom, accountTo, amount, credit);
+    if (result != TransferResult.SUCCESS) {
+      return new TransferReceipt(result);
+    }
+    return new TransferReceipt(result, amount, accountFrom.getCurrency(), credit, accountTo.getCurrency());
+  }
+
+  @Override
+  public TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic) {
+    TransferResult[] results = new TransferResult[transfers.size()];
+    applyBatch(transfers, atomic, results);
+    return results;
+  }
+
+  @Override
+  public TransferReceipt[] tryTransferBatchWithReceipts(List<TransferAmount> transfers, boolean atomic) {
+    TransferResult[] results = new TransferResult[transfers.size()];
+    TransferReceipt[] receipts = new TransferReceipt[results.length];
+    for (PendingTransfer item : applyBatch(transfers, atomic, results)) {
+      if (results[item.index] == TransferResult.SUCCESS) {
+        receipts[item.index] = new TransferReceipt(TransferResult.SUCCESS, item.amount,
+          item.accountFrom.getCurrency(), item.credit, item.accountTo.getCurrency());
+      }
+    }
+    for (int i = 0; i < receipts.length; i++) {
+      if (receipts[i] == null) {
+        receipts[i] = new TransferReceipt(results[i]);
+      }
+    }
+    return receipts;
+  }
+
+  // fills in results and returns the transfers that got as far as the locks, with the amounts they credited
+  private List<PendingTransfer> applyBatch(List<TransferAmount> transfers, boolean atomic, TransferResult[] results) {
+    List<PendingTransfer> pending = new ArrayList<>(transfers.size());
+    for (int i = 0; i < transfers.size(); i++) {
+      TransferAmount transfer = transfers.get(i);
+      PendingTransfer item = prepare(i, transfer.getAccountIdFrom(), transfer.getAccountIdTo(),
+        transfer.getBalance());
+      if (item.result != null) {
+        results[i] = item.result;
+        if (atomic) {
+          abortBatch(results);
+          return Collections.emptyList();
+        }
+      } else {
+        pending.add(item);
+      }
+    }
+
+    // an atomic batch holds every involved stripe at once, otherwise the batch is applied in chunks
+    // so a huge batch cannot keep most of the table locked for its whole duration
+    int chunkSize = atomic ? Math.max(1, pending.size()) : BATCH_CHUNK_SIZE;
+    for (int from = 0; from < pending.size(); from += chunkSize) {
+      List<PendingTransfer> chunk = pending.subList(from, Math.min(pending.size(), from + chunkSize));
+      if (!applyChunk(chunk, results, atomic)) {
+        abortBatch(results);
+        return pending;
+      }
+    }
+    return pending;
+  }
+
+  private boolean applyChunk(List<PendingTransfer> chunk, TransferResult[] results, boolean atomic) {
+    int[] stripes = stripesOf(chunk);
+    long waitStarted = 0;
+    for (int stripe : stripes) {
+      if (!locks[stripe].tryLock()) {
+        if (waitStarted == 0) {
+          waitStarted = System.nanoTime();
+        }
+        locks[stripe].lock();
+      }
+    }
+    recordLockWait(waitStarted);
+    try {
+      long epoch = cutEpoch;
+      for (PendingTransfer item : chunk) {
+        keepForCut(item.accountFrom, epoch);
+        keepForCut(item.accountTo, epoch);
+      }
+      for (int i = 0; i < chunk.size(); i++) {
+        PendingTransfer item = chunk.get(i);
+        TransferResult result = apply(item.accountFrom, item.accountTo, item.amount, item.credit, item.units,
+          item.fixedPoint);
+        results[item.index] = result;
+        if (!atomic && result == TransferResult.SUCCESS) {
+          try {
+            transferApplied(item.accountFrom, item.accountTo, item.amount, item.credit, epoch);
+          } catch (RuntimeException re) {
+            revert(chunk, i, i);
+            throw re;
+          }
+        } else if (atomic && result != TransferResult.SUCCESS) {
+          revert(chunk, 0, i - 1);
+          return false;
+        }
+      }
+      if (atomic) {
+        for (int i = 0; i < chunk.size(); i++) {
+          PendingTransfer item = chunk.get(i);
+          try {
+            transferApplied(item.accountFrom, item.accountTo, item.amount, item.credit, epoch);
+          } catch (RuntimeException re) {
+            // the transfers before it are recorded already and stay applied
+            revert(chunk, i, chunk.size() - 1);
+            throw re;
+          }
+        }
+      }
+      return true;
+    } finally {
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        locks[stripes[i]].unlock();
+      }
+    }
+  }
+
+  private static void abortBatch(TransferResult[] results) {
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null || results[i] == TransferResult.SUCCESS) {
+        results[i] = TransferResult.BATCH_ABORTED;
+      }
+    }
+  }
+
+  private PendingTransfer prepare(int index, String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    PendingTransfer item = new PendingTransfer(index, amount);
+    item.accountFrom = accounts.get(accountIdFrom);
+    if (item.accountFrom == null) {
+      item.result = TransferResult.ACCOUNT_FROM_NOT_FOUND;
+      return item;
+    }
+    item.accountTo = accounts.get(accountIdTo);
+    if (item.accountTo == null) {
+      item.result = TransferResult.ACCOUNT_TO_NOT_FOUND;
+      return item;
+    }
+    if (accountIdFrom.equals(accountIdTo)) {
+      item.result = TransferResult.SAME_ACCOUNT;
+      return item;
+    }
+    item.credit = credit(item.accountFrom, item.accountTo, amount);
+    if (item.credit == null) {
+      item.result = TransferResult.FX_RATE_UNAVAILABLE;
+      return item;
+    }
+    FixedPointBalance fixedFrom = item.accountFrom.fixedPointBalance();
+    FixedPointBalance fixedTo = item.accountTo.fixedPointBalance();
+    item.fixedPoint = item.credit == amount && fixedFrom != null && fixedTo != null
+      && fixedFrom.getScale() == fixedTo.getScale();
+    if (item.fixedPoint) {
+      item.units = FixedPointBalance.minorUnitsOrOutOfRange(amount, fixedFrom.getScale());
+      if (item.units == FixedPointBalance.OUT_OF_RANGE) {
+        item.result = TransferResult.AMOUNT_OUT_OF_RANGE;
+      }
+    } else if (!fits(item.accountFrom, amount) || !fits(item.accountTo, item.credit)) {
+      item.result = TransferResult.AMOUNT_OUT_OF_RANGE;
+    }
+    return item;
+  }
+
+  private int[] stripesOf(List<PendingTransfer> chunk) {
+    int[] stripes = new int[chunk.size() * 2];
+    for (int i = 0; i < chunk.size(); i++) {
+      stripes[2 * i] = stripeOf(chunk.get(i).accountFrom.getAccountId());
+      stripes[2 * i + 1] = stripeOf(chunk.get(i).accountTo.getAccountId());
+    }
+    // ascending and without duplicates, the same global order single transfers use
+    return Arrays.stream(stripes).sorted().distinct().toArray();
+  }
+
+  private TransferResult transferLocked(Account accountFrom, Account accountTo, BigDecimal balance) {
+    return transferLocked(accountFrom, accountTo, balance, credit(accountFrom, accountTo, balance));
+  }
+
+  // credit is what accountTo gets for the balance, null when there is no usable rate
+  private TransferResult transferLocked(Account accountFrom, Account accountTo, BigDecimal balance,
+    BigDecimal credit) {
+    if (credit == null) {
+      return TransferResult.FX_RATE_UNAVAILABLE;
+    }
+    FixedPointBalance fixedFrom = accountFrom.fixedPointBalance();
+    FixedPointBalance fixedTo = accountTo.fixedPointBalance();
+    boolean fixedPoint = credit == balance && fixedFrom != null && fixedTo != null
+      && fixedFrom.getScale() == fixedTo.getScale();
+    long units = 0;
+    if (fixedPoint) {
+      // the only conversion on this path, everything under the locks works on longs
+      units = FixedPointBalance.minorUnitsOrOutOfRange(balance, fixedFrom.getScale());
+      if (units == FixedPointBalance.OUT_OF_RANGE) {
+        return TransferResult.AMOUNT_OUT_OF_RANGE;
+      }
+    } else if (!fits(accountFrom, balance) || !fits(accountTo, credit)) {
+      return TransferResult.AMOUNT_OUT_OF_RANGE;
+    }
+
+    if (fixedPoint && fixedTo.isSplit()) {
+      TransferResult result = transferToSplitAccount(accountFrom, accountTo, balance, units);
+      if (result != null) {
+        return result;
+      }
+    }
+
+    // only the stripes of the two accounts are locked, always lower index first, so unrelated
+    // transfers run in parallel and two opposite transfers can never deadlock
+    int fromStripe = stripeOf(accountFrom.getAccountId());
+    int toStripe = stripeOf(accountTo.getAccountId());
+    ReentrantLock first = locks[Math.min(fromStripe, toStripe)];
+    ReentrantLock second = locks[Math.max(fromStripe, toStripe)];
+
+    boolean contended = lockInOrder(first, second);
+    try {
+      long epoch = cutEpoch;
+      keepForCut(accountFrom, epoch);
+      keepForCut(accountTo, epoch);
+      TransferResult result = apply(accountFrom, accountTo, balance, credit, units, fixedPoint);
+      if (result == TransferResult.SUCCESS) {
+        try {
+          transferApplied(accountFrom, accountTo, balance, credit, epoch);
+        } catch (RuntimeException re) {
+          revert(accountFrom, accountTo, balance, credit, units, fixedPoint);
+          throw re;
+        }
+      }
+      return result;
+    } finally {
+      second.unlock();
+      first.unlock();
+      if (contended && hotAccounts != null) {
+        hotAccounts.contended(accountTo, transferMetrics);
+      }
+    }
+  }
+
+  // credits to a split balance are lock free, only the debited account's stripe is held. Debits of the
+  // split account itself still lock its stripe, so its check and subtraction stay exclusive. Null while a
+  // balance cut is taken, the transfer then has to lock both stripes like any other
+  private TransferResult transferToSplitAccount(Account accountFrom, Account accountTo, BigDecimal balance,
+    long units) {
+    ReentrantLock lock = locks[stripeOf(accountFrom.getAccountId())];
+    long waitStarted = 0;
+    if (!lock.tryLock()) {
+      waitStarted = System.nanoTime();
+      lock.lock();
+    }
+    if (cutting) {
+      lock.unlock();
+      return null;
+    }
+    recordLockWait(waitStarted);
+    TransferResult result;
+    try {
+      // no cut is being taken, so both accounts are in the last one already
+      result = apply(accountFrom, accountTo, balance, balance, units, true);
+      if (result == TransferResult.SUCCESS) {
+        try {
+          transferApplied(accountFrom, accountTo, balance, balance, cutEpoch);
+        } catch (RuntimeException re) {
+          revert(accountFrom, accountTo, balance, balance, units, true);
+          throw re;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (result == TransferResult.SUCCESS) {
+      hotAccounts.credited(transferMetrics);
+    }
+    return result;
+  }
+
+  // what accountTo is credited for an amount debited from accountFrom: the amount itself unless the accounts
+  // hold different currencies, null when there is no usable rate between them. A lock free read of the
+  // current rates, taken before any stripe is locked
+  private BigDecimal credit(Account accountFrom, Account accountTo, BigDecimal amount) {
+    if (Objects.equals(accountFrom.getCurrency(), accountTo.getCurrency())) {
+      return amount;
+    }
+    if (fxRates == null) {
+      return null;
+    }
+    BigDecimal credit = fxRates.convert(accountFrom.getCurrency(), accountTo.getCurrency(), amount);
+    FixedPointBalance fixedTo = accountTo.fixedPointBalance();
+    if (credit != null && credit != amount && fixedTo != null && credit.scale() > fixedTo.getScale()) {
+      credit = credit.setScale(fixedTo.getScale(), RoundingMode.HALF_EVEN);
+    }
+    return credit;
+  }
+
+  // whether the BigDecimal path can move the amount in or out of the account without a conversion error
+  private static boolean fits(Account account, BigDecimal amount) {
+    FixedPointBalance fixed = account.fixedPointBalance();
+    return fixed == null
+      || FixedPointBalance.minorUnitsOrOutOfRange(amount, fixed.getScale()) != FixedPointBalance.OUT_OF_RANGE;
+  }
+
+  // callers hold the stripe locks of both accounts, or only the debited one's when the other is split, and
+  // pass the cut epoch they read under them. Nothing is counted when the hook throws, the caller then reverts
+  // the transfer before the locks are released
+  private void transferApplied(Account accountFrom, Account accountTo, BigDecimal amount, BigDecimal credited,
+    long epoch) {
+    onTransferApplied(accountFrom, accountTo, amount, credited);
+    if (!sameCurrency(accountFrom, accountTo)) {
+      created(accountFrom, amount.negate(), epoch);
+      created(accountTo, credited, epoch);
+    }
+    if (transferLedger != null) {
+      transferLedger.record(accountFrom.getAccountId(), accountTo.getAccountId(), amount, credited);
+    }
+    balanceChanged(accountFrom);
+    balanceChanged(accountTo);
+  }
+
+  // also for changes that are undone before the locks are released, unlocked readers may have seen them
+  private void balanceChanged(Account account) {
+    if (balanceListener != null) {
+      balanceListener.balanceChanged(account.getAccountId());
+    }
+  }
+
+  // the clock is only read when a lock is actually contended, uncontended transfers just bump a counter.
+  // true if either lock had to be waited for
+  private boolean lockInOrder(ReentrantLock first, ReentrantLock second) {
+    long waitStarted = 0;
+    if (!first.tryLock()) {
+      waitStarted = System.nanoTime();
+      first.lock();
+    }
+    if (!second.tryLock()) {
+      if (waitStarted == 0) {
+        waitStarted = System.nanoTime();
+      }
+      second.lock();
+    }
+    recordLockWait(waitStarted);
+    return waitStarted != 0;
+  }
+
+  private void recordLockWait(long waitStarted) {
+    if (waitStarted == 0) {
+      transferMetrics.recordUncontendedLock();
+    } else {
+      transferMetrics.recordLockWait(System.nanoTime() - waitStarted);
+    }
+  }
+
+  // callers must hold the stripe locks of both accounts; credit is only used without fixed point, which
+  // converted transfers never take. Accounts cleared since the caller looked them up are not found
+  private TransferResult apply(Account accountFrom, Account accountTo, BigDecimal balance, BigDecimal credit,
+    long units, boolean fixedPoint) {
+    if (accountFrom.isRemoved()) {
+      return TransferResult.ACCOUNT_FROM_NOT_FOUND;
+    }
+    if (accountTo.isRemoved()) {
+      return TransferResult.ACCOUNT_TO_NOT_FOUND;
+    }
+    if (fixedPoint) {
+      FixedPointBalance fixedFrom = accountFrom.fixedPointBalance();
+      if (!fixedFrom.tryDebit(units)) {
+        return TransferResult.INSUFFICIENT_BALANCE;
+      }
+      if (!accountTo.fixedPointBalance().tryCredit(units)) {
+        fixedFrom.credit(units);
+        balanceChanged(accountFrom);
+        return TransferResult.AMOUNT_OUT_OF_RANGE;
+      }
+      return TransferResult.SUCCESS;
+    }
+    if (balance.compareTo(accountFrom.getBalance()) > 0) {
+      return TransferResult.INSUFFICIENT_BALANCE;
+    }
+    accountFrom.withdraw(balance);
+    accountTo.deposit(credit);
+    return TransferResult.SUCCESS;
+  }
+
+  // undoes the transfers from first to last of a chunk in reverse order, every account still holds what the
+  // later transfers moved into it
+  private void revert(List<PendingTransfer> chunk, int first, int last) {
+    for (int j = last; j >= first; j--) {
+      PendingTransfer applied = chunk.get(j);
+      revert(applied.accountFrom, applied.accountTo, applied.amount, applied.credit, applied.units,
+        applied.fixedPoint);
+    }
+  }
+
+  private void revert(Account accountFrom, Account accountTo, BigDecimal balance, BigDecimal credit, long units,
+    boolean fixedPoint) {
+    if (fixedPoint) {
+      accountTo.fixedPointBalance().debit(units);
+      accountFrom.fixedPointBalance().credit(units);
+    } else {
+      accountTo.withdraw(credit);
+      accountFrom.deposit(balance);
+    }
+    balanceChanged(accountFrom);
+    balanceChanged(accountTo);
+  }
+
+  // callers hold the account's stripe lock and pass the cut epoch they read under it, before the balance changes
+  private static void keepForCut(Account account, long epoch) {
+    if (account.getCutEpoch() != epoch) {
+      account.setCutBalance(account.getBalance());
+      account.setCutEpoch(epoch);
+    }
+  }
+
+  // callers hold the account's stripe lock
+  private void created(Account account, BigDecimal amount, long epoch) {
+    int parity = (int) (epoch & 1);
+    int stripe = stripeOf(account.getAccountId());
+    CurrencyTotals changes = createdByStripe[parity][stripe];
+    if (changes == null) {
+      changes = new CurrencyTotals();
+      createdByStripe[parity][stripe] = changes;
+    }
+    changes.add(account.getCurrency(), amount);
+  }
+
+  // the same test credit() makes: an account without a currency holds the base currency of the rate table, so
+  // a transfer between it and one naming the base currency converts nothing and may credit a split account
+  // whose stripe is not held
+  private boolean sameCurrency(Account accountFrom, Account accountTo) {
+    String from = accountFrom.getCurrency();
+    String to = accountTo.getCurrency();
+    if (fxRates != null) {
+      from = from != null ? from : fxRates.getBaseCurrency();
+      to = to != null ? to : fxRates.getBaseCurrency();
+    }
+    return Objects.equals(from, to);
+  }
+
+  // every stripe is acquired once, so whatever held one when this started has released it
+  private void awaitStripes() {
+    for (ReentrantLock lock : locks) {
+      lock.lock();
+      lock.unlock();
+    }
+  }
+
+  static int stripeOf(String accountId) {
+    int h = accountId.hashCode();
+    // spread the high bits down, same as ConcurrentHashMap, before masking
+    return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+  }
+
+  private static class PendingTransfer {
+
+    private final int index;
+
+    private final BigDecimal amount;
+
+    private BigDecimal credit;
+
+    private Account accountFrom;
+
+    private Account accountTo;
+
+    private boolean fixedPoint;
+
+    private long units;
+
+    private TransferResult result;
+
+    private PendingTransfer(int index, BigDecimal amount) {
+      this.index = index;
+      this.amount = amount;
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Compact binary image of all accounts: a header with the journal position the snapshot was started at,
+// one entry per account with its balance, currency and version, and a trailing CRC32 over everything before
+// it. Images of the first format, written before accounts had a currency, are still read.
+// The image is written to a temporary file and moved over the previous one only once it is complete.
+public final class AccountsSnapshot {
+
+  public interface EntryHandler {
+
+    // currency is null for an account without one
+    void account(String accountId, BigDecimal balance, String currency, long version);
+  }
+
+  private static final int MAGIC = 0x41434354;
+
+  private static final int FORMAT_VERSION = 2;
+
+  private AccountsSnapshot() {
+  }
+
+  public static Writer writer(Path file, long journalPosition) throws IOException {
+    return new Writer(file, journalPosition);
+  }
+
+  // returns the journal position recorded in the snapshot, or -1 when there is no snapshot
+  public static long read(Path file, EntryHandler handler) throws IOException {
+    if (!Files.exists(file)) {
+      return -1;
+    }
+    CRC32 crc = new CRC32();
+    try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+      CheckedInputStream checked = new CheckedInputStream(raw, crc);
+      DataInputStream in = new DataInputStream(checked);
+      int format = in.readInt() == MAGIC ? in.readInt() : -1;
+      if (format != 1 && format != FORMAT_VERSION) {
+        throw new IOException("Not an accounts snapshot: " + file);
+      }
+      long journalPosition = in.readLong();
+      long entries = 0;
+      while (in.readBoolean()) {
+        byte[] id = new byte[in.readUnsignedShort()];
+        in.readFully(id);
+        int scale = in.readInt();
+        byte[] unscaled = new byte[in.readUnsignedByte()];
+        in.readFully(unscaled);
+        String currency = null;
+        if (format != 1) {
+          byte[] code = new byte[in.readUnsignedByte()];
+          in.readFully(code);
+          currency = code.length > 0 ? new String(code, StandardCharsets.UTF_8) : null;
+        }
+        long version = in.readLong();
+        handler.account(new String(id, StandardCharsets.UTF_8), new BigDecimal(new BigInteger(unscaled), scale),
+          currency, version);
+        entries++;
+      }
+      long count = in.readLong();
+      long expectedCrc = crc.getValue();
+      if (count != entries || new DataInputStream(raw).readLong() != expectedCrc) {
+        throw new IOException("Accounts snapshot " + file + " is corrupt");
+      }
+      return journalPosition;
+    }
+  }
+
+  public static final class Writer implements Closeable {
+
+    private final Path file;
+
+    private final Path temporary;
+
+    private final FileOutputStream fileOut;
+
+    private final CRC32 crc = new CRC32();
+
+    private final DataOutputStream out;
+
+    private long entries;
+
+    private boolean finished;
+
+    private Writer(Path file, long journalPosition) throws IOException {
+      this.file = file;
+      this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      this.fileOut = new FileOutputStream(temporary.toFile());
+      this.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut, 64 * 1024), crc));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(journalPosition);
+    }
+
+    public void account(String accountId, BigDecimal balance, String currency, long version) throws IOException {
+      byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+      byte[] unscaled = balance.unscaledValue().toByteArray();
+      byte[] code = currency != null ? currency.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      out.writeBoolean(true);
+      out.writeShort(id.length);
+      out.write(id);
+      out.writeInt(balance.scale());
+      out.writeByte(unscaled.length);
+      out.write(unscaled);
+      out.writeByte(code.length);
+      out.write(code);
+      out.writeLong(version);
+      entries++;
+    }
+
+    // syncs the image and atomically replaces the previous snapshot with it
+    public void finish() throws IOException {
+      out.writeBoolean(false);
+      out.writeLong(entries);
+      out.flush();
+      // the checksum itself is not part of what it covers
+      new DataOutputStream(fileOut).writeLong(crc.getValue());
+      fileOut.getFD().sync();
+      out.close();
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      finished = true;
+    }
+
+    public long getEntries() {
+      return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        out.close();
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+}
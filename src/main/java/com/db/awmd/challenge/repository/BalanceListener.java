@@ -0,0 +1,11 @@
+package com.db.awmd.challenge.repository;
+
+// Told by the repositories after a balance may have changed, also when the change was undone again, so
+// readers can forget what they remember about the account. Called while the repository still excludes
+// other changes of the account, implementations must be quick and must not call into the repository.
+public interface BalanceListener {
+
+  void balanceChanged(String accountId);
+
+  void balancesCleared();
+}
@@ -0,0 +1,569 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FixedPointBalance;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+
+// Keeps accounts out of the Java heap for tables of tens of millions of accounts. Accounts live in open
+// addressing hash tables in direct buffers, one fixed size slot per account holding the balance as a long
+// number of minor units next to the id's UTF-8 bytes, so an account costs about 50 bytes and the collector
+// has a thousand buffers to trace instead of several objects per account. Only ids too long for a slot are
+// kept on the heap. Account objects are created at the API boundary only: getAccount and forEachAccount
+// return detached views, changing them does not change the stored account. Slots have no room for a
+// currency, every account holds the base currency and creating one with a currency is refused.
+//
+// The table is split by id hash into segments that each have their own lock, which doubles as the stripe
+// lock of its accounts, a transfer locks the segments of both accounts, lower index first.
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "compact")
+public class CompactAccountsRepository implements AccountsRepository, PublicMetrics {
+
+  private static final int SEGMENT_BITS = 10;
+
+  private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+  // transfers in one non-atomic batch are applied this many at a time under a single set of locks
+  private static final int BATCH_CHUNK_SIZE = 256;
+
+  // balances are always stored as longs, this many decimal places are kept unless fixed point is configured
+  private static final int DEFAULT_SCALE = 2;
+
+  // [balance in minor units][id hash][id length][id bytes], a length of 0 marks a free slot
+  private static final int SLOT_BYTES = 40;
+
+  private static final int BALANCE = 0;
+
+  private static final int HASH = 8;
+
+  private static final int ID_LENGTH = 12;
+
+  private static final int ID_BYTES = 14;
+
+  private static final int INLINE_ID_BYTES = SLOT_BYTES - ID_BYTES;
+
+  // the length of ids that do not fit the slot, they are kept in the segment's longIds instead
+  private static final short LONG_ID = -1;
+
+  private static final int MIN_SEGMENT_CAPACITY = 16;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  private final int scale;
+
+  private TransferLedger transferLedger;
+
+  private BalanceListener balanceListener;
+
+  public CompactAccountsRepository() {
+    this(-1, 0);
+  }
+
+  @Autowired
+  public CompactAccountsRepository(@Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale,
+    @Value("${accounts.repository.compact.expected-accounts:0}") long expectedAccounts) {
+    this.scale = fixedPointScale >= 0 ? fixedPointScale : DEFAULT_SCALE;
+    if (scale > FixedPointBalance.MAX_SCALE) {
+      throw new IllegalArgumentException("Fixed point scale must be between 0 and " + FixedPointBalance.MAX_SCALE);
+    }
+    // sized up front so loading the expected accounts never rehashes a segment
+    long perSegment = expectedAccounts / SEGMENTS + 1;
+    int capacity = MIN_SEGMENT_CAPACITY;
+    while (capacity < Integer.MAX_VALUE / SLOT_BYTES / 2 && capacity * 3L / 4 < perSegment) {
+      capacity <<= 1;
+    }
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(capacity);
+    }
+  }
+
+  @Autowired(required = false)
+  public void setTransferLedger(TransferLedger transferLedger) {
+    this.transferLedger = transferLedger;
+  }
+
+  @Autowired(required = false)
+  public void setBalanceListener(BalanceListener balanceListener) {
+    this.balanceListener = balanceListener;
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    if (account.getCurrency() != null) {
+      throw new InvalidAccountException("Accounts with a currency are not supported by the compact repository");
+    }
+    long units = FixedPointBalance.toMinorUnits(account.getBalance(), scale);
+    String accountId = account.getAccountId();
+    byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(accountId);
+    Segment segment = segments[segmentOf(hash)];
+    segment.lock.lock();
+    try {
+      if (segment.find(accountId, id, hash) >= 0) {
+        throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+      }
+      segment.insert(accountId, id, hash, units);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    int hash = hash(accountId);
+    Segment segment = segments[segmentOf(hash)];
+    segment.lock.lock();
+    try {
+      int slot = segment.find(accountId, accountId.getBytes(StandardCharsets.UTF_8), hash);
+      return slot < 0 ? null : new Account(accountId, BigDecimal.valueOf(segment.balance(slot), scale));
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @Override
+  public void forEachAccount(Consumer<Account> action) {
+    for (Segment segment : segments) {
+      // the views are built under the lock, the action runs without it
+      List<Account> views;
+      segment.lock.lock();
+      try {
+        views = new ArrayList<>(segment.size);
+        for (int slot = 0; slot <= segment.mask; slot++) {
+          if (segment.occupied(slot)) {
+            views.add(new Account(segment.accountId(slot), BigDecimal.valueOf(segment.balance(slot), scale)));
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+      views.forEach(action);
+    }
+  }
+
+  @Override
+  public void clearAccounts() {
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        segment.allocate(segment.initialCapacity);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    if (transferLedger != null) {
+      transferLedger.clear();
+    }
+    if (balanceListener != null) {
+      balanceListener.balancesCleared();
+    }
+  }
+
+  @Override
+  public void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance) {
+    TransferResult result = tryTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), balance);
+    if (result == TransferResult.INSUFFICIENT_BALANCE) {
+      throw new InvalidAmountException("Account id " + accountFrom.getAccountId()
+        + " does not have sufficient balance to transfer");
+    } else if (result == TransferResult.AMOUNT_OUT_OF_RANGE) {
+      throw new InvalidAmountException("Amount " + balance + " cannot be transferred");
+    } else if (result == TransferResult.ACCOUNT_FROM_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountFrom.getAccountId() + " does not exist");
+    } else if (result == TransferResult.ACCOUNT_TO_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountTo.getAccountId() + " does not exist");
+    }
+  }
+
+  @Override
+  public TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    PendingTransfer item = new PendingTransfer(0, accountIdFrom, accountIdTo, amount, scale);
+    ReentrantLock first = segments[Math.min(item.segmentFrom, item.segmentTo)].lock;
+    ReentrantLock second = segments[Math.max(item.segmentFrom, item.segmentTo)].lock;
+    first.lock();
+    if (second != first) {
+      second.lock();
+    }
+    try {
+      TransferResult result = apply(item);
+      if (result == TransferResult.SUCCESS) {
+        transferApplied(item);
+      }
+      return result;
+    } finally {
+      if (second != first) {
+        second.unlock();
+      }
+      first.unlock();
+    }
+  }
+
+  @Override
+  public TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic) {
+    TransferResult[] results = new TransferResult[transfers.size()];
+    List<PendingTransfer> pending = new ArrayList<>(transfers.size());
+    for (int i = 0; i < transfers.size(); i++) {
+      TransferAmount transfer = transfers.get(i);
+      pending.add(new PendingTransfer(i, transfer.getAccountIdFrom(), transfer.getAccountIdTo(),
+        transfer.getBalance(), scale));
+    }
+
+    // an atomic batch holds every involved segment at once, otherwise the batch is applied in chunks
+    int chunkSize = atomic ? Math.max(1, pending.size()) : BATCH_CHUNK_SIZE;
+    for (int from = 0; from < pending.size(); from += chunkSize) {
+      List<PendingTransfer> chunk = pending.subList(from, Math.min(pending.size(), from + chunkSize));
+      if (!applyChunk(chunk, results, atomic)) {
+        return abortBatch(results);
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    long accounts = 0;
+    long tableBytes = 0;
+    long longIds = 0;
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        accounts += segment.size;
+        tableBytes += (segment.mask + 1L) * SLOT_BYTES;
+        longIds += segment.longIdCount;
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("accounts.compact.count", accounts),
+      new Metric<>("accounts.compact.table-bytes", tableBytes),
+      new Metric<>("accounts.compact.long-ids", longIds));
+  }
+
+  private boolean applyChunk(List<PendingTransfer> chunk, TransferResult[] results, boolean atomic) {
+    int[] locked = segmentsOf(chunk);
+    for (int segment : locked) {
+      segments[segment].lock.lock();
+    }
+    try {
+      for (int i = 0; i < chunk.size(); i++) {
+        PendingTransfer item = chunk.get(i);
+        TransferResult result = apply(item);
+        results[item.index] = result;
+        if (!atomic && result == TransferResult.SUCCESS) {
+          transferApplied(item);
+        } else if (atomic && result != TransferResult.SUCCESS) {
+          // undo in reverse order, every account still holds what the later transfers moved into it
+          for (int j = i - 1; j >= 0; j--) {
+            revert(chunk.get(j));
+          }
+          return false;
+        }
+      }
+      if (atomic) {
+        for (PendingTransfer item : chunk) {
+          transferApplied(item);
+        }
+      }
+      return true;
+    } finally {
+      for (int i = locked.length - 1; i >= 0; i--) {
+        segments[locked[i]].lock.unlock();
+      }
+    }
+  }
+
+  private static TransferResult[] abortBatch(TransferResult[] results) {
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null || results[i] == TransferResult.SUCCESS) {
+        results[i] = TransferResult.BATCH_ABORTED;
+      }
+    }
+    return results;
+  }
+
+  private static int[] segmentsOf(List<PendingTransfer> chunk) {
+    int[] locked = new int[chunk.size() * 2];
+    for (int i = 0; i < chunk.size(); i++) {
+      locked[2 * i] = chunk.get(i).segmentFrom;
+      locked[2 * i + 1] = chunk.get(i).segmentTo;
+    }
+    // ascending and without duplicates, the same global order single transfers use
+    return Arrays.stream(locked).sorted().distinct().toArray();
+  }
+
+  // callers hold the locks of both segments, slots do not move while they do
+  private TransferResult apply(PendingTransfer item) {
+    Segment from = segments[item.segmentFrom];
+    Segment to = segments[item.segmentTo];
+    item.slotFrom = from.find(item.accountIdFrom, item.idFrom, item.hashFrom);
+    if (item.slotFrom < 0) {
+      return TransferResult.ACCOUNT_FROM_NOT_FOUND;
+    }
+    item.slotTo = to.find(item.accountIdTo, item.idTo, item.hashTo);
+    if (item.slotTo < 0) {
+      return TransferResult.ACCOUNT_TO_NOT_FOUND;
+    }
+    if (item.accountIdFrom.equals(item.accountIdTo)) {
+      return TransferResult.SAME_ACCOUNT;
+    }
+    if (item.outOfRange) {
+      return TransferResult.AMOUNT_OUT_OF_RANGE;
+    }
+    long balanceFrom = from.balance(item.slotFrom);
+    if (balanceFrom < item.units) {
+      return TransferResult.INSUFFICIENT_BALANCE;
+    }
+    long balanceTo = to.balance(item.slotTo);
+    long credited = balanceTo + item.units;
+    if (((balanceTo ^ credited) & (item.units ^ credited)) < 0) {
+      return TransferResult.AMOUNT_OUT_OF_RANGE;
+    }
+    from.setBalance(item.slotFrom, balanceFrom - item.units);
+    to.setBalance(item.slotTo, credited);
+    return TransferResult.SUCCESS;
+  }
+
+  private void revert(PendingTransfer item) {
+    Segment from = segments[item.segmentFrom];
+    Segment to = segments[item.segmentTo];
+    to.setBalance(item.slotTo, to.balance(item.slotTo) - item.units);
+    from.setBalance(item.slotFrom, from.balance(item.slotFrom) + item.units);
+  }
+
+  // callers hold the locks of both segments. Reads take the segment lock too, so the balances of a batch
+  // that is undone again are never seen and need not be reported
+  private void transferApplied(PendingTransfer item) {
+    if (transferLedger != null) {
+      transferLedger.record(item.accountIdFrom, item.accountIdTo, item.amount);
+    }
+    if (balanceListener != null) {
+      balanceListener.balanceChanged(item.accountIdFrom);
+      balanceListener.balanceChanged(item.accountIdTo);
+    }
+  }
+
+  private static int hash(String accountId) {
+    // ids like Id-1, Id-2 have neighbouring hash codes, mixing spreads them over segments and slots
+    int h = accountId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int segmentOf(int hash) {
+    return hash >>> (32 - SEGMENT_BITS);
+  }
+
+  private static final class Segment {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int initialCapacity;
+
+    private ByteBuffer table;
+
+    // ids longer than INLINE_ID_BYTES by slot, only allocated once the segment has one
+    private String[] longIds;
+
+    private int longIdCount;
+
+    private int mask;
+
+    private int size;
+
+    private Segment(int initialCapacity) {
+      this.initialCapacity = initialCapacity;
+      allocate(initialCapacity);
+    }
+
+    // replaces the table with an empty one, the old buffer is freed when it is collected
+    private void allocate(int capacity) {
+      table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+      longIds = null;
+      longIdCount = 0;
+      mask = capacity - 1;
+      size = 0;
+    }
+
+    // the slot holding the id or -1, linear probing stops at the first free slot
+    int find(String accountId, byte[] id, int hash) {
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int base = slot * SLOT_BYTES;
+        short length = table.getShort(base + ID_LENGTH);
+        if (length == 0) {
+          return -1;
+        }
+        if (table.getInt(base + HASH) == hash && matches(slot, length, accountId, id)) {
+          return slot;
+        }
+      }
+    }
+
+    void insert(String accountId, byte[] id, int hash, long units) {
+      if ((size + 1) * 4L > (mask + 1L) * 3) {
+        grow();
+      }
+      int slot = freeSlot(hash);
+      int base = slot * SLOT_BYTES;
+      table.putLong(base + BALANCE, units);
+      table.putInt(base + HASH, hash);
+      if (id.length <= INLINE_ID_BYTES) {
+        for (int i = 0; i < id.length; i++) {
+          table.put(base + ID_BYTES + i, id[i]);
+        }
+        table.putShort(base + ID_LENGTH, (short) id.length);
+      } else {
+        if (longIds == null) {
+          longIds = new String[mask + 1];
+        }
+        longIds[slot] = accountId;
+        longIdCount++;
+        table.putShort(base + ID_LENGTH, LONG_ID);
+      }
+      size++;
+    }
+
+    boolean occupied(int slot) {
+      return table.getShort(slot * SLOT_BYTES + ID_LENGTH) != 0;
+    }
+
+    long balance(int slot) {
+      return table.getLong(slot * SLOT_BYTES + BALANCE);
+    }
+
+    void setBalance(int slot, long units) {
+      table.putLong(slot * SLOT_BYTES + BALANCE, units);
+    }
+
+    String accountId(int slot) {
+      int base = slot * SLOT_BYTES;
+      short length = table.getShort(base + ID_LENGTH);
+      if (length == LONG_ID) {
+        return longIds[slot];
+      }
+      byte[] id = new byte[length];
+      for (int i = 0; i < length; i++) {
+        id[i] = table.get(base + ID_BYTES + i);
+      }
+      return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(int slot, short length, String accountId, byte[] id) {
+      if (length == LONG_ID) {
+        return accountId.equals(longIds[slot]);
+      }
+      if (length != id.length) {
+        return false;
+      }
+      int base = slot * SLOT_BYTES + ID_BYTES;
+      for (int i = 0; i < length; i++) {
+        if (table.get(base + i) != id[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int freeSlot(int hash) {
+      int slot = hash & mask;
+      while (occupied(slot)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    // slots are copied as five longs, the hash stored in the slot picks its place in the larger table
+    private void grow() {
+      ByteBuffer oldTable = table;
+      String[] oldLongIds = longIds;
+      int oldCapacity = mask + 1;
+      allocate(oldCapacity * 2);
+      for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+        int oldBase = oldSlot * SLOT_BYTES;
+        short length = oldTable.getShort(oldBase + ID_LENGTH);
+        if (length == 0) {
+          continue;
+        }
+        int slot = freeSlot(oldTable.getInt(oldBase + HASH));
+        int base = slot * SLOT_BYTES;
+        for (int offset = 0; offset < SLOT_BYTES; offset += Long.BYTES) {
+          table.putLong(base + offset, oldTable.getLong(oldBase + offset));
+        }
+        if (length == LONG_ID) {
+          if (longIds == null) {
+            longIds = new String[mask + 1];
+          }
+          longIds[slot] = oldLongIds[oldSlot];
+          longIdCount++;
+        }
+        size++;
+      }
+    }
+  }
+
+  private static final class PendingTransfer {
+
+    private final int index;
+
+    private final String accountIdFrom;
+
+    private final String accountIdTo;
+
+    private final BigDecimal amount;
+
+    private final byte[] idFrom;
+
+    private final byte[] idTo;
+
+    private final int hashFrom;
+
+    private final int hashTo;
+
+    private final int segmentFrom;
+
+    private final int segmentTo;
+
+    private final long units;
+
+    private final boolean outOfRange;
+
+    private int slotFrom;
+
+    private int slotTo;
+
+    private PendingTransfer(int index, String accountIdFrom, String accountIdTo, BigDecimal amount, int scale) {
+      this.index = index;
+      this.accountIdFrom = accountIdFrom;
+      this.accountIdTo = accountIdTo;
+      this.amount = amount;
+      this.idFrom = accountIdFrom.getBytes(StandardCharsets.UTF_8);
+      this.idTo = accountIdTo.getBytes(StandardCharsets.UTF_8);
+      this.hashFrom = hash(accountIdFrom);
+      this.hashTo = hash(accountIdTo);
+      this.segmentFrom = segmentOf(hashFrom);
+      this.segmentTo = segmentOf(hashTo);
+      // the only conversion on this path, everything under the locks works on longs
+      this.units = FixedPointBalance.minorUnitsOrOutOfRange(amount, scale);
+      this.outOfRange = units == FixedPointBalance.OUT_OF_RANGE;
+    }
+  }
+}
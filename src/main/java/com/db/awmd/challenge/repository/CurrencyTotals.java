@@ -0,0 +1,81 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Sums of amounts per currency, null being the base currency, not thread safe. Fixed point balances of one
+// scale are added up as longs and only folded into the BigDecimal part when the long would overflow, so
+// summing every account of a large repository allocates next to nothing.
+final class CurrencyTotals {
+
+  private final Map<String, Total> totals = new HashMap<>();
+
+  void add(String currency, BigDecimal amount) {
+    Total total = total(currency);
+    total.amount = total.amount.add(amount);
+  }
+
+  void addUnits(String currency, long units, int scale) {
+    Total total = total(currency);
+    if (total.scale != scale) {
+      total.flush();
+      total.scale = scale;
+    }
+    long sum = total.units + units;
+    if (((total.units ^ sum) & (units ^ sum)) < 0) {
+      total.flush();
+      sum = units;
+    }
+    total.units = sum;
+  }
+
+  void addAll(CurrencyTotals other) {
+    for (Map.Entry<String, Total> entry : other.totals.entrySet()) {
+      add(entry.getKey(), entry.getValue().sum());
+    }
+  }
+
+  void clear() {
+    totals.clear();
+  }
+
+  // sorted by currency, with the base currency under its name, zero sums are kept
+  Map<String, BigDecimal> toMap(String baseCurrency) {
+    Map<String, BigDecimal> sums = new TreeMap<>();
+    for (Map.Entry<String, Total> entry : totals.entrySet()) {
+      sums.merge(entry.getKey() != null ? entry.getKey() : baseCurrency, entry.getValue().sum(), BigDecimal::add);
+    }
+    return sums;
+  }
+
+  private Total total(String currency) {
+    Total total = totals.get(currency);
+    if (total == null) {
+      total = new Total();
+      totals.put(currency, total);
+    }
+    return total;
+  }
+
+  private static final class Total {
+
+    private BigDecimal amount = BigDecimal.ZERO;
+
+    private long units;
+
+    private int scale;
+
+    private void flush() {
+      if (units != 0) {
+        amount = amount.add(BigDecimal.valueOf(units, scale));
+        units = 0;
+      }
+    }
+
+    private BigDecimal sum() {
+      return units == 0 ? amount : amount.add(BigDecimal.valueOf(units, scale));
+    }
+  }
+}
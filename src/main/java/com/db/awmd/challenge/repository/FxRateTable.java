@@ -0,0 +1,183 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Exchange rates for transfers between accounts of different currencies. The rates live in an immutable
+// snapshot that already holds the rate of every currency pair, and a refresh builds a whole new snapshot
+// and swaps it in with a single volatile write, so converting an amount takes no lock and never sees a
+// half updated table. The rates file is a properties file of units of each currency per one unit of the
+// base currency, reread in the background.
+@Component
+@Slf4j
+public class FxRateTable implements PublicMetrics, DisposableBean {
+
+  private final String baseCurrency;
+
+  private final Path ratesFile;
+
+  // a snapshot older than this is not used for conversions, 0 keeps using the last one forever
+  private final long maxAgeMillis;
+
+  private final ScheduledExecutorService refresher;
+
+  private final LongAdder conversions = new LongAdder();
+
+  private final LongAdder unavailable = new LongAdder();
+
+  private final LongAdder refreshFailures = new LongAdder();
+
+  private volatile Snapshot snapshot;
+
+  @Autowired
+  public FxRateTable(@Value("${fx.base-currency:EUR}") String baseCurrency,
+    @Value("${fx.rates-file:}") String ratesFile,
+    @Value("${fx.refresh-ms:60000}") long refreshMillis,
+    @Value("${fx.max-age-ms:0}") long maxAgeMillis) {
+    this.baseCurrency = Currency.getInstance(baseCurrency).getCurrencyCode();
+    this.ratesFile = ratesFile.isEmpty() ? null : Paths.get(ratesFile);
+    this.maxAgeMillis = maxAgeMillis;
+    this.snapshot = new Snapshot(this.baseCurrency, Collections.emptyMap(), 0);
+    if (this.ratesFile == null) {
+      refresher = null;
+      return;
+    }
+    refresh();
+    refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "fx-rate-refresher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public String getBaseCurrency() {
+    return baseCurrency;
+  }
+
+  // replaces every rate, given as units of each currency per one unit of the base currency
+  public void update(Map<String, BigDecimal> ratesPerBase) {
+    snapshot = new Snapshot(baseCurrency, ratesPerBase, snapshot.version + 1);
+  }
+
+  // the amount in currency to, rounded to its minor units; the amount itself when both currencies are the
+  // same, null is the base currency. Null when there is no rate or the rates are too old
+  public BigDecimal convert(String from, String to, BigDecimal amount) {
+    Snapshot current = snapshot;
+    String fromCurrency = from != null ? from : baseCurrency;
+    String toCurrency = to != null ? to : baseCurrency;
+    if (fromCurrency.equals(toCurrency)) {
+      return amount;
+    }
+    BigDecimal rate = current.rate(fromCurrency, toCurrency);
+    if (rate == null || maxAgeMillis > 0 && System.currentTimeMillis() - current.loadedMillis > maxAgeMillis) {
+      unavailable.increment();
+      return null;
+    }
+    conversions.increment();
+    return amount.multiply(rate).setScale(current.fractionDigits.get(toCurrency), RoundingMode.HALF_EVEN);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    Snapshot current = snapshot;
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("fx.rates.version", current.version),
+      new Metric<>("fx.rates.currencies", current.fractionDigits.size()),
+      new Metric<>("fx.rates.age-ms", System.currentTimeMillis() - current.loadedMillis),
+      new Metric<>("fx.rates.refresh-failures", refreshFailures.sum()),
+      new Metric<>("fx.conversions", conversions.sum()),
+      new Metric<>("fx.conversions.unavailable", unavailable.sum()));
+  }
+
+  @Override
+  public void destroy() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+  }
+
+  // a file that cannot be read or parsed leaves the previous rates in place
+  private void refresh() {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(ratesFile, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+      Map<String, BigDecimal> ratesPerBase = new HashMap<>();
+      for (String currency : properties.stringPropertyNames()) {
+        ratesPerBase.put(currency.trim(), new BigDecimal(properties.getProperty(currency).trim()));
+      }
+      update(ratesPerBase);
+    } catch (IOException | RuntimeException e) {
+      refreshFailures.increment();
+      log.warn("Failed to load exchange rates from {}: {}", ratesFile, e.toString());
+    }
+  }
+
+  private static final class Snapshot {
+
+    private final long version;
+
+    private final long loadedMillis = System.currentTimeMillis();
+
+    // from currency to currency to the rate an amount in the first is multiplied with
+    private final Map<String, Map<String, BigDecimal>> rates;
+
+    private final Map<String, Integer> fractionDigits;
+
+    private Snapshot(String baseCurrency, Map<String, BigDecimal> ratesPerBase, long version) {
+      Map<String, BigDecimal> perBase = new HashMap<>(ratesPerBase);
+      perBase.put(baseCurrency, BigDecimal.ONE);
+      Map<String, Integer> digits = new HashMap<>();
+      for (Map.Entry<String, BigDecimal> rate : perBase.entrySet()) {
+        if (rate.getValue().signum() <= 0) {
+          throw new IllegalArgumentException("Rate of " + rate.getKey() + " must be positive");
+        }
+        // fails for anything that is not an ISO 4217 code
+        digits.put(rate.getKey(), Math.max(0, Currency.getInstance(rate.getKey()).getDefaultFractionDigits()));
+      }
+      Map<String, Map<String, BigDecimal>> crossRates = new HashMap<>();
+      for (Map.Entry<String, BigDecimal> from : perBase.entrySet()) {
+        Map<String, BigDecimal> fromRates = new HashMap<>();
+        for (Map.Entry<String, BigDecimal> to : perBase.entrySet()) {
+          fromRates.put(to.getKey(), to.getValue().divide(from.getValue(), MathContext.DECIMAL128));
+        }
+        crossRates.put(from.getKey(), fromRates);
+      }
+      this.version = version;
+      this.rates = crossRates;
+      this.fractionDigits = digits;
+    }
+
+    private BigDecimal rate(String from, String to) {
+      Map<String, BigDecimal> fromRates = rates.get(from);
+      return fromRates != null ? fromRates.get(to) : null;
+    }
+  }
+}
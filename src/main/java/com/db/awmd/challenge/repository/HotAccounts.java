@@ -0,0 +1,95 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FixedPointBalance;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+
+// Decides which accounts keep a split balance. A credited account whose transfers found a stripe lock held
+// promoteAt times within one window is split, and a split account that got fewer than half as many credits
+// in the last window is merged back. Only contended transfers and credits to split accounts get here.
+//
+// A merge moves the cells to the main balance under the account's stripe lock, so it cannot race with a debit
+// borrowing from the cells or a balance cut reading them.
+final class HotAccounts {
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int promoteAt;
+
+  private final int cells;
+
+  private final Map<String, AtomicInteger> contention = new ConcurrentHashMap<>();
+
+  private final Map<String, FixedPointBalance> split = new ConcurrentHashMap<>();
+
+  private final AtomicLong windowStarted = new AtomicLong(System.nanoTime());
+
+  private final Function<String, ? extends Lock> stripeLock;
+
+  HotAccounts(int promoteAt, int cells, Function<String, ? extends Lock> stripeLock) {
+    this.promoteAt = Math.max(1, promoteAt);
+    this.cells = cells > 0 ? cells : Runtime.getRuntime().availableProcessors() * 2;
+    this.stripeLock = stripeLock;
+  }
+
+  // the credited account of a transfer that had to wait for a lock, called without holding any stripe lock
+  void contended(Account accountTo, TransferMetrics transferMetrics) {
+    FixedPointBalance fixed = accountTo.fixedPointBalance();
+    if (fixed != null && !fixed.isSplit()) {
+      int count = contention.computeIfAbsent(accountTo.getAccountId(), id -> new AtomicInteger()).incrementAndGet();
+      if (count >= promoteAt && split.putIfAbsent(accountTo.getAccountId(), fixed) == null) {
+        fixed.split(cells);
+        transferMetrics.recordHotAccountSplit();
+      }
+    }
+    endWindow(transferMetrics);
+  }
+
+  void credited(TransferMetrics transferMetrics) {
+    transferMetrics.recordSplitCredit();
+    endWindow(transferMetrics);
+  }
+
+  int size() {
+    return split.size();
+  }
+
+  // the accounts themselves are gone, nothing has to be merged
+  void clear() {
+    split.clear();
+    contention.clear();
+  }
+
+  private void endWindow(TransferMetrics transferMetrics) {
+    long started = windowStarted.get();
+    long now = System.nanoTime();
+    if (now - started < WINDOW_NANOS || !windowStarted.compareAndSet(started, now)) {
+      return;
+    }
+    contention.clear();
+    for (Iterator<Map.Entry<String, FixedPointBalance>> it = split.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, FixedPointBalance> entry = it.next();
+      FixedPointBalance fixed = entry.getValue();
+      if (fixed.takeSplitCredits() < promoteAt / 2) {
+        Lock lock = stripeLock.apply(entry.getKey());
+        lock.lock();
+        try {
+          fixed.merge();
+        } finally {
+          lock.unlock();
+        }
+        it.remove();
+        transferMetrics.recordHotAccountMerged();
+      }
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+
+import lombok.extern.slf4j.Slf4j;
+
+// In memory repository that writes every account creation and applied transfer to a TransferJournal
+// and rebuilds its state on startup from the latest snapshot plus the journal after it. With sync commit
+// a call only returns once its record is on disk; the journal's flusher batches those fsyncs across all
+// concurrent callers. A mutation whose record cannot be appended fails with UncheckedIOException and is not
+// applied in memory either.
+//
+// Every account carries the journal position of its last mutation as its version. Snapshots are taken
+// account by account under the account's stripe lock while transfers keep running, so the image is not a
+// single point in time; replay makes up for that by applying each half of a logged transfer only to an
+// account whose version is older than the record.
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "journal")
+@Slf4j
+public class JournaledAccountsRepository extends AccountsRepositoryInMemory implements DisposableBean {
+
+  static final int MAX_SEGMENT_SIZE_MB = Integer.MAX_VALUE / (1024 * 1024);
+
+  private final TransferJournal journal;
+
+  private final Path snapshotPath;
+
+  private final boolean syncCommit;
+
+  private final ScheduledExecutorService snapshotScheduler;
+
+  private volatile boolean replaying;
+
+  @Autowired
+  public JournaledAccountsRepository(@Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale,
+    @Value("${accounts.repository.journal.directory:data/journal}") String journalDirectory,
+    @Value("${accounts.repository.journal.segment-size-mb:64}") int segmentSizeMb,
+    @Value("${accounts.repository.journal.flush-interval-ms:10}") long flushIntervalMillis,
+    @Value("${accounts.repository.journal.sync-commit:true}") boolean syncCommit,
+    @Value("${accounts.repository.snapshot.path:data/accounts.snapshot}") String snapshotPath,
+    @Value("${accounts.repository.snapshot.interval-s:300}") long snapshotIntervalSeconds) throws IOException {
+    super(fixedPointScale);
+    // a segment is mapped as a whole, and a mapping holds at most Integer.MAX_VALUE bytes
+    if (segmentSizeMb < 1 || segmentSizeMb > MAX_SEGMENT_SIZE_MB) {
+      throw new IllegalArgumentException("Journal segment size must be between 1 and " + MAX_SEGMENT_SIZE_MB
+        + " MB");
+    }
+    this.syncCommit = syncCommit;
+    this.snapshotPath = Paths.get(snapshotPath);
+    this.journal = new TransferJournal(Paths.get(journalDirectory), segmentSizeMb * 1024 * 1024,
+      flushIntervalMillis);
+    recover();
+
+    if (snapshotIntervalSeconds > 0) {
+      snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "accounts-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      });
+      snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalSeconds,
+        snapshotIntervalSeconds, TimeUnit.SECONDS);
+    } else {
+      snapshotScheduler = null;
+    }
+  }
+
+  private void recover() throws IOException {
+    long started = System.nanoTime();
+    long[] maxVersion = new long[1];
+    replaying = true;
+    try {
+      long snapshotPosition = AccountsSnapshot.read(snapshotPath, (accountId, balance, currency, version) -> {
+        Account account = new Account(accountId, balance, currency);
+        super.createAccount(account);
+        account.setVersion(version);
+        maxVersion[0] = Math.max(maxVersion[0], version);
+      });
+      journal.replay(Math.max(snapshotPosition, maxVersion[0]), new TransferJournal.RecordHandler() {
+
+        @Override
+        public void accountCreated(long position, String accountId, BigDecimal balance, String currency) {
+          if (getAccount(accountId) == null) {
+            Account account = new Account(accountId, balance, currency);
+            JournaledAccountsRepository.super.createAccount(account);
+            account.setVersion(position);
+          }
+        }
+
+        @Override
+        public void transferApplied(long position, String accountIdFrom, String accountIdTo, BigDecimal amount,
+          BigDecimal credited) {
+          replayTransfer(position, accountIdFrom, accountIdTo, amount, credited);
+        }
+
+        @Override
+        public void accountsCleared(long position) {
+          replayClear(position);
+        }
+      });
+    } finally {
+      replaying = false;
+    }
+    log.info("Recovered {} accounts in {} ms", allAccounts().size(),
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+  }
+
+  // writes an image of all accounts without stopping transfers and drops the journal segments it covers
+  public synchronized long writeSnapshot() throws IOException, InterruptedException {
+    long started = System.nanoTime();
+    long position = journal.getWrittenPosition();
+    long entries;
+    try (AccountsSnapshot.Writer writer = AccountsSnapshot.writer(snapshotPath, position)) {
+      for (Account account : allAccounts()) {
+        BigDecimal balance;
+        long version;
+        ReentrantLock lock = stripeLock(account.getAccountId());
+        lock.lock();
+        try {
+          balance = account.getBalance();
+          version = account.getVersion();
+        } finally {
+          lock.unlock();
+        }
+        writer.account(account.getAccountId(), balance, account.getCurrency(), version);
+      }
+      // the image may hold mutations logged after position, they have to be durable before it is
+      journal.awaitDurable(journal.getWrittenPosition());
+      writer.finish();
+      entries = writer.getEntries();
+    }
+    int compacted = journal.compact(position);
+    log.info("Wrote snapshot of {} accounts at journal position {} in {} ms, removed {} journal segments",
+      entries, position, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), compacted);
+    return position;
+  }
+
+  private void scheduledSnapshot() {
+    try {
+      writeSnapshot();
+    } catch (IOException | RuntimeException e) {
+      log.error("Failed to write accounts snapshot", e);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    super.createAccount(account);
+    awaitCommit();
+  }
+
+  @Override
+  public void clearAccounts() {
+    super.clearAccounts();
+    awaitCommit();
+  }
+
+  @Override
+  public void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance) {
+    super.updateAccountBalance(accountFrom, accountTo, balance);
+    awaitCommit();
+  }
+
+  @Override
+  public TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    TransferResult result = super.tryTransfer(accountIdFrom, accountIdTo, amount);
+    if (result == TransferResult.SUCCESS) {
+      awaitCommit();
+    }
+    return result;
+  }
+
+  @Override
+  public TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic) {
+    TransferResult[] results = super.tryTransferBatch(transfers, atomic);
+    awaitCommit();
+    return results;
+  }
+
+  @Override
+  public TransferReceipt tryTransferWithReceipt(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    TransferReceipt receipt = super.tryTransferWithReceipt(accountIdFrom, accountIdTo, amount);
+    if (receipt.getResult() == TransferResult.SUCCESS) {
+      awaitCommit();
+    }
+    return receipt;
+  }
+
+  @Override
+  public TransferReceipt[] tryTransferBatchWithReceipts(List<TransferAmount> transfers, boolean atomic) {
+    TransferReceipt[] receipts = super.tryTransferBatchWithReceipts(transfers, atomic);
+    awaitCommit();
+    return receipts;
+  }
+
+  @Override
+  protected void onAccountCreated(Account account) {
+    if (!replaying) {
+      try {
+        account.setVersion(journal.appendCreate(account.getAccountId(), account.getBalance(), account.getCurrency()));
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+  }
+
+  @Override
+  protected void onTransferApplied(Account accountFrom, Account accountTo, BigDecimal amount,
+    BigDecimal credited) {
+    if (!replaying) {
+      try {
+        long position = journal.appendTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount,
+          credited);
+        accountFrom.setVersion(position);
+        accountTo.setVersion(position);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+  }
+
+  @Override
+  protected void onAccountsCleared() {
+    if (!replaying) {
+      try {
+        journal.appendClear();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    if (snapshotScheduler != null) {
+      snapshotScheduler.shutdownNow();
+    }
+    journal.close();
+  }
+
+  // everything written so far, which includes this thread's records, has to be on disk before returning
+  private void awaitCommit() {
+    if (!syncCommit) {
+      return;
+    }
+    try {
+      journal.awaitDurable(journal.getWrittenPosition());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the journal to be flushed", ie);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.StandbyReadOnlyException;
+
+import lombok.extern.slf4j.Slf4j;
+
+// In memory repository with a warm standby. The primary numbers every account creation, applied transfer
+// and clear in a ReplicationLog, from the same hooks and under the same stripe locks the journal uses, and
+// ships the log to connected standbys. A standby applies the records to its own accounts in sequence order
+// and serves reads, but refuses writes until it is promoted; promotion stops following the old primary and
+// starts shipping to standbys of its own, continuing the sequence it had applied.
+//
+// Every account carries the sequence of its last mutation as its version, so a standby that gets an image
+// of the accounts taken while transfers kept running can skip the records the image already contains.
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "replicated")
+@Slf4j
+public class ReplicatedAccountsRepository extends AccountsRepositoryInMemory
+  implements DisposableBean, PublicMetrics {
+
+  public enum Role {
+    PRIMARY,
+    STANDBY
+  }
+
+  private final String bindAddress;
+
+  private final int port;
+
+  private final int logCapacity;
+
+  private final int batchSize;
+
+  private final long heartbeatMillis;
+
+  private volatile Role role;
+
+  // only set on the primary, the hooks record nothing on a standby
+  private volatile ReplicationLog replicationLog;
+
+  private volatile ReplicationServer server;
+
+  private volatile ReplicationClient client;
+
+  @Autowired
+  public ReplicatedAccountsRepository(@Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale,
+    @Value("${accounts.replication.role:primary}") String role,
+    @Value("${accounts.replication.bind-address:127.0.0.1}") String bindAddress,
+    @Value("${accounts.replication.port:18090}") int port,
+    @Value("${accounts.replication.primary:127.0.0.1:18090}") String primary,
+    @Value("${accounts.replication.log-capacity:1048576}") int logCapacity,
+    @Value("${accounts.replication.batch-size:1024}") int batchSize,
+    @Value("${accounts.replication.heartbeat-ms:1000}") long heartbeatMillis) throws IOException {
+    super(fixedPointScale);
+    this.bindAddress = bindAddress;
+    this.port = port;
+    this.logCapacity = logCapacity;
+    this.batchSize = batchSize;
+    this.heartbeatMillis = heartbeatMillis;
+    if (Role.valueOf(role.toUpperCase()) == Role.PRIMARY) {
+      startPrimary(0);
+    } else {
+      int separator = primary.lastIndexOf(':');
+      this.role = Role.STANDBY;
+      this.client = new ReplicationClient(primary.substring(0, separator),
+        Integer.parseInt(primary.substring(separator + 1)), new Replica(), heartbeatMillis);
+      this.client.start();
+    }
+  }
+
+  public Role getRole() {
+    return role;
+  }
+
+  // the port standbys connect to, only known once this instance is a primary
+  public int getReplicationPort() {
+    ReplicationServer current = server;
+    return current != null ? current.getLocalPort() : -1;
+  }
+
+  // makes a standby the primary, accounts keep whatever the standby had applied
+  public synchronized void promote() throws IOException {
+    if (role == Role.PRIMARY) {
+      return;
+    }
+    client.close();
+    long sequence = client.getAppliedSequence();
+    startPrimary(sequence);
+    log.info("Promoted to primary at sequence {}", sequence);
+  }
+
+  public Map<String, Object> replicationStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("role", role);
+    ReplicationClient following = role == Role.STANDBY ? client : null;
+    if (following != null) {
+      status.put("connected", following.isConnected());
+      status.put("appliedSequence", following.getAppliedSequence());
+      status.put("lagRecords", following.getLagRecords());
+      status.put("lagMillis", following.getLagMillis());
+      status.put("lastContactMillis", System.currentTimeMillis() - following.getLastContactMillis());
+      status.put("images", following.getImages());
+    } else {
+      status.put("sequence", replicationLog.lastSequence());
+      status.put("standbys", server.getStandbys());
+      status.put("shippedRecords", server.getShippedRecords());
+      status.put("batches", server.getBatches());
+      status.put("images", server.getImages());
+    }
+    return status;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    ReplicationClient following = role == Role.STANDBY ? client : null;
+    if (following != null) {
+      return Arrays.<Metric<?>>asList(
+        new Metric<>("accounts.replication.applied-sequence", following.getAppliedSequence()),
+        new Metric<>("accounts.replication.lag-records", following.getLagRecords()),
+        new Metric<>("accounts.replication.lag-ms", following.getLagMillis()),
+        new Metric<>("accounts.replication.connected", following.isConnected() ? 1 : 0));
+    }
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("accounts.replication.sequence", replicationLog.lastSequence()),
+      new Metric<>("accounts.replication.standbys", server.getStandbys()),
+      new Metric<>("accounts.replication.shipped-records", server.getShippedRecords()),
+      new Metric<>("accounts.replication.batches", server.getBatches()));
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    checkWritable();
+    super.createAccount(account);
+  }
+
+  @Override
+  public void clearAccounts() {
+    checkWritable();
+    super.clearAccounts();
+  }
+
+  @Override
+  public void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance) {
+    checkWritable();
+    super.updateAccountBalance(accountFrom, accountTo, balance);
+  }
+
+  @Override
+  public TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    checkWritable();
+    return super.tryTransfer(accountIdFrom, accountIdTo, amount);
+  }
+
+  @Override
+  public TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic) {
+    checkWritable();
+    return super.tryTransferBatch(transfers, atomic);
+  }
+
+  @Override
+  public TransferReceipt tryTransferWithReceipt(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    checkWritable();
+    return super.tryTransferWithReceipt(accountIdFrom, accountIdTo, amount);
+  }
+
+  @Override
+  public TransferReceipt[] tryTransferBatchWithReceipts(List<TransferAmount> transfers, boolean atomic) {
+    checkWritable();
+    return super.tryTransferBatchWithReceipts(transfers, atomic);
+  }
+
+  @Override
+  protected void onAccountCreated(Account account) {
+    ReplicationLog primaryLog = replicationLog;
+    if (primaryLog != null) {
+      account.setVersion(primaryLog.appendCreate(account.getAccountId(), account.getBalance(),
+        account.getCurrency()));
+    }
+  }
+
+  @Override
+  protected void onTransferApplied(Account accountFrom, Account accountTo, BigDecimal amount,
+    BigDecimal credited) {
+    ReplicationLog primaryLog = replicationLog;
+    if (primaryLog != null) {
+      long sequence = primaryLog.appendTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount,
+        credited);
+      accountFrom.setVersion(sequence);
+      accountTo.setVersion(sequence);
+    }
+  }
+
+  @Override
+  protected void onAccountsCleared() {
+    ReplicationLog primaryLog = replicationLog;
+    if (primaryLog != null) {
+      primaryLog.appendClear();
+    }
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+    if (replicationLog != null) {
+      replicationLog.close();
+    }
+  }
+
+  private void startPrimary(long sequence) throws IOException {
+    ReplicationLog primaryLog = new ReplicationLog(logCapacity, sequence);
+    server = new ReplicationServer(this, primaryLog, bindAddress, port, batchSize, heartbeatMillis);
+    replicationLog = primaryLog;
+    role = Role.PRIMARY;
+  }
+
+  private void checkWritable() {
+    if (role != Role.PRIMARY) {
+      throw new StandbyReadOnlyException("Standby is read only until it is promoted");
+    }
+  }
+
+  // creates without the write check; versions come from the primary
+  private void createReplica(String accountId, BigDecimal balance, String currency, long version) {
+    Account account = new Account(accountId, balance, currency);
+    super.createAccount(account);
+    account.setVersion(version);
+  }
+
+  private final class Replica implements ReplicationClient.Replica {
+
+    @Override
+    public void imageStarted(long sequence) {
+      replayClear(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void imageAccount(String accountId, BigDecimal balance, String currency, long version) {
+      createReplica(accountId, balance, currency, version);
+    }
+
+    @Override
+    public void accountCreated(long position, String accountId, BigDecimal balance, String currency) {
+      if (getAccount(accountId) == null) {
+        createReplica(accountId, balance, currency, position);
+      }
+    }
+
+    @Override
+    public void transferApplied(long position, String accountIdFrom, String accountIdTo, BigDecimal amount,
+      BigDecimal credited) {
+      replayTransfer(position, accountIdFrom, accountIdTo, amount, credited);
+    }
+
+    @Override
+    public void accountsCleared(long position) {
+      replayClear(position);
+    }
+  }
+}
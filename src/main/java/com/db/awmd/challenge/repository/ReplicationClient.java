@@ -0,0 +1,209 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Standby side of replication: a single thread that connects to the primary, asks for the records after
+// the last sequence it applied and applies whatever arrives, reconnecting after a heartbeat whenever the
+// connection breaks or stays silent for three heartbeats.
+@Slf4j
+final class ReplicationClient implements Closeable {
+
+  // called from the client's thread only, in sequence order
+  interface Replica extends TransferJournal.RecordHandler {
+
+    // drops every account before an image is loaded
+    void imageStarted(long sequence);
+
+    // currency is null for an account without one
+    void imageAccount(String accountId, BigDecimal balance, String currency, long version);
+  }
+
+  private final String host;
+
+  private final int port;
+
+  private final Replica replica;
+
+  private final long heartbeatMillis;
+
+  private final Thread thread;
+
+  private final LongAdder images = new LongAdder();
+
+  private volatile boolean open = true;
+
+  private volatile Socket socket;
+
+  private volatile boolean connected;
+
+  private volatile long appliedSequence;
+
+  // append time on the primary of the last applied record
+  private volatile long appliedMillis = System.currentTimeMillis();
+
+  private volatile long primarySequence;
+
+  private volatile long lastContactMillis = System.currentTimeMillis();
+
+  ReplicationClient(String host, int port, Replica replica, long heartbeatMillis) {
+    this.host = host;
+    this.port = port;
+    this.replica = replica;
+    this.heartbeatMillis = heartbeatMillis;
+    this.thread = new Thread(this::run, "replication-client");
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  boolean isConnected() {
+    return connected;
+  }
+
+  long getAppliedSequence() {
+    return appliedSequence;
+  }
+
+  long getLagRecords() {
+    return Math.max(0, primarySequence - appliedSequence);
+  }
+
+  // how far the applied state trails the primary's clock, 0 when nothing known to the standby is missing
+  long getLagMillis() {
+    return getLagRecords() == 0 ? 0 : Math.max(0, System.currentTimeMillis() - appliedMillis);
+  }
+
+  long getLastContactMillis() {
+    return lastContactMillis;
+  }
+
+  long getImages() {
+    return images.sum();
+  }
+
+  // stops applying, once this returns nothing more is applied
+  @Override
+  public void close() throws IOException {
+    open = false;
+    Socket current = socket;
+    if (current != null) {
+      current.close();
+    }
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (open) {
+      try {
+        follow();
+      } catch (IOException ioe) {
+        if (open) {
+          log.warn("Lost the primary {}:{}: {}", host, port, ioe.getMessage());
+        }
+      }
+      if (open) {
+        try {
+          Thread.sleep(heartbeatMillis);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void follow() throws IOException {
+    try (Socket primary = new Socket()) {
+      socket = primary;
+      if (!open) {
+        return;
+      }
+      primary.connect(new InetSocketAddress(host, port), (int) heartbeatMillis * 3);
+      primary.setSoTimeout((int) heartbeatMillis * 3);
+      primary.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(primary.getInputStream(), 64 * 1024));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(primary.getOutputStream()));
+      out.writeLong(appliedSequence);
+      out.flush();
+      connected = true;
+      log.info("Following the primary {}:{} after sequence {}", host, port, appliedSequence);
+      while (open) {
+        byte type = in.readByte();
+        if (type == ReplicationServer.IMAGE) {
+          readImage(in);
+        } else if (type == ReplicationServer.BATCH) {
+          readBatch(in);
+        } else {
+          throw new IOException("Unknown replication message " + type);
+        }
+        lastContactMillis = System.currentTimeMillis();
+      }
+    } finally {
+      connected = false;
+      socket = null;
+    }
+  }
+
+  private void readImage(DataInputStream in) throws IOException {
+    long sequence = in.readLong();
+    replica.imageStarted(sequence);
+    long accounts = 0;
+    for (byte type = in.readByte(); type != ReplicationServer.IMAGE_END; type = in.readByte()) {
+      if (type != ReplicationServer.ACCOUNT) {
+        throw new IOException("Unknown image entry " + type);
+      }
+      String accountId = in.readUTF();
+      BigDecimal balance = readDecimal(in);
+      String currency = in.readUTF();
+      replica.imageAccount(accountId, balance, currency.isEmpty() ? null : currency, in.readLong());
+      accounts++;
+    }
+    appliedSequence = sequence;
+    primarySequence = sequence;
+    appliedMillis = System.currentTimeMillis();
+    images.increment();
+    log.info("Loaded an image of {} accounts at sequence {}", accounts, sequence);
+  }
+
+  private void readBatch(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    long lastSequence = in.readLong();
+    for (int i = 0; i < count; i++) {
+      byte[] record = new byte[in.readInt()];
+      in.readFully(record);
+      long sequence = ReplicationLog.sequenceOf(record);
+      if (sequence <= appliedSequence) {
+        continue;
+      }
+      ReplicationLog.apply(record, replica);
+      appliedMillis = ReplicationLog.millisOf(record);
+      appliedSequence = sequence;
+    }
+    primarySequence = lastSequence;
+  }
+
+  private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+    int scale = in.readInt();
+    byte[] unscaled = new byte[in.readUnsignedByte()];
+    in.readFully(unscaled);
+    return new BigDecimal(new BigInteger(unscaled), scale);
+  }
+}
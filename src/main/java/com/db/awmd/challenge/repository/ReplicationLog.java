@@ -0,0 +1,144 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Mutations of the primary numbered in the order they were applied, kept in a ring of the most recent
+// capacity records for the shippers of the standbys. A record is [type][sequence][append millis] followed by
+// the journal's payload for that type. A standby that fell further behind than the ring reaches is sent a
+// new image of the accounts instead.
+final class ReplicationLog {
+
+  private static final int HEADER_SIZE = 1 + 8 + 8;
+
+  private final byte[][] records;
+
+  private final int mask;
+
+  // sequence of the oldest record still in the ring, the one after it on an empty log
+  private long firstSequence;
+
+  private long lastSequence;
+
+  private boolean open = true;
+
+  // lastSequence is what the standbys already have, the first record appended gets the number after it
+  ReplicationLog(int capacity, long lastSequence) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.records = new byte[size][];
+    this.mask = size - 1;
+    this.firstSequence = lastSequence + 1;
+    this.lastSequence = lastSequence;
+  }
+
+  long appendCreate(String accountId, BigDecimal balance, String currency) {
+    byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+    byte[] unscaled = balance.unscaledValue().toByteArray();
+    byte[] code = currency != null ? currency.getBytes(StandardCharsets.UTF_8) : null;
+    ByteBuffer record = header(code != null ? TransferJournal.CREATE_IN_CURRENCY : TransferJournal.CREATE,
+      2 + id.length + 4 + 1 + unscaled.length + (code != null ? 2 + code.length : 0));
+    TransferJournal.putString(record, id);
+    TransferJournal.putDecimal(record, balance.scale(), unscaled);
+    if (code != null) {
+      TransferJournal.putString(record, code);
+    }
+    return append(record.array());
+  }
+
+  long appendTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount, BigDecimal credited) {
+    byte[] from = accountIdFrom.getBytes(StandardCharsets.UTF_8);
+    byte[] to = accountIdTo.getBytes(StandardCharsets.UTF_8);
+    byte[] unscaled = amount.unscaledValue().toByteArray();
+    byte[] creditedUnscaled = credited != amount ? credited.unscaledValue().toByteArray() : null;
+    ByteBuffer record = header(creditedUnscaled != null ? TransferJournal.CONVERTED_TRANSFER : TransferJournal.TRANSFER,
+      2 + from.length + 2 + to.length + 4 + 1 + unscaled.length
+        + (creditedUnscaled != null ? 4 + 1 + creditedUnscaled.length : 0));
+    TransferJournal.putString(record, from);
+    TransferJournal.putString(record, to);
+    TransferJournal.putDecimal(record, amount.scale(), unscaled);
+    if (creditedUnscaled != null) {
+      TransferJournal.putDecimal(record, credited.scale(), creditedUnscaled);
+    }
+    return append(record.array());
+  }
+
+  long appendClear() {
+    return append(header(TransferJournal.CLEAR, 0).array());
+  }
+
+  synchronized long firstSequence() {
+    return firstSequence;
+  }
+
+  synchronized long lastSequence() {
+    return lastSequence;
+  }
+
+  // the records after the given sequence, at most max of them, waiting up to waitMillis for the first one.
+  // empty when nothing arrived in time, null when the ring no longer holds the record after the sequence
+  synchronized byte[][] read(long after, int max, long waitMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + waitMillis;
+    while (open && lastSequence <= after) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        break;
+      }
+      wait(remaining);
+    }
+    if (after + 1 < firstSequence) {
+      return null;
+    }
+    int count = (int) Math.max(0, Math.min(max, lastSequence - after));
+    byte[][] batch = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      batch[i] = records[(int) ((after + 1 + i) & mask)];
+    }
+    return batch;
+  }
+
+  // wakes the shippers waiting in read
+  synchronized void close() {
+    open = false;
+    notifyAll();
+  }
+
+  static long sequenceOf(byte[] record) {
+    return ByteBuffer.wrap(record).getLong(1);
+  }
+
+  static long millisOf(byte[] record) {
+    return ByteBuffer.wrap(record).getLong(9);
+  }
+
+  // the handler gets the sequence of the record as its position
+  static void apply(byte[] record, TransferJournal.RecordHandler handler) {
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    byte type = buffer.get();
+    long sequence = buffer.getLong();
+    buffer.position(HEADER_SIZE);
+    if (!TransferJournal.applyPayload(type, sequence, buffer, handler)) {
+      throw new IllegalStateException("Unknown replication record type " + type);
+    }
+  }
+
+  // encoded before the sequence is known, so the log's monitor is only held to number and store the record
+  private static ByteBuffer header(byte type, int payloadLength) {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+    record.put(type);
+    record.putLong(0);
+    record.putLong(System.currentTimeMillis());
+    return record;
+  }
+
+  private synchronized long append(byte[] record) {
+    long sequence = ++lastSequence;
+    ByteBuffer.wrap(record).putLong(1, sequence);
+    records[(int) (sequence & mask)] = record;
+    if (sequence - firstSequence >= records.length) {
+      firstSequence = sequence - records.length + 1;
+    }
+    notifyAll();
+    return sequence;
+  }
+}
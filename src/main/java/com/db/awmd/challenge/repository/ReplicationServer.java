@@ -0,0 +1,205 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.db.awmd.challenge.domain.Account;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Primary side of replication. Every standby that connects gets a thread of its own which ships the
+// replication log to it in batches: everything the log holds beyond what the standby has is written
+// before a single flush, so a standby that falls behind catches up in large writes. A standby asks for
+// the records after the last sequence it applied; if the log no longer has them it is first sent an image
+// of all accounts, read account by account under the stripe locks while transfers keep running.
+//
+// Messages are [IMAGE][sequence] followed by [ACCOUNT][id][balance][currency][version] entries and [IMAGE_END], and
+// [BATCH][count][last sequence of the primary][records]. A batch without records is sent when nothing
+// happened for a heartbeat, so the standby can tell a quiet primary from a lost one.
+@Slf4j
+final class ReplicationServer implements Closeable {
+
+  static final byte IMAGE = 1;
+
+  static final byte ACCOUNT = 2;
+
+  static final byte IMAGE_END = 3;
+
+  static final byte BATCH = 4;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final AccountsRepositoryInMemory repository;
+
+  private final ReplicationLog replicationLog;
+
+  private final ServerSocket serverSocket;
+
+  private final int batchSize;
+
+  private final long heartbeatMillis;
+
+  private final Set<Socket> standbys = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder shippedRecords = new LongAdder();
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder images = new LongAdder();
+
+  private volatile boolean open = true;
+
+  ReplicationServer(AccountsRepositoryInMemory repository, ReplicationLog replicationLog, String bindAddress,
+    int port, int batchSize, long heartbeatMillis) throws IOException {
+    this.repository = repository;
+    this.replicationLog = replicationLog;
+    this.batchSize = Math.max(1, batchSize);
+    this.heartbeatMillis = heartbeatMillis;
+    this.serverSocket = new ServerSocket(port, 16, InetAddress.getByName(bindAddress));
+    Thread acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    log.info("Shipping the replication log to standbys on {}", serverSocket.getLocalSocketAddress());
+  }
+
+  int getLocalPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  int getStandbys() {
+    return standbys.size();
+  }
+
+  long getShippedRecords() {
+    return shippedRecords.sum();
+  }
+
+  long getBatches() {
+    return batches.sum();
+  }
+
+  long getImages() {
+    return images.sum();
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    serverSocket.close();
+    for (Socket standby : standbys) {
+      standby.close();
+    }
+  }
+
+  private void acceptLoop() {
+    while (open) {
+      try {
+        Socket standby = serverSocket.accept();
+        standbys.add(standby);
+        Thread shipper = new Thread(() -> ship(standby), "replication-shipper-" + standby.getPort());
+        shipper.setDaemon(true);
+        shipper.start();
+      } catch (IOException ioe) {
+        if (open) {
+          log.error("Failed to accept a standby", ioe);
+        }
+      }
+    }
+  }
+
+  private void ship(Socket standby) {
+    try {
+      standby.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(standby.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(standby.getOutputStream(), BUFFER_SIZE));
+      long after = in.readLong();
+      if (after < replicationLog.firstSequence() - 1 || after > replicationLog.lastSequence()) {
+        after = sendImage(out);
+      }
+      log.info("Standby {} connected, shipping records after {}", standby.getRemoteSocketAddress(), after);
+      while (open) {
+        byte[][] batch = replicationLog.read(after, batchSize, heartbeatMillis);
+        if (batch == null) {
+          // the standby reconnects and gets a new image
+          log.warn("Standby {} fell behind the replication log", standby.getRemoteSocketAddress());
+          return;
+        }
+        out.writeByte(BATCH);
+        out.writeInt(batch.length);
+        out.writeLong(replicationLog.lastSequence());
+        for (byte[] record : batch) {
+          out.writeInt(record.length);
+          out.write(record);
+        }
+        out.flush();
+        after += batch.length;
+        shippedRecords.add(batch.length);
+        batches.increment();
+      }
+    } catch (IOException ioe) {
+      if (open) {
+        log.info("Standby {} disconnected: {}", standby.getRemoteSocketAddress(), ioe.getMessage());
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } finally {
+      standbys.remove(standby);
+      try {
+        standby.close();
+      } catch (IOException ioe) {
+        log.debug("Failed to close standby connection", ioe);
+      }
+    }
+  }
+
+  // the sequence the image starts at, accounts may already contain records after it and carry their
+  // versions so the standby can skip those when they arrive
+  private long sendImage(DataOutputStream out) throws IOException {
+    long sequence = replicationLog.lastSequence();
+    out.writeByte(IMAGE);
+    out.writeLong(sequence);
+    long accounts = 0;
+    for (Account account : repository.allAccounts()) {
+      BigDecimal balance;
+      long version;
+      ReentrantLock lock = repository.stripeLock(account.getAccountId());
+      lock.lock();
+      try {
+        balance = account.getBalance();
+        version = account.getVersion();
+      } finally {
+        lock.unlock();
+      }
+      out.writeByte(ACCOUNT);
+      out.writeUTF(account.getAccountId());
+      writeDecimal(out, balance);
+      out.writeUTF(account.getCurrency() != null ? account.getCurrency() : "");
+      out.writeLong(version);
+      accounts++;
+    }
+    out.writeByte(IMAGE_END);
+    out.flush();
+    images.increment();
+    log.info("Sent an image of {} accounts at sequence {}", accounts, sequence);
+    return sequence;
+  }
+
+  static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+    byte[] unscaled = value.unscaledValue().toByteArray();
+    out.writeInt(value.scale());
+    out.writeByte(unscaled.length);
+    out.write(unscaled);
+  }
+}
@@ -0,0 +1,443 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FixedPointBalance;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+
+// Partitions accounts by id hash into shards that are each owned by a single thread. Every mutation of
+// an account runs on its shard's thread, so a transfer between two accounts of the same shard needs no
+// lock and a shard's accounts stay in one core's cache. A transfer between two shards is a debit on the
+// first shard followed by a credit on the second, refunded on the first shard if the credit cannot be
+// applied; while the credit is queued the money is in flight, the caller's future only completes once
+// it has arrived. Atomic batches and clearing the repository briefly stop every shard. Accounts keep their
+// currency, but transfers between currencies are refused rather than converted between the two steps.
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "sharded")
+public class ShardedAccountsRepository implements AccountsRepository, PublicMetrics, DisposableBean {
+
+  private final Shard[] shards;
+
+  // negative keeps balances as BigDecimal, otherwise accounts are switched to fixed point on creation
+  private final int fixedPointScale;
+
+  // only one caller at a time may stop the shards, two interleaved stops would wait on each other
+  private final ReentrantLock stopLock = new ReentrantLock();
+
+  private final LongAdder localTransfers = new LongAdder();
+
+  private final LongAdder crossShardTransfers = new LongAdder();
+
+  private final LongAdder refundedTransfers = new LongAdder();
+
+  private TransferLedger transferLedger;
+
+  private BalanceListener balanceListener;
+
+  public ShardedAccountsRepository(int shardCount) {
+    this(-1, shardCount);
+  }
+
+  @Autowired
+  public ShardedAccountsRepository(@Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale,
+    @Value("${accounts.repository.shards:0}") int shardCount) {
+    this.fixedPointScale = fixedPointScale;
+    this.shards = new Shard[shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors()];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(i);
+    }
+  }
+
+  @Autowired(required = false)
+  public void setTransferLedger(TransferLedger transferLedger) {
+    this.transferLedger = transferLedger;
+  }
+
+  @Autowired(required = false)
+  public void setBalanceListener(BalanceListener balanceListener) {
+    this.balanceListener = balanceListener;
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    if (fixedPointScale >= 0) {
+      account.useFixedPointBalance(fixedPointScale);
+    }
+    // created on the shard's thread so it is ordered with the transfers queued after it
+    Shard shard = shardOf(account.getAccountId());
+    Account previousAccount = join(CompletableFuture.supplyAsync(
+      () -> shard.accounts.putIfAbsent(account.getAccountId(), account), shard.executor));
+    if (previousAccount != null) {
+      throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+    }
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    return shardOf(accountId).accounts.get(accountId);
+  }
+
+  @Override
+  public void forEachAccount(Consumer<Account> action) {
+    for (Shard shard : shards) {
+      shard.accounts.values().forEach(action);
+    }
+  }
+
+  @Override
+  public void clearAccounts() {
+    withAllShardsStopped(() -> {
+      for (Shard shard : shards) {
+        shard.accounts.clear();
+      }
+      if (transferLedger != null) {
+        transferLedger.clear();
+      }
+      if (balanceListener != null) {
+        balanceListener.balancesCleared();
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public void updateAccountBalance(Account accountFrom, Account accountTo, BigDecimal balance) {
+    TransferResult result = tryTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), balance);
+    if (result == TransferResult.INSUFFICIENT_BALANCE) {
+      throw new InvalidAmountException("Account id " + accountFrom.getAccountId()
+        + " does not have sufficient balance to transfer");
+    } else if (result == TransferResult.AMOUNT_OUT_OF_RANGE) {
+      throw new InvalidAmountException("Amount " + balance + " cannot be transferred");
+    } else if (result == TransferResult.FX_RATE_UNAVAILABLE) {
+      throw new InvalidAmountException(result.getMessage());
+    } else if (result == TransferResult.ACCOUNT_FROM_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountFrom.getAccountId() + " does not exist");
+    } else if (result == TransferResult.ACCOUNT_TO_NOT_FOUND) {
+      throw new InvalidAccountException("Account id " + accountTo.getAccountId() + " does not exist");
+    }
+  }
+
+  @Override
+  public TransferResult tryTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    return join(tryTransferAsync(accountIdFrom, accountIdTo, amount));
+  }
+
+  // the future completes on a shard thread, callers must not block in what they chain to it
+  @Override
+  public CompletableFuture<TransferResult> tryTransferAsync(String accountIdFrom, String accountIdTo,
+    BigDecimal amount) {
+    Shard fromShard = shardOf(accountIdFrom);
+    Shard toShard = shardOf(accountIdTo);
+    if (fromShard == toShard) {
+      return CompletableFuture.supplyAsync(() -> {
+        TransferResult result = transfer(fromShard.accounts.get(accountIdFrom), fromShard.accounts.get(accountIdTo),
+          amount, localTransfers);
+        if (result == TransferResult.SUCCESS) {
+          transferApplied(accountIdFrom, accountIdTo, amount);
+        }
+        return result;
+      }, fromShard.executor);
+    }
+    CompletableFuture<TransferResult> result = new CompletableFuture<>();
+    fromShard.executor.execute(() -> debitStep(fromShard, toShard, accountIdFrom, accountIdTo, amount, result));
+    return result;
+  }
+
+  // a non atomic batch is pipelined: every item is queued on its shard straight away, so an item does not
+  // see a cross shard credit of an earlier item that is still in flight
+  @Override
+  public TransferResult[] tryTransferBatch(List<TransferAmount> transfers, boolean atomic) {
+    if (atomic) {
+      return withAllShardsStopped(() -> applyAtomically(transfers));
+    }
+    List<CompletableFuture<TransferResult>> futures = new ArrayList<>(transfers.size());
+    for (TransferAmount transfer : transfers) {
+      futures.add(tryTransferAsync(transfer.getAccountIdFrom(), transfer.getAccountIdTo(), transfer.getBalance()));
+    }
+    TransferResult[] results = new TransferResult[transfers.size()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = join(futures.get(i));
+    }
+    return results;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    int depth = 0;
+    int maxDepth = 0;
+    for (Shard shard : shards) {
+      int shardDepth = shard.executor.getQueue().size();
+      depth += shardDepth;
+      maxDepth = Math.max(maxDepth, shardDepth);
+    }
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("accounts.shards", shards.length),
+      new Metric<>("accounts.shards.queue.depth", depth),
+      new Metric<>("accounts.shards.queue.max-depth", maxDepth),
+      new Metric<>("transfers.local", localTransfers.sum()),
+      new Metric<>("transfers.cross-shard", crossShardTransfers.sum()),
+      new Metric<>("transfers.refunded", refundedTransfers.sum()));
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    for (Shard shard : shards) {
+      shard.executor.shutdown();
+    }
+    for (Shard shard : shards) {
+      shard.executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  // first half of a cross shard transfer, runs on the shard of the debited account
+  private void debitStep(Shard fromShard, Shard toShard, String accountIdFrom, String accountIdTo,
+    BigDecimal amount, CompletableFuture<TransferResult> result) {
+    Account accountFrom = fromShard.accounts.get(accountIdFrom);
+    if (accountFrom == null) {
+      result.complete(TransferResult.ACCOUNT_FROM_NOT_FOUND);
+      return;
+    }
+    // only a read of the other shard, an account removed meanwhile is caught by the credit step
+    Account accountTo = toShard.accounts.get(accountIdTo);
+    if (accountTo == null) {
+      result.complete(TransferResult.ACCOUNT_TO_NOT_FOUND);
+      return;
+    }
+    if (!Objects.equals(accountFrom.getCurrency(), accountTo.getCurrency())) {
+      result.complete(TransferResult.FX_RATE_UNAVAILABLE);
+      return;
+    }
+    TransferResult debited = debit(accountFrom, amount);
+    if (debited != TransferResult.SUCCESS) {
+      result.complete(debited);
+      return;
+    }
+    try {
+      toShard.executor.execute(() -> creditStep(fromShard, toShard, accountFrom, accountIdTo, amount, result));
+    } catch (RejectedExecutionException ree) {
+      accountFrom.deposit(amount);
+      balanceChanged(accountIdFrom);
+      result.completeExceptionally(ree);
+    }
+  }
+
+  // second half, runs on the shard of the credited account and sends the money back if it cannot land
+  private void creditStep(Shard fromShard, Shard toShard, Account accountFrom, String accountIdTo,
+    BigDecimal amount, CompletableFuture<TransferResult> result) {
+    Account accountTo = toShard.accounts.get(accountIdTo);
+    TransferResult credited = accountTo == null ? TransferResult.ACCOUNT_TO_NOT_FOUND : credit(accountTo, amount);
+    if (credited == TransferResult.SUCCESS) {
+      crossShardTransfers.increment();
+      transferApplied(accountFrom.getAccountId(), accountIdTo, amount);
+      result.complete(TransferResult.SUCCESS);
+      return;
+    }
+    refundedTransfers.increment();
+    fromShard.executor.execute(() -> {
+      accountFrom.deposit(amount);
+      balanceChanged(accountFrom.getAccountId());
+      result.complete(credited);
+    });
+  }
+
+  // both accounts belong to the calling shard thread, or every shard is stopped
+  private TransferResult transfer(Account accountFrom, Account accountTo, BigDecimal amount,
+    LongAdder counter) {
+    if (accountFrom == null) {
+      return TransferResult.ACCOUNT_FROM_NOT_FOUND;
+    }
+    if (accountTo == null) {
+      return TransferResult.ACCOUNT_TO_NOT_FOUND;
+    }
+    if (accountFrom.getAccountId().equals(accountTo.getAccountId())) {
+      return TransferResult.SAME_ACCOUNT;
+    }
+    if (!Objects.equals(accountFrom.getCurrency(), accountTo.getCurrency())) {
+      return TransferResult.FX_RATE_UNAVAILABLE;
+    }
+    TransferResult result = debit(accountFrom, amount);
+    if (result != TransferResult.SUCCESS) {
+      return result;
+    }
+    result = credit(accountTo, amount);
+    if (result != TransferResult.SUCCESS) {
+      accountFrom.deposit(amount);
+      balanceChanged(accountFrom.getAccountId());
+      return result;
+    }
+    counter.increment();
+    return TransferResult.SUCCESS;
+  }
+
+  private TransferResult[] applyAtomically(List<TransferAmount> transfers) {
+    TransferResult[] results = new TransferResult[transfers.size()];
+    for (int i = 0; i < results.length; i++) {
+      TransferAmount transfer = transfers.get(i);
+      results[i] = transfer(getAccount(transfer.getAccountIdFrom()), getAccount(transfer.getAccountIdTo()),
+        transfer.getBalance(), localTransfers);
+      if (results[i] != TransferResult.SUCCESS) {
+        // undo in reverse order, every account still holds what the later transfers moved into it
+        for (int j = i - 1; j >= 0; j--) {
+          TransferAmount applied = transfers.get(j);
+          getAccount(applied.getAccountIdTo()).withdraw(applied.getBalance());
+          getAccount(applied.getAccountIdFrom()).deposit(applied.getBalance());
+          balanceChanged(applied.getAccountIdTo());
+          balanceChanged(applied.getAccountIdFrom());
+          results[j] = TransferResult.BATCH_ABORTED;
+        }
+        for (int j = i + 1; j < results.length; j++) {
+          results[j] = TransferResult.BATCH_ABORTED;
+        }
+        return results;
+      }
+    }
+    for (TransferAmount transfer : transfers) {
+      transferApplied(transfer.getAccountIdFrom(), transfer.getAccountIdTo(), transfer.getBalance());
+    }
+    return results;
+  }
+
+  private void transferApplied(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    if (transferLedger != null) {
+      transferLedger.record(accountIdFrom, accountIdTo, amount);
+    }
+    balanceChanged(accountIdFrom);
+    balanceChanged(accountIdTo);
+  }
+
+  // a debit is only reported once its transfer completes or is refunded, readers of the debited balance
+  // in between see the money in flight and drop what they read when the report comes
+  private void balanceChanged(String accountId) {
+    if (balanceListener != null) {
+      balanceListener.balanceChanged(accountId);
+    }
+  }
+
+  // every shard thread parks on a barrier task, so the action is the only writer while it runs. Credits
+  // still in flight wait behind the barrier, which only makes the credited balances look lower
+  private <T> T withAllShardsStopped(Supplier<T> action) {
+    stopLock.lock();
+    CountDownLatch stopped = new CountDownLatch(shards.length);
+    CountDownLatch resume = new CountDownLatch(1);
+    try {
+      for (Shard shard : shards) {
+        shard.executor.execute(() -> {
+          stopped.countDown();
+          awaitUninterruptibly(resume);
+        });
+      }
+      awaitUninterruptibly(stopped);
+      return action.get();
+    } finally {
+      resume.countDown();
+      stopLock.unlock();
+    }
+  }
+
+  // the shard thread is the only writer of the account, so the check and the update need no lock
+  private static TransferResult debit(Account account, BigDecimal amount) {
+    FixedPointBalance fixed = account.fixedPointBalance();
+    if (fixed != null) {
+      long units = FixedPointBalance.minorUnitsOrOutOfRange(amount, fixed.getScale());
+      if (units == FixedPointBalance.OUT_OF_RANGE) {
+        return TransferResult.AMOUNT_OUT_OF_RANGE;
+      }
+      return fixed.tryDebit(units) ? TransferResult.SUCCESS : TransferResult.INSUFFICIENT_BALANCE;
+    }
+    BigDecimal balance = account.getBalance();
+    if (amount.compareTo(balance) > 0) {
+      return TransferResult.INSUFFICIENT_BALANCE;
+    }
+    account.setBalance(balance.subtract(amount));
+    return TransferResult.SUCCESS;
+  }
+
+  private static TransferResult credit(Account account, BigDecimal amount) {
+    FixedPointBalance fixed = account.fixedPointBalance();
+    if (fixed != null) {
+      long units = FixedPointBalance.minorUnitsOrOutOfRange(amount, fixed.getScale());
+      return units != FixedPointBalance.OUT_OF_RANGE && fixed.tryCredit(units)
+        ? TransferResult.SUCCESS : TransferResult.AMOUNT_OUT_OF_RANGE;
+    }
+    account.setBalance(account.getBalance().add(amount));
+    return TransferResult.SUCCESS;
+  }
+
+  private Shard shardOf(String accountId) {
+    int h = accountId.hashCode();
+    return shards[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length];
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ce) {
+      if (ce.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ce.getCause();
+      }
+      throw ce;
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Shard {
+
+    // written only by the shard thread, read by anyone
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private Shard(int index) {
+      this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "accounts-shard-" + index);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+}
@@ -0,0 +1,411 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Append only log of repository mutations in memory mapped segment files. Each segment is a file named
+// after the log position it starts at, and a record never spans two segments. Every record is
+// [length][crc32][type][payload], replay stops at the first record whose length or checksum does not
+// match, which is where a crash tore the tail. Appends only copy into the mapping; a flusher thread forces
+// the mapping to disk and wakes every writer waiting for a position it covered, so one fsync commits all
+// transfers that arrived in the meantime. Segments entirely before a snapshot can be dropped with compact.
+@Slf4j
+public class TransferJournal implements Closeable {
+
+  // position is the log position right after the record, it only ever grows
+  public interface RecordHandler {
+
+    // currency is null for an account without one
+    void accountCreated(long position, String accountId, BigDecimal balance, String currency);
+
+    // credited is the amount itself unless it was converted to the currency of the account to
+    void transferApplied(long position, String accountIdFrom, String accountIdTo, BigDecimal amount,
+      BigDecimal credited);
+
+    void accountsCleared(long position);
+  }
+
+  static final byte CREATE = 1;
+
+  static final byte TRANSFER = 2;
+
+  static final byte CLEAR = 3;
+
+  // an account with a currency and a transfer between currencies, the plain records stay as they were so
+  // journals written before currencies existed replay unchanged
+  static final byte CREATE_IN_CURRENCY = 4;
+
+  static final byte CONVERTED_TRANSFER = 5;
+
+  // length marker telling replay the rest of the segment is unused
+  private static final int END_OF_SEGMENT = -1;
+
+  private static final int HEADER_SIZE = 8;
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private final Path directory;
+
+  private final int segmentSize;
+
+  private final long flushIntervalNanos;
+
+  private final CRC32 crc = new CRC32();
+
+  private final Object flushMonitor = new Object();
+
+  private FileChannel channel;
+
+  private MappedByteBuffer segment;
+
+  private long segmentStart;
+
+  private volatile long writtenPosition;
+
+  private volatile long durablePosition;
+
+  private volatile boolean open = true;
+
+  private final Thread flusher;
+
+  public TransferJournal(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.segmentSize = segmentSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.flusher = new Thread(this::flushLoop, "transfer-journal-flusher");
+    this.flusher.setDaemon(true);
+  }
+
+  // reads every intact record of the remaining segments, must be called once before the first append.
+  // an empty journal starts at minimumPosition so positions stay above anything a snapshot has seen
+  public synchronized void replay(long minimumPosition, RecordHandler handler) throws IOException {
+    List<Long> starts = segmentStarts();
+    long records = 0;
+    if (starts.isEmpty()) {
+      openSegment(minimumPosition);
+    }
+    for (int i = 0; i < starts.size(); i++) {
+      openSegment(starts.get(i));
+      int replayed = replaySegment(handler);
+      if (replayed < 0) {
+        records += -replayed - 1;
+        // pages of the mapping reach the disk in any order, so records that were never acknowledged
+        // may sit after the torn one; wipe them so a later replay cannot pick them up
+        wipeTail();
+        for (int j = i + 1; j < starts.size(); j++) {
+          Files.delete(segmentFile(starts.get(j)));
+        }
+        break;
+      }
+      records += replayed;
+      if (i == starts.size() - 1) {
+        nextSegment();
+      }
+    }
+    writtenPosition = segmentStart + segment.position();
+    durablePosition = writtenPosition;
+    flusher.start();
+    log.info("Replayed {} journal records up to position {}", records, writtenPosition);
+  }
+
+  public synchronized long appendCreate(String accountId, BigDecimal balance, String currency)
+    throws IOException {
+    byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+    byte[] unscaled = balance.unscaledValue().toByteArray();
+    byte[] code = currency != null ? currency.getBytes(StandardCharsets.UTF_8) : null;
+    ByteBuffer record = reserve(1 + 2 + id.length + 4 + 1 + unscaled.length + (code != null ? 2 + code.length : 0));
+    record.put(code != null ? CREATE_IN_CURRENCY : CREATE);
+    putString(record, id);
+    putDecimal(record, balance.scale(), unscaled);
+    if (code != null) {
+      putString(record, code);
+    }
+    return commit(record);
+  }
+
+  public synchronized long appendTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount,
+    BigDecimal credited) throws IOException {
+    byte[] from = accountIdFrom.getBytes(StandardCharsets.UTF_8);
+    byte[] to = accountIdTo.getBytes(StandardCharsets.UTF_8);
+    byte[] unscaled = amount.unscaledValue().toByteArray();
+    byte[] creditedUnscaled = credited != amount ? credited.unscaledValue().toByteArray() : null;
+    ByteBuffer record = reserve(1 + 2 + from.length + 2 + to.length + 4 + 1 + unscaled.length
+      + (creditedUnscaled != null ? 4 + 1 + creditedUnscaled.length : 0));
+    record.put(creditedUnscaled != null ? CONVERTED_TRANSFER : TRANSFER);
+    putString(record, from);
+    putString(record, to);
+    putDecimal(record, amount.scale(), unscaled);
+    if (creditedUnscaled != null) {
+      putDecimal(record, credited.scale(), creditedUnscaled);
+    }
+    return commit(record);
+  }
+
+  public synchronized long appendClear() throws IOException {
+    ByteBuffer record = reserve(1);
+    record.put(CLEAR);
+    return commit(record);
+  }
+
+  public long getWrittenPosition() {
+    return writtenPosition;
+  }
+
+  public long getDurablePosition() {
+    return durablePosition;
+  }
+
+  // blocks until everything up to position has been forced to disk
+  public void awaitDurable(long position) throws InterruptedException {
+    if (durablePosition >= position) {
+      return;
+    }
+    synchronized (flushMonitor) {
+      flushMonitor.notifyAll();
+      while (durablePosition < position && open) {
+        flushMonitor.wait();
+      }
+    }
+  }
+
+  // deletes the segments that lie entirely before position, the active segment is always kept
+  public synchronized int compact(long position) throws IOException {
+    int deleted = 0;
+    for (long start : segmentStarts()) {
+      Path file = segmentFile(start);
+      if (start != segmentStart && start + Files.size(file) <= position) {
+        Files.delete(file);
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    synchronized (flushMonitor) {
+      flushMonitor.notifyAll();
+    }
+    try {
+      flusher.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (segment != null) {
+        segment.force();
+        channel.close();
+      }
+    }
+  }
+
+  // number of records replayed, or -(records + 1) when the segment ends in a torn record
+  private int replaySegment(RecordHandler handler) {
+    int records = 0;
+    while (true) {
+      int offset = segment.position();
+      if (offset + HEADER_SIZE > segmentSize) {
+        return records;
+      }
+      int length = segment.getInt(offset);
+      if (length == END_OF_SEGMENT) {
+        return records;
+      }
+      if (length <= 0 || offset + HEADER_SIZE + length > segmentSize || !checksumMatches(offset, length)) {
+        return -records - 1;
+      }
+      segment.position(offset + HEADER_SIZE);
+      ByteBuffer record = segment.slice();
+      record.limit(length);
+      segment.position(offset + HEADER_SIZE + length);
+      apply(segmentStart + segment.position(), record, handler);
+      records++;
+    }
+  }
+
+  private void wipeTail() {
+    ByteBuffer tail = segment.duplicate();
+    byte[] zeros = new byte[Math.min(segmentSize, 64 * 1024)];
+    while (tail.hasRemaining()) {
+      tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+    }
+  }
+
+  private ByteBuffer reserve(int length) throws IOException {
+    // nothing would flush the record any more
+    if (!open) {
+      throw new IOException("Journal is closed");
+    }
+    if (length + HEADER_SIZE > segmentSize) {
+      throw new IOException("Journal record of " + length + " bytes does not fit a segment");
+    }
+    if (segment.position() + HEADER_SIZE + length > segmentSize) {
+      if (segment.position() + 4 <= segmentSize) {
+        segment.putInt(segment.position(), END_OF_SEGMENT);
+      }
+      nextSegment();
+    }
+    ByteBuffer record = segment.duplicate();
+    record.position(segment.position() + HEADER_SIZE);
+    record.limit(segment.position() + HEADER_SIZE + length);
+    return record.slice();
+  }
+
+  private long commit(ByteBuffer record) {
+    record.flip();
+    int offset = segment.position();
+    crc.reset();
+    crc.update(record.duplicate());
+    // the length goes in last so a record is never visible to replay before its body
+    segment.putInt(offset + 4, (int) crc.getValue());
+    segment.putInt(offset, record.remaining());
+    segment.position(offset + HEADER_SIZE + record.remaining());
+    writtenPosition = segmentStart + segment.position();
+    return writtenPosition;
+  }
+
+  private void nextSegment() throws IOException {
+    // the previous segment has to reach the disk before anything in the next one counts as durable
+    segment.force();
+    openSegment(segmentStart + segmentSize);
+  }
+
+  private void openSegment(long start) throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    channel = FileChannel.open(segmentFile(start), StandardOpenOption.CREATE, StandardOpenOption.READ,
+      StandardOpenOption.WRITE);
+    segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    segmentStart = start;
+  }
+
+  private Path segmentFile(long start) {
+    return directory.resolve(String.format("%020d%s", start, SEGMENT_SUFFIX));
+  }
+
+  private List<Long> segmentStarts() throws IOException {
+    List<Long> starts = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        starts.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+      }
+    }
+    Collections.sort(starts);
+    return starts;
+  }
+
+  private boolean checksumMatches(int offset, int length) {
+    ByteBuffer body = segment.duplicate();
+    body.position(offset + HEADER_SIZE);
+    body.limit(offset + HEADER_SIZE + length);
+    crc.reset();
+    crc.update(body);
+    return (int) crc.getValue() == segment.getInt(offset + 4);
+  }
+
+  private void flushLoop() {
+    while (open) {
+      long target = writtenPosition;
+      if (target > durablePosition) {
+        MappedByteBuffer current;
+        synchronized (this) {
+          current = segment;
+          target = writtenPosition;
+        }
+        current.force();
+        synchronized (flushMonitor) {
+          durablePosition = target;
+          flushMonitor.notifyAll();
+        }
+      }
+      synchronized (flushMonitor) {
+        if (writtenPosition == durablePosition && open) {
+          try {
+            flushMonitor.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos)));
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  private static void apply(long position, ByteBuffer record, RecordHandler handler) {
+    byte type = record.get();
+    if (!applyPayload(type, position, record, handler)) {
+      throw new IllegalStateException("Unknown journal record type " + type);
+    }
+  }
+
+  // decodes the payload of a record of the given type, false for a type that is not a journal record
+  static boolean applyPayload(byte type, long position, ByteBuffer payload, RecordHandler handler) {
+    switch (type) {
+    case CREATE:
+      handler.accountCreated(position, getString(payload), getDecimal(payload), null);
+      return true;
+    case CREATE_IN_CURRENCY:
+      handler.accountCreated(position, getString(payload), getDecimal(payload), getString(payload));
+      return true;
+    case TRANSFER: {
+      String from = getString(payload);
+      String to = getString(payload);
+      BigDecimal amount = getDecimal(payload);
+      handler.transferApplied(position, from, to, amount, amount);
+      return true;
+    }
+    case CONVERTED_TRANSFER:
+      handler.transferApplied(position, getString(payload), getString(payload), getDecimal(payload),
+        getDecimal(payload));
+      return true;
+    case CLEAR:
+      handler.accountsCleared(position);
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  static void putString(ByteBuffer buffer, byte[] value) {
+    buffer.putShort((short) value.length);
+    buffer.put(value);
+  }
+
+  static void putDecimal(ByteBuffer buffer, int scale, byte[] unscaled) {
+    buffer.putInt(scale);
+    buffer.put((byte) unscaled.length);
+    buffer.put(unscaled);
+  }
+
+  static String getString(ByteBuffer buffer) {
+    byte[] value = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  static BigDecimal getDecimal(ByteBuffer buffer) {
+    int scale = buffer.getInt();
+    byte[] unscaled = new byte[buffer.get() & 0xFF];
+    buffer.get(unscaled);
+    return new BigDecimal(new BigInteger(unscaled), scale);
+  }
+}
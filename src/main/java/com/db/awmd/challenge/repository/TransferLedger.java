@@ -0,0 +1,312 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.AccountStatement;
+import com.db.awmd.challenge.domain.LedgerEntry;
+
+// Append only, in memory record of applied transfers for account statements. Entries are packed four longs
+// each into one ring of primitives, so the ledger is a flat array whatever its size, and once the ring is
+// full the oldest entries are overwritten. Every account keeps the sequence numbers and timestamps of its
+// entries in sorted primitive arrays, so a statement page costs a binary search plus one read per entry.
+//
+// Appends take no lock: a writer claims a sequence number, marks the slot as being written, fills it and
+// stamps it with the sequence last. Readers check the stamp before and after reading an entry and treat one
+// whose slot has been reused as gone.
+@Component
+public class TransferLedger implements PublicMetrics {
+
+  // [stamp][flags and scale << 48 | timestamp][from << 32 | to][unscaled amount]
+  private static final int SLOT_LONGS = 4;
+
+  private static final long WRITING = -1;
+
+  private static final long TIMESTAMP_MASK = (1L << 48) - 1;
+
+  // marks an amount that does not fit the slot, it is kept in overflowAmounts instead
+  private static final int OVERFLOW_SCALE = 0x7FFF;
+
+  // set above the scale of a converted transfer, whose credited amount is kept in creditedAmounts
+  private static final int CONVERTED = 0x8000;
+
+  private final AtomicLongArray slots;
+
+  private final int mask;
+
+  private final AtomicLong lastSequence = new AtomicLong();
+
+  private final Map<Long, BigDecimal> overflowAmounts = new ConcurrentHashMap<>();
+
+  // transfers between currencies are the exception, so their second amount lives outside the slots
+  private final Map<Long, BigDecimal> creditedAmounts = new ConcurrentHashMap<>();
+
+  private final Map<String, AccountHistory> histories = new ConcurrentHashMap<>();
+
+  // account number to history, replaced under the registration lock when it has to grow
+  private volatile AccountHistory[] byNumber = new AccountHistory[64];
+
+  private int registeredAccounts;
+
+  // entries up to this sequence were recorded before the ledger was cleared
+  private volatile long clearedUpTo;
+
+  @Autowired
+  public TransferLedger(@Value("${ledger.capacity:1048576}") int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.slots = new AtomicLongArray(size * SLOT_LONGS);
+    this.mask = size - 1;
+  }
+
+  // the locking repositories call this while they exclude other transfers on both accounts, so the entries
+  // of one account are recorded in the order their transfers were applied
+  public void record(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    record(accountIdFrom, accountIdTo, amount, amount);
+  }
+
+  // credited is the amount itself unless the transfer was converted to the currency of the account to
+  public void record(String accountIdFrom, String accountIdTo, BigDecimal amount, BigDecimal credited) {
+    AccountHistory from = history(accountIdFrom);
+    AccountHistory to = history(accountIdTo);
+    long sequence = lastSequence.incrementAndGet();
+    long timestamp = System.currentTimeMillis();
+
+    int base = (int) (sequence & mask) * SLOT_LONGS;
+    long previous = slots.get(base);
+    slots.set(base, WRITING);
+    if (previous > 0) {
+      int previousFlags = (int) (slots.get(base + 1) >>> 48);
+      if ((previousFlags & OVERFLOW_SCALE) == OVERFLOW_SCALE) {
+        overflowAmounts.remove(previous);
+      }
+      if ((previousFlags & CONVERTED) != 0) {
+        creditedAmounts.remove(previous);
+      }
+    }
+    int scale = amount.scale();
+    long unscaled = 0;
+    if (scale >= 0 && scale < OVERFLOW_SCALE && amount.unscaledValue().bitLength() < 64) {
+      unscaled = amount.unscaledValue().longValue();
+    } else {
+      scale = OVERFLOW_SCALE;
+      overflowAmounts.put(sequence, amount);
+    }
+    if (credited != amount) {
+      creditedAmounts.put(sequence, credited);
+      scale |= CONVERTED;
+    }
+    slots.lazySet(base + 1, (long) scale << 48 | (timestamp & TIMESTAMP_MASK));
+    slots.lazySet(base + 2, (long) from.number << 32 | (to.number & 0xFFFFFFFFL));
+    slots.lazySet(base + 3, unscaled);
+    slots.lazySet(base, sequence);
+
+    long oldest = oldestSequence();
+    from.add(sequence, timestamp, oldest);
+    to.add(sequence, timestamp, oldest);
+    // one more history per append, round robin over the account numbers, so accounts without new transfers
+    // let go of evicted entries without a single transfer paying for a sweep over all of them
+    AccountHistory[] names = byNumber;
+    AccountHistory swept = names[(int) sequence & (names.length - 1)];
+    if (swept != null) {
+      swept.trim(oldest);
+    }
+  }
+
+  // newest first, only entries with since <= timestamp < until and, when a cursor is given, older than it
+  public AccountStatement statement(String accountId, long since, long until, long cursor, int limit) {
+    AccountHistory history = histories.get(accountId);
+    if (history == null) {
+      return new AccountStatement(accountId, Collections.emptyList(), null);
+    }
+    long[] page = history.page(oldestSequence(), since, until, cursor, limit + 1);
+    List<LedgerEntry> entries = new ArrayList<>(Math.min(limit, page.length));
+    Long nextCursor = null;
+    for (long sequence : page) {
+      if (entries.size() == limit) {
+        nextCursor = entries.get(limit - 1).getSequence();
+        break;
+      }
+      LedgerEntry entry = read(sequence);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    return new AccountStatement(accountId, entries, nextCursor);
+  }
+
+  // not meant to run concurrently with transfers, like clearing the repository itself
+  public synchronized void clear() {
+    clearedUpTo = lastSequence.get();
+    histories.clear();
+    overflowAmounts.clear();
+    creditedAmounts.clear();
+    byNumber = new AccountHistory[64];
+    registeredAccounts = 0;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    long recorded = lastSequence.get() - clearedUpTo;
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("ledger.entries", Math.min(recorded, mask + 1L)),
+      new Metric<>("ledger.capacity", mask + 1),
+      new Metric<>("ledger.evicted", Math.max(0, recorded - mask - 1)),
+      new Metric<>("ledger.accounts", histories.size()));
+  }
+
+  private long oldestSequence() {
+    return Math.max(clearedUpTo + 1, lastSequence.get() - mask);
+  }
+
+  private LedgerEntry read(long sequence) {
+    int base = (int) (sequence & mask) * SLOT_LONGS;
+    if (slots.get(base) != sequence) {
+      return null;
+    }
+    long scaleAndTimestamp = slots.get(base + 1);
+    long accounts = slots.get(base + 2);
+    long unscaled = slots.get(base + 3);
+    if (slots.get(base) != sequence || sequence <= clearedUpTo) {
+      return null;
+    }
+    int flags = (int) (scaleAndTimestamp >>> 48);
+    int scale = flags & OVERFLOW_SCALE;
+    BigDecimal amount = scale == OVERFLOW_SCALE ? overflowAmounts.get(sequence) : BigDecimal.valueOf(unscaled, scale);
+    BigDecimal credited = (flags & CONVERTED) != 0 ? creditedAmounts.get(sequence) : null;
+    AccountHistory[] names = byNumber;
+    int from = (int) (accounts >>> 32);
+    int to = (int) accounts;
+    if (amount == null || (flags & CONVERTED) != 0 && credited == null) {
+      return null;
+    }
+    if (from >= names.length || to >= names.length || names[from] == null || names[to] == null) {
+      return null;
+    }
+    return new LedgerEntry(sequence, scaleAndTimestamp & TIMESTAMP_MASK, names[from].accountId, names[to].accountId,
+      amount, credited);
+  }
+
+  private AccountHistory history(String accountId) {
+    AccountHistory history = histories.get(accountId);
+    return history != null ? history : register(accountId);
+  }
+
+  private synchronized AccountHistory register(String accountId) {
+    AccountHistory history = histories.get(accountId);
+    if (history == null) {
+      history = new AccountHistory(registeredAccounts++, accountId);
+      AccountHistory[] names = byNumber;
+      if (history.number >= names.length) {
+        names = Arrays.copyOf(names, names.length * 2);
+      }
+      names[history.number] = history;
+      byNumber = names;
+      histories.put(accountId, history);
+    }
+    return history;
+  }
+
+  // first index in [from, to) whose value is not below key, the values are sorted
+  private static int lowerBound(long[] values, int from, int to, long key) {
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      if (values[middle] < key) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    return from;
+  }
+
+  private static final class AccountHistory {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int number;
+
+    private final String accountId;
+
+    private long[] sequences = new long[INITIAL_CAPACITY];
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    private int start;
+
+    private int size;
+
+    private AccountHistory(int number, String accountId) {
+      this.number = number;
+      this.accountId = accountId;
+    }
+
+    synchronized void add(long sequence, long timestamp, long oldest) {
+      if (start + size == sequences.length) {
+        trim(oldest);
+      }
+      if (start + size == sequences.length) {
+        // slide the live entries to the front, and grow only if they fill more than half the array
+        resize(size * 2 > sequences.length ? sequences.length * 2 : sequences.length);
+      }
+      int position = start + size;
+      // transfers of one account can be handed over slightly out of order by the sharded repository
+      while (position > start && sequences[position - 1] > sequence) {
+        sequences[position] = sequences[position - 1];
+        timestamps[position] = timestamps[position - 1];
+        position--;
+      }
+      sequences[position] = sequence;
+      // kept non decreasing so time ranges can be binary searched even if the clock steps back
+      timestamps[position] = position > start ? Math.max(timestamp, timestamps[position - 1]) : timestamp;
+      size++;
+    }
+
+    synchronized void trim(long oldest) {
+      int first = lowerBound(sequences, start, start + size, oldest);
+      size -= first - start;
+      start = size == 0 ? 0 : first;
+      if (sequences.length > INITIAL_CAPACITY && size < sequences.length / 4) {
+        resize(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) << 1));
+      }
+    }
+
+    synchronized long[] page(long oldest, long since, long until, long cursor, int limit) {
+      trim(oldest);
+      int end = start + size;
+      if (cursor > 0) {
+        end = lowerBound(sequences, start, end, cursor);
+      }
+      end = lowerBound(timestamps, start, end, until);
+      long[] page = new long[Math.min(limit, end - start)];
+      int count = 0;
+      for (int i = end - 1; i >= start && count < page.length && timestamps[i] >= since; i--) {
+        page[count++] = sequences[i];
+      }
+      return count == page.length ? page : Arrays.copyOf(page, count);
+    }
+
+    private void resize(int capacity) {
+      long[] resizedSequences = capacity == sequences.length ? sequences : new long[capacity];
+      long[] resizedTimestamps = capacity == timestamps.length ? timestamps : new long[capacity];
+      System.arraycopy(sequences, start, resizedSequences, 0, size);
+      System.arraycopy(timestamps, start, resizedTimestamps, 0, size);
+      sequences = resizedSequences;
+      timestamps = resizedTimestamps;
+      start = 0;
+    }
+  }
+}
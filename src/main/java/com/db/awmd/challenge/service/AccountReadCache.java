@@ -0,0 +1,167 @@
+package com.db.awmd.challenge.service;
+
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.repository.BalanceListener;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Read side of GET /v1/accounts/{id}: immutable balance snapshots of recently read accounts together with
+// their serialized JSON, so reading an unchanged account again is a map lookup that neither touches the
+// repository nor serializes anything.
+//
+// Every account maps to one of a fixed set of version stripes, and the repositories bump the stripe after
+// each change of the account's balance. A snapshot carries the version its stripe had before the balance
+// was read and is only served while the stripe still has that version, so a snapshot read while a transfer
+// was being applied is never served after it. Versions start at the startup time and only grow, which lets
+// them double as ETags. Entries live in two generations: inserts go to the current one, hits in the older
+// one are moved up, and once the current one holds half the entries the older one is dropped.
+@Component
+public class AccountReadCache implements BalanceListener, PublicMetrics {
+
+  // must be a power of two, an unrelated change in the same stripe only costs a cache miss
+  private static final int STRIPES = 1 << 16;
+
+  private final ObjectMapper objectMapper;
+
+  // 0 disables caching, snapshots are still versioned and serialized
+  private final int maxEntries;
+
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+  private volatile Map<String, Entry> current = new ConcurrentHashMap<>();
+
+  private volatile Map<String, Entry> previous = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder invalidations = new LongAdder();
+
+  @Autowired
+  public AccountReadCache(ObjectMapper objectMapper,
+    @Value("${accounts.read-cache.max-entries:100000}") int maxEntries) {
+    this.objectMapper = objectMapper;
+    this.maxEntries = maxEntries;
+    long startVersion = System.currentTimeMillis() * 1000;
+    for (int i = 0; i < STRIPES; i++) {
+      versions.set(i, startVersion);
+    }
+  }
+
+  // the cached entry if the account's balance has not changed since it was read, null otherwise
+  public Entry get(String accountId) {
+    long version = versions.get(stripeOf(accountId));
+    Entry entry = current.get(accountId);
+    if (entry == null) {
+      entry = previous.get(accountId);
+      if (entry != null && entry.snapshot.getVersion() == version) {
+        current.put(accountId, entry);
+      }
+    }
+    if (entry != null && entry.snapshot.getVersion() == version) {
+      hits.increment();
+      return entry;
+    }
+    misses.increment();
+    return null;
+  }
+
+  // to be read before the balance, a snapshot of that balance gets this version
+  public long version(String accountId) {
+    return versions.get(stripeOf(accountId));
+  }
+
+  public Entry put(BalanceSnapshot snapshot) {
+    Entry entry;
+    try {
+      entry = new Entry(snapshot, objectMapper.writeValueAsBytes(snapshot));
+    } catch (JsonProcessingException jpe) {
+      throw new UncheckedIOException(jpe);
+    }
+    if (maxEntries > 0) {
+      Map<String, Entry> entries = current;
+      entries.put(snapshot.getAccountId(), entry);
+      if (entries.size() >= Math.max(1, maxEntries / 2)) {
+        rotate(entries);
+      }
+    }
+    return entry;
+  }
+
+  @Override
+  public void balanceChanged(String accountId) {
+    versions.incrementAndGet(stripeOf(accountId));
+    invalidations.increment();
+    current.remove(accountId);
+    previous.remove(accountId);
+  }
+
+  @Override
+  public void balancesCleared() {
+    for (int i = 0; i < STRIPES; i++) {
+      versions.incrementAndGet(i);
+    }
+    synchronized (this) {
+      current = new ConcurrentHashMap<>();
+      previous = new ConcurrentHashMap<>();
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("accounts.read-cache.hits", hits.sum()),
+      new Metric<>("accounts.read-cache.misses", misses.sum()),
+      new Metric<>("accounts.read-cache.entries", current.size() + previous.size()),
+      new Metric<>("accounts.read-cache.invalidations", invalidations.sum()));
+  }
+
+  private synchronized void rotate(Map<String, Entry> full) {
+    if (current == full) {
+      previous = full;
+      current = new ConcurrentHashMap<>();
+    }
+  }
+
+  private static int stripeOf(String accountId) {
+    int h = accountId.hashCode();
+    return (h ^ (h >>> 16)) & (STRIPES - 1);
+  }
+
+  public static final class Entry {
+
+    private final BalanceSnapshot snapshot;
+
+    private final byte[] json;
+
+    private Entry(BalanceSnapshot snapshot, byte[] json) {
+      this.snapshot = snapshot;
+      this.json = json;
+    }
+
+    public BalanceSnapshot getSnapshot() {
+      return snapshot;
+    }
+
+    // shared by every reader of the entry, must not be modified
+    public byte[] getJson() {
+      return json;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package com.db.awmd.challenge.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ImportReport;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Imports and exports accounts as a stream, one account per NDJSON object or CSV line. The import parses
+// on the calling thread and hands chunks of accounts to a pool that creates them through the repository in
+// parallel; the number of chunks in flight is bounded, so a huge upload never sits in memory as a whole.
+// Duplicates and invalid rows are counted and reported at the end instead of failing the import.
+@Service
+public class AccountsBulkService {
+
+  public enum Format {
+    NDJSON,
+    // accountId,balance per line with an optional header, fields are not quoted
+    CSV
+  }
+
+  private static final int IMPORT_CHUNK_SIZE = 1000;
+
+  private static final int MAX_REPORTED = 1000;
+
+  private final AccountsRepository accountsRepository;
+
+  private final ObjectMapper objectMapper;
+
+  private final ExecutorService importExecutor;
+
+  private final int maxChunksInFlight;
+
+  @Autowired
+  public AccountsBulkService(AccountsRepository accountsRepository, ObjectMapper objectMapper,
+    @Value("${accounts.import.threads:0}") int threads) {
+    this.accountsRepository = accountsRepository;
+    this.objectMapper = objectMapper;
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.importExecutor = Executors.newFixedThreadPool(poolSize, r -> {
+      Thread thread = new Thread(r, "accounts-import-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maxChunksInFlight = poolSize * 2;
+  }
+
+  public ImportReport importAccounts(InputStream in, Format format) throws IOException {
+    ImportRun run = new ImportRun();
+    boolean complete = false;
+    try {
+      if (format == Format.NDJSON) {
+        readNdjson(in, run);
+      } else {
+        readCsv(in, run);
+      }
+      complete = true;
+    } catch (JsonProcessingException jpe) {
+      run.reject(jpe.getLocation() != null ? jpe.getLocation().getLineNr() : -1,
+        "malformed JSON, " + jpe.getOriginalMessage());
+    } finally {
+      run.finish();
+    }
+    return run.report(complete);
+  }
+
+  public void exportAccounts(OutputStream out, Format format) throws IOException {
+    try {
+      if (format == Format.NDJSON) {
+        writeNdjson(out);
+      } else {
+        writeCsv(out);
+      }
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    importExecutor.shutdown();
+    importExecutor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  private void readNdjson(InputStream in, ImportRun run) throws IOException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        long line = parser.getTokenLocation().getLineNr();
+        if (token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          run.reject(line, "expected an account object");
+          continue;
+        }
+        String accountId = null;
+        BigDecimal balance = null;
+        String invalidBalance = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          JsonToken value = parser.nextToken();
+          if ("accountId".equals(field) && value == JsonToken.VALUE_STRING) {
+            accountId = parser.getText();
+          } else if ("balance".equals(field) && value.isNumeric()) {
+            balance = parser.getDecimalValue();
+          } else if ("balance".equals(field)) {
+            invalidBalance = parser.getText();
+            parser.skipChildren();
+          } else {
+            parser.skipChildren();
+          }
+        }
+        if (invalidBalance != null) {
+          run.reject(line, "balance " + invalidBalance + " is not a number");
+        } else {
+          run.add(line, accountId, balance);
+        }
+      }
+    }
+  }
+
+  private void readCsv(InputStream in, ImportRun run) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+    String row;
+    long line = 0;
+    while ((row = reader.readLine()) != null) {
+      line++;
+      if (row.trim().isEmpty() || (line == 1 && row.trim().equalsIgnoreCase("accountId,balance"))) {
+        continue;
+      }
+      int comma = row.indexOf(',');
+      if (comma < 0) {
+        run.reject(line, "expected accountId,balance");
+        continue;
+      }
+      String balance = row.substring(comma + 1).trim();
+      try {
+        run.add(line, row.substring(0, comma).trim(), balance.isEmpty() ? null : new BigDecimal(balance));
+      } catch (NumberFormatException nfe) {
+        run.reject(line, "balance " + balance + " is not a number");
+      }
+    }
+  }
+
+  private void writeNdjson(OutputStream out) throws IOException {
+    JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+    generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    generator.setRootValueSeparator(null);
+    accountsRepository.forEachAccount(account -> {
+      try {
+        generator.writeStartObject();
+        generator.writeStringField("accountId", account.getAccountId());
+        generator.writeNumberField("balance", account.getBalance());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    });
+    generator.close();
+  }
+
+  private void writeCsv(OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    writer.write("accountId,balance\n");
+    accountsRepository.forEachAccount(account -> {
+      try {
+        writer.append(account.getAccountId()).append(',').append(account.getBalance().toPlainString()).append('\n');
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    });
+    writer.flush();
+  }
+
+  private final class ImportRun {
+
+    private final Semaphore chunksInFlight = new Semaphore(maxChunksInFlight);
+
+    private final LongAdder imported = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final List<String> duplicateIds = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    private List<Account> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+
+    // same rules as the validation of a single created account
+    void add(long line, String accountId, BigDecimal balance) {
+      if (accountId == null || accountId.isEmpty()) {
+        reject(line, "accountId is missing");
+      } else if (balance == null) {
+        reject(line, "balance is missing");
+      } else if (balance.signum() < 0) {
+        reject(line, "Initial balance must be positive.");
+      } else {
+        chunk.add(new Account(accountId, balance));
+        if (chunk.size() == IMPORT_CHUNK_SIZE) {
+          submit();
+        }
+      }
+    }
+
+    void reject(long line, String reason) {
+      rejected.increment();
+      if (errors.size() < MAX_REPORTED) {
+        errors.add("line " + line + ": " + reason);
+      }
+    }
+
+    // waits for every chunk, also when reading failed halfway
+    void finish() {
+      if (!chunk.isEmpty()) {
+        submit();
+      }
+      chunksInFlight.acquireUninterruptibly(maxChunksInFlight);
+      chunksInFlight.release(maxChunksInFlight);
+    }
+
+    ImportReport report(boolean complete) {
+      return new ImportReport(imported.sum(), duplicates.sum(), rejected.sum(), complete,
+        new ArrayList<>(duplicateIds), new ArrayList<>(errors));
+    }
+
+    private void submit() {
+      List<Account> accounts = chunk;
+      chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+      // blocks the parser while the pool is behind, which in turn stops reading the upload
+      chunksInFlight.acquireUninterruptibly();
+      importExecutor.execute(() -> {
+        try {
+          for (Account account : accounts) {
+            create(account);
+          }
+        } finally {
+          chunksInFlight.release();
+        }
+      });
+    }
+
+    private void create(Account account) {
+      try {
+        accountsRepository.createAccount(account);
+        imported.increment();
+      } catch (DuplicateAccountIdException daie) {
+        duplicates.increment();
+        if (duplicateIds.size() < MAX_REPORTED) {
+          duplicateIds.add(account.getAccountId());
+        }
+      } catch (RuntimeException re) {
+        // an invalid amount or a repository that failed to store the account, the rest of the chunk still goes on
+        rejected.increment();
+        if (errors.size() < MAX_REPORTED) {
+          errors.add("account " + account.getAccountId() + ": "
+            + (re.getMessage() != null ? re.getMessage() : re.getClass().getSimpleName()));
+        }
+      }
+    }
+  }
+}
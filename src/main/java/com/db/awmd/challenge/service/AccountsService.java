@@ -1,15 +1,27 @@
 package com.db.awmd.challenge.service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountStatement;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
 import com.db.awmd.challenge.domain.TransferAmount;
-import com.db.awmd.challenge.exception.InvalidAccountException;
-import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.FxRateTable;
+import com.db.awmd.challenge.repository.TransferLedger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.Getter;
 
@@ -19,12 +31,64 @@ public class AccountsService {
   @Getter
   private final AccountsRepository accountsRepository;
   
-  private final EmailNotificationService emailNotificationService;
+  private final NotificationService notificationService;
+
+  private static final TransferResult[] RESULTS = TransferResult.values();
+
+  private TransferMetrics transferMetrics = new TransferMetrics();
+
+  private TransferIdCache transferIdCache;
+
+  private TransferExecutor transferExecutor;
+
+  private TransferLedger transferLedger;
+
+  private TransferRateLimiter transferRateLimiter;
+
+  private FxRateTable fxRates;
+
+  // without the shared cache, which the repository keeps up to date, snapshots are not cached at all
+  private AccountReadCache accountReadCache = new AccountReadCache(new ObjectMapper(), 0);
 
   @Autowired
-  public AccountsService(AccountsRepository accountsRepository,EmailNotificationService emailNotificationService) {
+  public AccountsService(AccountsRepository accountsRepository,NotificationService notificationService) {
     this.accountsRepository = accountsRepository;
-    this.emailNotificationService=emailNotificationService;
+    this.notificationService=notificationService;
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    this.transferMetrics = transferMetrics;
+  }
+
+  @Autowired(required = false)
+  public void setTransferIdCache(TransferIdCache transferIdCache) {
+    this.transferIdCache = transferIdCache;
+  }
+
+  @Autowired(required = false)
+  public void setTransferExecutor(TransferExecutor transferExecutor) {
+    this.transferExecutor = transferExecutor;
+  }
+
+  @Autowired(required = false)
+  public void setTransferLedger(TransferLedger transferLedger) {
+    this.transferLedger = transferLedger;
+  }
+
+  @Autowired(required = false)
+  public void setTransferRateLimiter(TransferRateLimiter transferRateLimiter) {
+    this.transferRateLimiter = transferRateLimiter;
+  }
+
+  @Autowired(required = false)
+  public void setFxRates(FxRateTable fxRates) {
+    this.fxRates = fxRates;
+  }
+
+  @Autowired(required = false)
+  public void setAccountReadCache(AccountReadCache accountReadCache) {
+    this.accountReadCache = accountReadCache;
   }
 
   public void createAccount(Account account) {
@@ -34,10 +98,316 @@ public class AccountsService {
   public Account getAccount(String accountId) {
     return this.accountsRepository.getAccount(accountId);
   }
+
+  //immutable snapshot of the balance with its JSON, from the read cache while the balance is unchanged,
+  //null when the account does not exist
+  public AccountReadCache.Entry getBalanceSnapshot(String accountId) {
+    AccountReadCache.Entry cached = accountReadCache.get(accountId);
+    if (cached != null) {
+      return cached;
+    }
+    long version = accountReadCache.version(accountId);
+    Account account = this.accountsRepository.getAccount(accountId);
+    if (account == null) {
+      return null;
+    }
+    return accountReadCache.put(new BalanceSnapshot(accountId, account.getBalance(), account.getCurrency(), version));
+  }
+
+  //null when the account does not exist
+  public AccountStatement getStatement(String accountId, long since, long until, long cursor, int limit) {
+    if (this.accountsRepository.getAccount(accountId) == null) {
+      return null;
+    }
+    if (transferLedger == null) {
+      return new AccountStatement(accountId, Collections.emptyList(), null);
+    }
+    return transferLedger.statement(accountId, since, until, cursor, limit);
+  }
   
+  //the repository does not tell what it credited on this path, both notifications state the amount sent
   public void transferAmount(Account accountFrom, Account accountTo, BigDecimal balance) {
 	this.accountsRepository.updateAccountBalance(accountFrom, accountTo, balance);
-	emailNotificationService.notifyAboutTransfer(accountFrom,balance+" debited and credited to account id "+accountTo.getAccountId() );
-	emailNotificationService.notifyAboutTransfer(accountTo,balance+" credited into the account from account id "+accountFrom.getAccountId() );
+	notifyAboutTransfer(accountFrom, accountTo, TransferReceipt.unconverted(TransferResult.SUCCESS, accountFrom, balance));
+  }
+
+  //validates and applies the transfer atomically, notifications are only sent when it succeeds
+  public TransferResult transferAmount(String accountIdFrom, String accountIdTo, BigDecimal balance) {
+	long started = System.nanoTime();
+	TransferReceipt receipt = this.accountsRepository.tryTransferWithReceipt(accountIdFrom, accountIdTo, balance);
+	TransferResult result = receipt.getResult();
+	if (result == TransferResult.SUCCESS) {
+		notifyAboutTransfer(this.accountsRepository.getAccount(accountIdFrom),
+			this.accountsRepository.getAccount(accountIdTo), receipt);
+	}
+	transferMetrics.recordTransfer(result, System.nanoTime() - started);
+	return result;
+  }
+
+  //a transfer id seen before gets the outcome of its first attempt, balances are not touched again and the
+  //rate limit is not charged; a new id over the rate limit is refused and released, so it can be retried later
+  public TransferResult transferAmount(String transferId, String accountIdFrom, String accountIdTo, BigDecimal balance) {
+	return transferAmount(transferId, accountIdFrom, accountIdTo, balance, null);
+  }
+
+  //a currency, when given, has to be the one of the account to transfer from; the account to transfer to is
+  //credited in its own currency by the repository
+  public TransferResult transferAmount(String transferId, String accountIdFrom, String accountIdTo, BigDecimal balance,
+	String currency) {
+	if (transferId == null || transferIdCache == null) {
+		TransferResult rejected = reject(accountIdFrom, currency);
+		return rejected != null ? rejected : transferAmount(accountIdFrom, accountIdTo, balance);
+	}
+	int state = transferIdCache.begin(transferId);
+	if (state == TransferIdCache.IN_PROGRESS) {
+		return TransferResult.TRANSFER_IN_PROGRESS;
+	} else if (state != TransferIdCache.NEW) {
+		return RESULTS[state];
+	}
+	try {
+		TransferResult rejected = reject(accountIdFrom, currency);
+		if (rejected != null) {
+			transferIdCache.abandon(transferId);
+			return rejected;
+		}
+		TransferResult result = transferAmount(accountIdFrom, accountIdTo, balance);
+		transferIdCache.complete(transferId, result);
+		return result;
+	} catch (RuntimeException re) {
+		transferIdCache.abandon(transferId);
+		throw re;
+	}
+  }
+
+  //what a transfer is refused with before it reaches the repository, null when it may go ahead
+  private TransferResult reject(String accountIdFrom, String currency) {
+	if (!withinRateLimit(accountIdFrom)) {
+		transferMetrics.recordResult(TransferResult.RATE_LIMITED);
+		return TransferResult.RATE_LIMITED;
+	}
+	if (currencyMismatch(accountIdFrom, currency)) {
+		transferMetrics.recordResult(TransferResult.CURRENCY_MISMATCH);
+		return TransferResult.CURRENCY_MISMATCH;
+	}
+	return null;
+  }
+
+  //a transfer request that failed validation before it got here, counted with the other rejections
+  public TransferResult invalidTransfer() {
+	transferMetrics.recordResult(TransferResult.INVALID_REQUEST);
+	return TransferResult.INVALID_REQUEST;
+  }
+
+  //items whose transfer id was seen before are answered from the cache and left out of the batch without being
+  //charged to the rate limit, items over the rate limit or in the wrong currency are left out too and an atomic
+  //batch with any of them is not applied at all
+  public TransferResult[] transferBatch(List<TransferAmount> transfers, boolean atomic) {
+	return transferBatch(transfers, atomic, true);
+  }
+
+  //scheduled transfers took their rate limit token in acquireScheduled, a standing order one for all its runs
+  TransferResult[] transferScheduled(List<TransferAmount> transfers) {
+	return transferBatch(transfers, false, false);
+  }
+
+  //false when a transfer from the account to be scheduled is over the rate limit
+  boolean acquireScheduled(String accountIdFrom) {
+	if (!withinRateLimit(accountIdFrom)) {
+		transferMetrics.recordResult(TransferResult.RATE_LIMITED);
+		return false;
+	}
+	return true;
+  }
+
+  private TransferResult[] transferBatch(List<TransferAmount> transfers, boolean atomic, boolean limit) {
+	TransferResult[] results = new TransferResult[transfers.size()];
+	boolean[] reserved = transferIdCache == null ? null : beginTransferIds(transfers, results);
+	boolean rejected = limit && limitBatch(transfers, results);
+	rejected |= rejectCurrencyMismatches(transfers, results);
+	if (reserved == null && !rejected) {
+		return applyBatch(transfers, atomic);
+	}
+	List<TransferAmount> pending = new ArrayList<>(transfers.size());
+	for (int i = 0; i < results.length; i++) {
+		if (results[i] == null) {
+			pending.add(transfers.get(i));
+		} else if (reserved != null && reserved[i]) {
+			//refused before it ran, a retry may go ahead
+			transferIdCache.abandon(transfers.get(i).getTransferId());
+		}
+	}
+	if (rejected && atomic) {
+		if (reserved != null) {
+			abandonTransferIds(pending);
+		}
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				results[i] = TransferResult.BATCH_ABORTED;
+			}
+		}
+		return results;
+	}
+	TransferResult[] applied;
+	try {
+		applied = pending.isEmpty() ? new TransferResult[0] : applyBatch(pending, atomic);
+	} catch (RuntimeException re) {
+		if (reserved != null) {
+			abandonTransferIds(pending);
+		}
+		throw re;
+	}
+	if (reserved != null) {
+		completeTransferIds(pending, applied);
+	}
+	for (int i = 0, p = 0; i < results.length; i++) {
+		if (results[i] == null) {
+			results[i] = applied[p++];
+		}
+	}
+	return results;
+  }
+
+  private boolean withinRateLimit(String accountIdFrom) {
+	return transferRateLimiter == null || transferRateLimiter.tryAcquire(accountIdFrom);
+  }
+
+  //an account without a currency holds the base currency of the rate table
+  private boolean currencyMismatch(String accountIdFrom, String currency) {
+	if (currency == null) {
+		return false;
+	}
+	Account accountFrom = this.accountsRepository.getAccount(accountIdFrom);
+	if (accountFrom == null) {
+		return false;
+	}
+	String held = accountFrom.getCurrency();
+	if (held == null && fxRates != null) {
+		held = fxRates.getBaseCurrency();
+	}
+	return held != null && !held.equals(currency);
+  }
+
+  private boolean rejectCurrencyMismatches(List<TransferAmount> transfers, TransferResult[] results) {
+	boolean rejected = false;
+	for (int i = 0; i < results.length; i++) {
+		TransferAmount transfer = transfers.get(i);
+		if (results[i] == null && currencyMismatch(transfer.getAccountIdFrom(), transfer.getCurrency())) {
+			results[i] = TransferResult.CURRENCY_MISMATCH;
+			transferMetrics.recordResult(TransferResult.CURRENCY_MISMATCH);
+			rejected = true;
+		}
+	}
+	return rejected;
+  }
+
+  private boolean limitBatch(List<TransferAmount> transfers, TransferResult[] results) {
+	if (transferRateLimiter == null || !transferRateLimiter.isEnabled()) {
+		return false;
+	}
+	boolean limited = false;
+	for (int i = 0; i < results.length; i++) {
+		if (results[i] == null && !transferRateLimiter.tryAcquire(transfers.get(i).getAccountIdFrom())) {
+			results[i] = TransferResult.RATE_LIMITED;
+			transferMetrics.recordResult(TransferResult.RATE_LIMITED);
+			limited = true;
+		}
+	}
+	return limited;
+  }
+
+  //answers the items whose id was seen before from the cache, true for the items whose id is reserved now
+  private boolean[] beginTransferIds(List<TransferAmount> transfers, TransferResult[] results) {
+	boolean[] reserved = new boolean[results.length];
+	for (int i = 0; i < results.length; i++) {
+		String transferId = transfers.get(i).getTransferId();
+		if (transferId == null) {
+			continue;
+		}
+		int state = transferIdCache.begin(transferId);
+		if (state == TransferIdCache.NEW) {
+			reserved[i] = true;
+		} else {
+			results[i] = state == TransferIdCache.IN_PROGRESS ? TransferResult.TRANSFER_IN_PROGRESS : RESULTS[state];
+		}
+	}
+	return reserved;
+  }
+
+  private void completeTransferIds(List<TransferAmount> transfers, TransferResult[] results) {
+	for (int i = 0; i < results.length; i++) {
+		String transferId = transfers.get(i).getTransferId();
+		if (transferId != null) {
+			transferIdCache.complete(transferId, results[i]);
+		}
+	}
+  }
+
+  private void abandonTransferIds(List<TransferAmount> transfers) {
+	for (TransferAmount transfer : transfers) {
+		if (transfer.getTransferId() != null) {
+			transferIdCache.abandon(transfer.getTransferId());
+		}
+	}
+  }
+
+  private TransferResult[] applyBatch(List<TransferAmount> transfers, boolean atomic) {
+	TransferReceipt[] receipts = this.accountsRepository.tryTransferBatchWithReceipts(transfers, atomic);
+	TransferResult[] results = new TransferResult[receipts.length];
+	for (int i = 0; i < results.length; i++) {
+		results[i] = receipts[i].getResult();
+		transferMetrics.recordResult(results[i]);
+		if (results[i] == TransferResult.SUCCESS) {
+			TransferAmount transfer = transfers.get(i);
+			notifyAboutTransfer(this.accountsRepository.getAccount(transfer.getAccountIdFrom()),
+				this.accountsRepository.getAccount(transfer.getAccountIdTo()), receipts[i]);
+		}
+	}
+	return results;
+  }
+
+  //the submit methods run the work on the bounded transfer executor, or on the calling thread without one
+  public CompletableFuture<Void> submitCreateAccount(Account account) {
+	return submit(() -> {
+		createAccount(account);
+		return null;
+	});
+  }
+
+  public CompletableFuture<AccountReadCache.Entry> submitGetBalanceSnapshot(String accountId) {
+	return submit(() -> getBalanceSnapshot(accountId));
+  }
+
+  public CompletableFuture<TransferResult> submitTransfer(String transferId, String accountIdFrom, String accountIdTo,
+	BigDecimal balance, String currency) {
+	return submit(() -> transferAmount(transferId, accountIdFrom, accountIdTo, balance, currency));
+  }
+
+  private <T> CompletableFuture<T> submit(Supplier<T> task) {
+	if (transferExecutor != null) {
+		return transferExecutor.submit(task);
+	}
+	CompletableFuture<T> future = new CompletableFuture<>();
+	try {
+		future.complete(task.get());
+	} catch (RuntimeException re) {
+		future.completeExceptionally(re);
+	}
+	return future;
+  }
+
+  //each account is told the amount in its own currency, a converted transfer credits another amount than it debits
+  private void notifyAboutTransfer(Account accountFrom, Account accountTo, TransferReceipt receipt) {
+	notificationService.notifyAboutTransfer(accountFrom,amount(receipt.getAmount(), receipt.getCurrencyFrom())
+		+" debited and credited to account id "+accountTo.getAccountId() );
+	notificationService.notifyAboutTransfer(accountTo,amount(receipt.getCredited(), receipt.getCurrencyTo())
+		+" credited into the account from account id "+accountFrom.getAccountId() );
+  }
+
+  //an account without a currency holds the base currency of the rate table, if there is one
+  private String amount(BigDecimal amount, String currency) {
+	if (currency == null && fxRates != null) {
+		currency = fxRates.getBaseCurrency();
+	}
+	return currency == null ? amount.toPlainString() : amount.toPlainString() + " " + currency;
   }
 }
@@ -0,0 +1,231 @@
+package com.db.awmd.challenge.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Queues notifications and hands them to the email service from a single dispatcher thread, so a slow
+// notification never adds to transfer latency. Notifications for the same account that arrive within
+// the coalescing window are sent as one notification with the descriptions on separate lines.
+@Service
+@Primary
+@ConditionalOnProperty(name = "notifications.async.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class AsyncNotificationService implements NotificationService, PublicMetrics {
+
+  public enum OverflowPolicy {
+    // wait up to the offer timeout for space, then drop
+    BLOCK,
+    // drop the notification straight away
+    DROP,
+    // send the notification synchronously on the calling thread
+    CALLER_RUNS
+  }
+
+  private final NotificationService delegate;
+
+  private final BlockingQueue<PendingNotification> queue;
+
+  private final long coalesceWindowNanos;
+
+  private final int maxBatchSize;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final long offerTimeoutMillis;
+
+  private final AtomicLong dispatched = new AtomicLong();
+
+  private final AtomicLong coalesced = new AtomicLong();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final AtomicLong callerRuns = new AtomicLong();
+
+  private final AtomicLong lastDispatchLagNanos = new AtomicLong();
+
+  private final AtomicLong maxDispatchLagNanos = new AtomicLong();
+
+  private TransferMetrics transferMetrics = new TransferMetrics();
+
+  private volatile boolean running = true;
+
+  private Thread dispatcher;
+
+  @Autowired
+  public AsyncNotificationService(EmailNotificationService delegate,
+    @Value("${notifications.async.queue-capacity:10000}") int queueCapacity,
+    @Value("${notifications.async.coalesce-window-ms:50}") long coalesceWindowMillis,
+    @Value("${notifications.async.max-batch-size:1000}") int maxBatchSize,
+    @Value("${notifications.async.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+    @Value("${notifications.async.offer-timeout-ms:100}") long offerTimeoutMillis) {
+    this.delegate = delegate;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMillis);
+    this.maxBatchSize = maxBatchSize;
+    this.overflowPolicy = overflowPolicy;
+    this.offerTimeoutMillis = offerTimeoutMillis;
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    this.transferMetrics = transferMetrics;
+  }
+
+  @PostConstruct
+  public void start() {
+    dispatcher = new Thread(this::dispatchLoop, "notification-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    dispatcher.interrupt();
+    dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+  }
+
+  @Override
+  public void notifyAboutTransfer(Account account, String transferDescription) {
+    PendingNotification notification = new PendingNotification(account, transferDescription, System.nanoTime());
+    if (queue.offer(notification)) {
+      return;
+    }
+    switch (overflowPolicy) {
+    case BLOCK:
+      try {
+        if (queue.offer(notification, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      dropped.incrementAndGet();
+      log.warn("Notification queue full, dropped notification for {}", account.getAccountId());
+      break;
+    case CALLER_RUNS:
+      callerRuns.incrementAndGet();
+      delegate.notifyAboutTransfer(account, transferDescription);
+      break;
+    default:
+      dropped.incrementAndGet();
+      log.warn("Notification queue full, dropped notification for {}", account.getAccountId());
+    }
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("notifications.queue.depth", queue.size()),
+      new Metric<>("notifications.queue.remaining", queue.remainingCapacity()),
+      new Metric<>("notifications.dispatched", dispatched.get()),
+      new Metric<>("notifications.coalesced", coalesced.get()),
+      new Metric<>("notifications.dropped", dropped.get()),
+      new Metric<>("notifications.caller-runs", callerRuns.get()),
+      new Metric<>("notifications.dispatch.lag.last.ms", TimeUnit.NANOSECONDS.toMillis(lastDispatchLagNanos.get())),
+      new Metric<>("notifications.dispatch.lag.max.ms", TimeUnit.NANOSECONDS.toMillis(maxDispatchLagNanos.get())));
+  }
+
+  private void dispatchLoop() {
+    List<PendingNotification> batch = new ArrayList<>();
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingNotification first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        // give notifications for the same account a chance to arrive before sending
+        long wait = first.enqueuedNanos + coalesceWindowNanos - System.nanoTime();
+        if (running && wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - 1);
+        dispatch(batch);
+      } catch (InterruptedException ie) {
+        // stop() interrupts to wake the thread up, the loop drains what is left
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void dispatch(List<PendingNotification> batch) {
+    Map<String, List<PendingNotification>> byAccount = new LinkedHashMap<>();
+    for (PendingNotification notification : batch) {
+      byAccount.computeIfAbsent(notification.account.getAccountId(), id -> new ArrayList<>(2)).add(notification);
+    }
+    for (List<PendingNotification> notifications : byAccount.values()) {
+      PendingNotification first = notifications.get(0);
+      String description = first.description;
+      if (notifications.size() > 1) {
+        StringBuilder joined = new StringBuilder(description);
+        for (int i = 1; i < notifications.size(); i++) {
+          joined.append('\n').append(notifications.get(i).description);
+        }
+        description = joined.toString();
+        coalesced.addAndGet(notifications.size() - 1);
+      }
+      try {
+        delegate.notifyAboutTransfer(first.account, description);
+      } catch (RuntimeException re) {
+        log.error("Failed to send notification to owner of {}", first.account.getAccountId(), re);
+      }
+      recordLag(System.nanoTime() - first.enqueuedNanos);
+      dispatched.addAndGet(notifications.size());
+    }
+  }
+
+  private void recordLag(long lagNanos) {
+    transferMetrics.recordNotificationDispatch(lagNanos);
+    lastDispatchLagNanos.set(lagNanos);
+    long max;
+    do {
+      max = maxDispatchLagNanos.get();
+    } while (lagNanos > max && !maxDispatchLagNanos.compareAndSet(max, lagNanos));
+  }
+
+  private static final class PendingNotification {
+
+    private final Account account;
+
+    private final String description;
+
+    private final long enqueuedNanos;
+
+    private PendingNotification(Account account, String description, long enqueuedNanos) {
+      this.account = account;
+      this.description = description;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.db.awmd.challenge.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.BalanceCut;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Takes a balance cut of the in memory repository every interval while transfers keep running, and checks that
+// every currency holds what was created in it, net of conversions, and that no balance is negative. /health
+// reports DOWN with the drift once a cut does not add up, an instance that lost or made money should not take
+// more transfers; the metrics keep counting. The other repositories are not audited.
+@Component
+@Slf4j
+public class BalanceAuditor implements PublicMetrics, HealthIndicator, DisposableBean {
+
+  // null when the repository cannot be audited
+  private final AccountsRepositoryInMemory repository;
+
+  private final ScheduledExecutorService auditor;
+
+  private final LongAdder audits = new LongAdder();
+
+  private final LongAdder failedAudits = new LongAdder();
+
+  private volatile BalanceCut lastCut;
+
+  @Autowired
+  public BalanceAuditor(AccountsRepository repository,
+    @Value("${accounts.audit.interval-ms:5000}") long intervalMillis) {
+    this.repository = repository instanceof AccountsRepositoryInMemory
+      ? (AccountsRepositoryInMemory) repository : null;
+    if (this.repository != null && intervalMillis > 0) {
+      auditor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "balance-auditor");
+        thread.setDaemon(true);
+        return thread;
+      });
+      auditor.scheduleWithFixedDelay(this::scheduledAudit, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      auditor = null;
+    }
+  }
+
+  // takes a cut now, null when the repository cannot be audited
+  public BalanceCut audit() {
+    if (repository == null) {
+      return null;
+    }
+    BalanceCut cut = repository.takeBalanceCut();
+    audits.increment();
+    lastCut = cut;
+    if (!cut.isConsistent()) {
+      failedAudits.increment();
+      log.error("Balances do not add up in cut {}: drift {}, {} negative balances {}", cut.getEpoch(),
+        cut.getDrift(), cut.getNegativeAccounts(), cut.getNegativeAccountIds());
+    } else {
+      log.debug("Balances of {} accounts add up in cut {}, taken in {} us", cut.getAccounts(), cut.getEpoch(),
+        cut.getTookMicros());
+    }
+    return cut;
+  }
+
+  @Override
+  public Health health() {
+    BalanceCut cut = lastCut;
+    if (repository == null) {
+      return Health.unknown().withDetail("audited", false).build();
+    }
+    if (cut == null) {
+      return Health.up().build();
+    }
+    Health.Builder health = cut.isConsistent() ? Health.up() : Health.down();
+    if (!cut.isConsistent()) {
+      health.withDetail("drift", cut.getDrift())
+        .withDetail("negativeAccounts", cut.getNegativeAccounts())
+        .withDetail("negativeAccountIds", cut.getNegativeAccountIds());
+    }
+    return health.withDetail("epoch", cut.getEpoch())
+      .withDetail("accounts", cut.getAccounts())
+      .build();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>("accounts.audit.audits", audits.sum()));
+    metrics.add(new Metric<>("accounts.audit.failed", failedAudits.sum()));
+    BalanceCut cut = lastCut;
+    if (cut != null) {
+      metrics.add(new Metric<>("accounts.audit.accounts", cut.getAccounts()));
+      metrics.add(new Metric<>("accounts.audit.negative-accounts", cut.getNegativeAccounts()));
+      metrics.add(new Metric<>("accounts.audit.duration-us", cut.getTookMicros()));
+      for (Map.Entry<String, BigDecimal> drift : cut.getDrift().entrySet()) {
+        metrics.add(new Metric<>("accounts.audit.drift." + drift.getKey(), drift.getValue()));
+      }
+    }
+    return metrics;
+  }
+
+  @Override
+  public void destroy() {
+    if (auditor != null) {
+      auditor.shutdownNow();
+    }
+  }
+
+  private void scheduledAudit() {
+    try {
+      audit();
+    } catch (RuntimeException re) {
+      log.error("Failed to audit balances", re);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.db.awmd.challenge.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Append only log of the schedule: a record when a transfer is scheduled, when a standing order moves on
+// to its next run and when a transfer is done or cancelled. Every record is framed with its length and a
+// CRC32, so a record torn by a crash ends the replay instead of being read as garbage. Loading rewrites
+// the log with one record per pending transfer, and so does compact once most records are obsolete; the
+// rewrite goes to a temporary file that is moved over the log once it is synced.
+@Slf4j
+final class ScheduleStore implements Closeable {
+
+  private static final byte SCHEDULED = 1;
+
+  private static final byte ADVANCED = 2;
+
+  private static final byte REMOVED = 3;
+
+  private final Path file;
+
+  private final boolean sync;
+
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+
+  private final DataOutputStream recordOut = new DataOutputStream(record);
+
+  private final CRC32 crc = new CRC32();
+
+  private FileOutputStream fileOut;
+
+  private DataOutputStream out;
+
+  private long records;
+
+  ScheduleStore(Path file, boolean sync) {
+    this.file = file;
+    this.sync = sync;
+  }
+
+  // the pending transfers in the order they were scheduled, and rewrites the log with just them
+  Map<String, ScheduledTransfer> load() throws IOException {
+    Map<String, ScheduledTransfer> pending = new LinkedHashMap<>();
+    if (Files.exists(file)) {
+      long read = 0;
+      try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+        DataInputStream in = new DataInputStream(raw);
+        while (true) {
+          byte[] payload = readRecord(in);
+          if (payload == null) {
+            break;
+          }
+          apply(new DataInputStream(new ByteArrayInputStream(payload)), pending);
+          read++;
+        }
+      }
+      log.info("Loaded {} scheduled transfers from {} records of {}", pending.size(), read, file);
+    }
+    rewrite(pending.values());
+    return pending;
+  }
+
+  void scheduled(ScheduledTransfer transfer) throws IOException {
+    recordOut.writeByte(SCHEDULED);
+    writeTransfer(recordOut, transfer);
+    append();
+  }
+
+  void advanced(String scheduleId, long executeAt, long remaining) throws IOException {
+    recordOut.writeByte(ADVANCED);
+    recordOut.writeUTF(scheduleId);
+    recordOut.writeLong(executeAt);
+    recordOut.writeLong(remaining);
+    append();
+  }
+
+  void removed(String scheduleId) throws IOException {
+    recordOut.writeByte(REMOVED);
+    recordOut.writeUTF(scheduleId);
+    append();
+  }
+
+  // hands the records appended so far to the operating system, and with sync waits until they are on disk
+  void commit() throws IOException {
+    out.flush();
+    if (sync) {
+      fileOut.getFD().sync();
+    }
+  }
+
+  // true once the log holds more than twice as many records as there are pending transfers
+  boolean needsCompaction(int pending) {
+    return records > 1024 && records > 2L * pending;
+  }
+
+  void rewrite(Collection<ScheduledTransfer> pending) throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    close();
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    fileOut = new FileOutputStream(temporary.toFile());
+    out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+    records = 0;
+    for (ScheduledTransfer transfer : pending) {
+      scheduled(transfer);
+    }
+    out.flush();
+    fileOut.getFD().sync();
+    out.close();
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    fileOut = new FileOutputStream(file.toFile(), true);
+    out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  private void append() throws IOException {
+    crc.reset();
+    crc.update(record.toByteArray(), 0, record.size());
+    out.writeInt(record.size());
+    out.writeInt((int) crc.getValue());
+    record.writeTo(out);
+    record.reset();
+    records++;
+  }
+
+  // null at the end of the log or at a record that was not completely written
+  private byte[] readRecord(DataInputStream in) throws IOException {
+    try {
+      int length = in.readInt();
+      int checksum = in.readInt();
+      if (length <= 0 || length > 1 << 20) {
+        log.warn("Ignoring the rest of {} after a record of length {}", file, length);
+        return null;
+      }
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      crc.reset();
+      crc.update(payload, 0, length);
+      if ((int) crc.getValue() != checksum) {
+        log.warn("Ignoring the rest of {} after a record with a bad checksum", file);
+        return null;
+      }
+      return payload;
+    } catch (EOFException eofe) {
+      return null;
+    }
+  }
+
+  private static void apply(DataInputStream in, Map<String, ScheduledTransfer> pending) throws IOException {
+    byte type = in.readByte();
+    if (type == SCHEDULED) {
+      ScheduledTransfer transfer = readTransfer(in);
+      pending.put(transfer.getScheduleId(), transfer);
+    } else if (type == ADVANCED) {
+      ScheduledTransfer transfer = pending.get(in.readUTF());
+      long executeAt = in.readLong();
+      long remaining = in.readLong();
+      if (transfer != null) {
+        transfer.setExecuteAt(executeAt);
+        transfer.setRemaining(remaining);
+      }
+    } else if (type == REMOVED) {
+      pending.remove(in.readUTF());
+    } else {
+      throw new IOException("Unknown schedule record type " + type);
+    }
+  }
+
+  private static void writeTransfer(DataOutputStream out, ScheduledTransfer transfer) throws IOException {
+    byte[] unscaled = transfer.getBalance().unscaledValue().toByteArray();
+    out.writeUTF(transfer.getScheduleId());
+    out.writeUTF(transfer.getAccountIdFrom());
+    out.writeUTF(transfer.getAccountIdTo());
+    out.writeInt(transfer.getBalance().scale());
+    out.writeByte(unscaled.length);
+    out.write(unscaled);
+    out.writeUTF(transfer.getCurrency() != null ? transfer.getCurrency() : "");
+    out.writeLong(transfer.getExecuteAt());
+    out.writeLong(transfer.getIntervalMs());
+    out.writeLong(transfer.getRemaining());
+  }
+
+  private static ScheduledTransfer readTransfer(DataInputStream in) throws IOException {
+    ScheduledTransfer transfer = new ScheduledTransfer();
+    transfer.setScheduleId(in.readUTF());
+    transfer.setAccountIdFrom(in.readUTF());
+    transfer.setAccountIdTo(in.readUTF());
+    int scale = in.readInt();
+    byte[] unscaled = new byte[in.readUnsignedByte()];
+    in.readFully(unscaled);
+    transfer.setBalance(new BigDecimal(new BigInteger(unscaled), scale));
+    String currency = in.readUTF();
+    transfer.setCurrency(currency.isEmpty() ? null : currency);
+    transfer.setExecuteAt(in.readLong());
+    transfer.setIntervalMs(in.readLong());
+    transfer.setRemaining(in.readLong());
+    return transfer;
+  }
+}
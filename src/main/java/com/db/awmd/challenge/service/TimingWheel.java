@@ -0,0 +1,173 @@
+package com.db.awmd.challenge.service;
+
+import java.util.function.Consumer;
+
+// Hierarchical timing wheel over absolute tick numbers. Four levels of 256 slots cover 2^32 ticks ahead:
+// a timer sits on the level of the highest byte in which its deadline differs from the current tick, in
+// the slot of that byte of its deadline, and when the wheel rolls over into that slot the timer is moved
+// down to a finer level. Timers further out wait in an overflow list that is sorted again every 2^32 ticks.
+//
+// Timers are nodes of intrusive doubly linked lists, so scheduling and cancelling are constant time and a
+// tick only touches the slots that come due, however many timers are pending. Not thread safe.
+final class TimingWheel<T> {
+
+  static final class Timer<T> {
+
+    private final T value;
+
+    private final long deadline;
+
+    private Timer<T> previous;
+
+    private Timer<T> next;
+
+    // index into the buckets, -1 once the timer expired or was cancelled
+    private int bucket = -1;
+
+    private Timer(T value, long deadline) {
+      this.value = value;
+      this.deadline = deadline;
+    }
+
+    T getValue() {
+      return value;
+    }
+
+    long getDeadline() {
+      return deadline;
+    }
+  }
+
+  private static final int LEVELS = 4;
+
+  private static final int SLOT_BITS = 8;
+
+  private static final int SLOTS = 1 << SLOT_BITS;
+
+  private static final int MASK = SLOTS - 1;
+
+  private static final int OVERFLOW = LEVELS * SLOTS;
+
+  // timers whose deadline had already passed when they were scheduled
+  private static final int DUE = OVERFLOW + 1;
+
+  private final Timer<T>[] buckets;
+
+  private long tick;
+
+  private int size;
+
+  @SuppressWarnings("unchecked")
+  TimingWheel(long startTick) {
+    this.tick = startTick;
+    this.buckets = new Timer[DUE + 1];
+  }
+
+  long getTick() {
+    return tick;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // a deadline at or before the current tick expires on the next advance
+  Timer<T> schedule(long deadline, T value) {
+    Timer<T> timer = new Timer<>(value, deadline);
+    place(timer);
+    size++;
+    return timer;
+  }
+
+  // false when the timer already expired or was cancelled before
+  boolean cancel(Timer<T> timer) {
+    if (timer.bucket < 0) {
+      return false;
+    }
+    unlink(timer);
+    size--;
+    return true;
+  }
+
+  // moves the wheel forward to the given tick, handing every timer with a deadline up to it to expired
+  void advance(long to, Consumer<T> expired) {
+    expire(DUE, expired);
+    while (tick < to) {
+      if (size == 0) {
+        tick = to;
+        return;
+      }
+      tick++;
+      // levels rolling over are cascaded from the coarsest one down, so a timer can drop several levels
+      int level = 1;
+      while (level <= LEVELS && (tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        level++;
+      }
+      for (int l = level - 1; l >= 1; l--) {
+        cascade(l == LEVELS ? OVERFLOW : l * SLOTS + (int) ((tick >>> (SLOT_BITS * l)) & MASK));
+      }
+      expire((int) (tick & MASK), expired);
+      expire(DUE, expired);
+    }
+  }
+
+  private void place(Timer<T> timer) {
+    long differs = timer.deadline ^ tick;
+    int bucket;
+    if (timer.deadline <= tick) {
+      bucket = DUE;
+    } else if ((differs >>> (SLOT_BITS * LEVELS)) != 0) {
+      bucket = OVERFLOW;
+    } else {
+      int level = (63 - Long.numberOfLeadingZeros(differs)) / SLOT_BITS;
+      bucket = level * SLOTS + (int) ((timer.deadline >>> (SLOT_BITS * level)) & MASK);
+    }
+    Timer<T> head = buckets[bucket];
+    timer.bucket = bucket;
+    timer.previous = null;
+    timer.next = head;
+    if (head != null) {
+      head.previous = timer;
+    }
+    buckets[bucket] = timer;
+  }
+
+  private void unlink(Timer<T> timer) {
+    if (timer.previous != null) {
+      timer.previous.next = timer.next;
+    } else {
+      buckets[timer.bucket] = timer.next;
+    }
+    if (timer.next != null) {
+      timer.next.previous = timer.previous;
+    }
+    timer.previous = null;
+    timer.next = null;
+    timer.bucket = -1;
+  }
+
+  private void cascade(int bucket) {
+    Timer<T> timer = buckets[bucket];
+    buckets[bucket] = null;
+    while (timer != null) {
+      Timer<T> next = timer.next;
+      place(timer);
+      timer = next;
+    }
+  }
+
+  // the list is detached first, so expired may schedule new timers into the same bucket
+  private void expire(int bucket, Consumer<T> expired) {
+    Timer<T> timer = buckets[bucket];
+    buckets[bucket] = null;
+    while (timer != null) {
+      Timer<T> next = timer.next;
+      timer.previous = null;
+      timer.next = null;
+      timer.bucket = -1;
+      size--;
+      expired.accept(timer.value);
+      timer = next;
+    }
+  }
+}
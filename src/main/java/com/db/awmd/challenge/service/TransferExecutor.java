@@ -0,0 +1,106 @@
+package com.db.awmd.challenge.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.exception.ServiceOverloadedException;
+
+// Bounded pool the async endpoints hand their work to, so servlet threads are released while a transfer
+// waits for locks, the journal or a shard. When the queue is full work is refused straight away with a
+// ServiceOverloadedException instead of piling up, and work that waited in the queue longer than the
+// timeout is dropped unrun with a TimeoutException, its caller has already been told to retry.
+@Component
+public class TransferExecutor implements PublicMetrics {
+
+  private final ThreadPoolExecutor executor;
+
+  private final long timeoutMillis;
+
+  private final LongAdder completed = new LongAdder();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private final LongAdder expired = new LongAdder();
+
+  @Autowired
+  public TransferExecutor(@Value("${transfers.async.threads:0}") int threads,
+    @Value("${transfers.async.queue-capacity:1000}") int queueCapacity,
+    @Value("${transfers.async.timeout-ms:5000}") long timeoutMillis) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(queueCapacity), r -> {
+        Thread thread = new Thread(r, "transfer-executor-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  // a caller that gives up can cancel the returned future, the task is then skipped if it has not started
+  public <T> CompletableFuture<T> submit(Supplier<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      executor.execute(() -> {
+        if (future.isDone()) {
+          expired.increment();
+          return;
+        }
+        if (System.nanoTime() - deadline > 0) {
+          expired.increment();
+          future.completeExceptionally(new TimeoutException("Request waited longer than " + timeoutMillis + " ms"));
+          return;
+        }
+        try {
+          future.complete(task.get());
+        } catch (RuntimeException re) {
+          future.completeExceptionally(re);
+        }
+        completed.increment();
+      });
+    } catch (RejectedExecutionException ree) {
+      rejected.increment();
+      future.completeExceptionally(new ServiceOverloadedException("Too many requests in progress, retry later"));
+    }
+    return future;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("transfers.async.active", executor.getActiveCount()),
+      new Metric<>("transfers.async.queue.depth", executor.getQueue().size()),
+      new Metric<>("transfers.async.queue.remaining", executor.getQueue().remainingCapacity()),
+      new Metric<>("transfers.async.completed", completed.sum()),
+      new Metric<>("transfers.async.rejected", rejected.sum()),
+      new Metric<>("transfers.async.expired", expired.sum()));
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+}
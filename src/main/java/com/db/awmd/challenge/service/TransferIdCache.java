@@ -0,0 +1,232 @@
+package com.db.awmd.challenge.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.TransferResult;
+
+// Remembers the outcome of recently seen client transfer ids so a retried request is answered with the
+// original outcome instead of moving money again.
+//
+// Ids are not stored, only a 128 bit fingerprint of them, in open addressing tables made of primitive
+// arrays, so millions of entries cost a few flat arrays and no objects at all. The cache is split into
+// segments with a lock each, and every segment keeps two generations: lookups check both, inserts go to
+// the current one, and once it is full or older than half the time to live the older generation is wiped
+// and reused. An id is therefore remembered for at least half and at most the whole time to live, unless
+// the size bound pushes it out earlier.
+@Component
+public class TransferIdCache implements PublicMetrics {
+
+  // what begin returns when the id is new and the caller now owns the transfer
+  public static final int NEW = -1;
+
+  // returned by begin while another request with the same id is still being processed
+  public static final int IN_PROGRESS = -2;
+
+  private static final byte STATE_IN_PROGRESS = -1;
+
+  private static final byte STATE_ABANDONED = -2;
+
+  private final Segment[] segments;
+
+  private final long halfTtlNanos;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder inProgress = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  @Autowired
+  public TransferIdCache(@Value("${transfers.dedup.max-entries:1000000}") int maxEntries,
+    @Value("${transfers.dedup.ttl-minutes:60}") long ttlMinutes,
+    @Value("${transfers.dedup.segments:64}") int segmentCount) {
+    this.halfTtlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes) / 2;
+    this.segments = new Segment[Integer.highestOneBit(Math.max(1, segmentCount - 1)) << 1];
+    // each generation holds half of the entries
+    int perGeneration = Math.max(16, maxEntries / 2 / segments.length);
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(perGeneration);
+    }
+  }
+
+  // NEW when the caller should run the transfer and then call complete or abandon, IN_PROGRESS when a
+  // request with the same id is running right now, otherwise the ordinal of the recorded TransferResult
+  public int begin(String transferId) {
+    long high = hashHigh(transferId);
+    long low = hashLow(transferId);
+    int state = segmentOf(high).begin(high, low, System.nanoTime());
+    if (state == NEW) {
+      misses.increment();
+    } else if (state == IN_PROGRESS) {
+      inProgress.increment();
+    } else {
+      hits.increment();
+    }
+    return state;
+  }
+
+  public void complete(String transferId, TransferResult result) {
+    long high = hashHigh(transferId);
+    segmentOf(high).update(high, hashLow(transferId), (byte) result.ordinal());
+  }
+
+  // releases an id whose transfer failed unexpectedly or was refused before it ran, so a retry runs it again
+  public void abandon(String transferId) {
+    long high = hashHigh(transferId);
+    segmentOf(high).update(high, hashLow(transferId), STATE_ABANDONED);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("transfers.dedup.hits", hits.sum()),
+      new Metric<>("transfers.dedup.misses", misses.sum()),
+      new Metric<>("transfers.dedup.in-progress", inProgress.sum()),
+      new Metric<>("transfers.dedup.evictions", evictions.sum()));
+  }
+
+  private Segment segmentOf(long high) {
+    return segments[(int) (high >>> 32) & (segments.length - 1)];
+  }
+
+  // two independent 64 bit hashes of the id, FNV-1a and a murmur style mix, zero is kept free for empty
+  static long hashHigh(String id) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      hash ^= id.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  static long hashLow(String id) {
+    long hash = 0x9e3779b97f4a7c15L ^ id.length();
+    for (int i = 0; i < id.length(); i++) {
+      hash = (hash ^ id.charAt(i)) * 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 29;
+    }
+    hash *= 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 32);
+  }
+
+  private final class Segment {
+
+    private Generation current;
+
+    private Generation previous;
+
+    private Segment(int capacity) {
+      current = new Generation(capacity);
+      previous = new Generation(capacity);
+    }
+
+    synchronized int begin(long high, long low, long now) {
+      int slot = previous.find(high, low);
+      if (slot >= 0 && previous.states[slot] != STATE_ABANDONED) {
+        return stateOf(previous.states[slot]);
+      }
+      slot = current.find(high, low);
+      if (slot >= 0) {
+        if (current.states[slot] != STATE_ABANDONED) {
+          return stateOf(current.states[slot]);
+        }
+        current.states[slot] = STATE_IN_PROGRESS;
+        return NEW;
+      }
+      if (current.size >= current.maxSize || now - current.started > halfTtlNanos) {
+        rotate(now);
+      }
+      current.insert(high, low, STATE_IN_PROGRESS);
+      return NEW;
+    }
+
+    synchronized void update(long high, long low, byte state) {
+      int slot = current.find(high, low);
+      if (slot >= 0) {
+        current.states[slot] = state;
+        return;
+      }
+      slot = previous.find(high, low);
+      if (slot >= 0) {
+        previous.states[slot] = state;
+      }
+    }
+
+    private void rotate(long now) {
+      evictions.add(previous.size);
+      Generation recycled = previous;
+      recycled.clear(now);
+      previous = current;
+      current = recycled;
+    }
+
+    private int stateOf(byte state) {
+      return state == STATE_IN_PROGRESS ? IN_PROGRESS : state;
+    }
+  }
+
+  private static final class Generation {
+
+    // [high, low] pairs, a zero high word marks an empty slot
+    private final long[] keys;
+
+    private final byte[] states;
+
+    private final int mask;
+
+    private final int maxSize;
+
+    private int size;
+
+    private long started = System.nanoTime();
+
+    private Generation(int maxSize) {
+      // kept at most half full so probe sequences stay short
+      int capacity = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+      this.keys = new long[capacity * 2];
+      this.states = new byte[capacity];
+      this.mask = capacity - 1;
+      this.maxSize = maxSize;
+    }
+
+    int find(long high, long low) {
+      for (int slot = (int) high & mask; ; slot = (slot + 1) & mask) {
+        long key = keys[slot * 2];
+        if (key == 0) {
+          return -1;
+        }
+        if (key == high && keys[slot * 2 + 1] == low) {
+          return slot;
+        }
+      }
+    }
+
+    void insert(long high, long low, byte state) {
+      int slot = (int) high & mask;
+      while (keys[slot * 2] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot * 2] = high;
+      keys[slot * 2 + 1] = low;
+      states[slot] = state;
+      size++;
+    }
+
+    void clear(long now) {
+      Arrays.fill(keys, 0);
+      size = 0;
+      started = now;
+    }
+  }
+}
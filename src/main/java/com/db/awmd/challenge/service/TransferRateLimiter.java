@@ -0,0 +1,146 @@
+package com.db.awmd.challenge.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+// Token buckets limiting how many transfers are accepted per second, one for all transfers and one per
+// source account, so a client flooding a single account is refused before it slows down everyone else.
+//
+// A bucket is a single AtomicLong holding the time at which it will be full again; taking a token moves
+// that time one interval further with a compare and set, which is refused once it would lie more than a
+// whole burst ahead of now. Nothing is locked and an accepted request allocates nothing unless its account
+// has no bucket yet. Account buckets live in two generations like the read cache: new accounts go to the
+// current one, hits in the older one are moved up, and once the current one holds half the maximum the
+// older one is dropped. An evicted account has not sent anything for a while and starts with a full bucket.
+@Component
+public class TransferRateLimiter implements PublicMetrics {
+
+  // 0 per second disables a limit
+  private final long globalIntervalNanos;
+
+  private final long globalBurstNanos;
+
+  private final long accountIntervalNanos;
+
+  private final long accountBurstNanos;
+
+  private final int maxAccounts;
+
+  private final AtomicLong global = new AtomicLong(System.nanoTime());
+
+  private volatile Map<String, AtomicLong> current = new ConcurrentHashMap<>();
+
+  private volatile Map<String, AtomicLong> previous = new ConcurrentHashMap<>();
+
+  private final LongAdder globalRejections = new LongAdder();
+
+  private final LongAdder accountRejections = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  @Autowired
+  public TransferRateLimiter(@Value("${transfers.rate-limit.global-per-second:0}") long globalPerSecond,
+    @Value("${transfers.rate-limit.global-burst:0}") long globalBurst,
+    @Value("${transfers.rate-limit.account-per-second:0}") long accountPerSecond,
+    @Value("${transfers.rate-limit.account-burst:0}") long accountBurst,
+    @Value("${transfers.rate-limit.max-accounts:100000}") int maxAccounts) {
+    this.globalIntervalNanos = intervalNanos(globalPerSecond);
+    this.globalBurstNanos = burstNanos(globalIntervalNanos, globalBurst, globalPerSecond);
+    this.accountIntervalNanos = intervalNanos(accountPerSecond);
+    this.accountBurstNanos = burstNanos(accountIntervalNanos, accountBurst, accountPerSecond);
+    this.maxAccounts = Math.max(2, maxAccounts);
+  }
+
+  // false when the transfer is over the limit of its source account or over the global one; the account
+  // is checked first so its own flood does not use up tokens of the global bucket
+  public boolean tryAcquire(String accountIdFrom) {
+    if (!isEnabled()) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (accountIntervalNanos > 0 && accountIdFrom != null
+      && !tryTake(bucketOf(accountIdFrom, now), now, accountIntervalNanos, accountBurstNanos)) {
+      accountRejections.increment();
+      return false;
+    }
+    if (globalIntervalNanos > 0 && !tryTake(global, now, globalIntervalNanos, globalBurstNanos)) {
+      globalRejections.increment();
+      return false;
+    }
+    return true;
+  }
+
+  public boolean isEnabled() {
+    return globalIntervalNanos > 0 || accountIntervalNanos > 0;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("transfers.rate-limit.rejected.global", globalRejections.sum()),
+      new Metric<>("transfers.rate-limit.rejected.account", accountRejections.sum()),
+      new Metric<>("transfers.rate-limit.accounts", current.size() + previous.size()),
+      new Metric<>("transfers.rate-limit.evictions", evictions.sum()));
+  }
+
+  private AtomicLong bucketOf(String accountId, long now) {
+    Map<String, AtomicLong> buckets = current;
+    AtomicLong bucket = buckets.get(accountId);
+    if (bucket != null) {
+      return bucket;
+    }
+    bucket = previous.get(accountId);
+    if (bucket == null) {
+      bucket = new AtomicLong(now);
+    }
+    AtomicLong raced = buckets.putIfAbsent(accountId, bucket);
+    if (raced != null) {
+      return raced;
+    }
+    if (buckets.size() >= maxAccounts / 2) {
+      rotate(buckets);
+    }
+    return bucket;
+  }
+
+  private synchronized void rotate(Map<String, AtomicLong> full) {
+    if (current == full) {
+      evictions.add(previous.size());
+      previous = full;
+      current = new ConcurrentHashMap<>();
+    }
+  }
+
+  private static boolean tryTake(AtomicLong fullAt, long now, long intervalNanos, long burstNanos) {
+    while (true) {
+      long previousFullAt = fullAt.get();
+      long nextFullAt = (previousFullAt - now > 0 ? previousFullAt : now) + intervalNanos;
+      if (nextFullAt - now > burstNanos) {
+        return false;
+      }
+      if (fullAt.compareAndSet(previousFullAt, nextFullAt)) {
+        return true;
+      }
+    }
+  }
+
+  private static long intervalNanos(long perSecond) {
+    return perSecond > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+  }
+
+  // a burst of 0 allows one second worth of transfers at once
+  private static long burstNanos(long intervalNanos, long burst, long perSecond) {
+    return intervalNanos * (burst > 0 ? burst : Math.max(1, perSecond));
+  }
+}
@@ -0,0 +1,346 @@
+package com.db.awmd.challenge.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Future dated transfers and standing orders. Pending transfers wait in a hierarchical timing wheel, so
+// millions of them cost a node each and a tick only looks at the ones coming due; a single thread advances
+// the wheel every tick and runs what came due through the batch transfer path, batch size at a time, each
+// run with the transfer id scheduleId@executeAt so a retried batch does not pay twice.
+//
+// Every change to the schedule goes to a ScheduleStore and is synced before it takes effect, and the next
+// run of a standing order is recorded before the current one is applied. After a crash a run is therefore
+// lost rather than paid twice. Runs of a standing order missed while the service was down are made up one
+// per tick, but only up to max-missed-runs of them; the older ones are skipped and count towards its runs.
+@Component
+@Slf4j
+public class TransferScheduler implements PublicMetrics, DisposableBean {
+
+  private final AccountsService accountsService;
+
+  private final long tickMillis;
+
+  private final int batchSize;
+
+  private final int maxMissedRuns;
+
+  // null keeps the schedule in memory only
+  private final ScheduleStore store;
+
+  // guards the wheel, the store and the transfers of the entries
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final TimingWheel<Entry> wheel;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService ticker;
+
+  private final LongAdder runs = new LongAdder();
+
+  private final LongAdder failedRuns = new LongAdder();
+
+  private final LongAdder cancelled = new LongAdder();
+
+  private final LongAdder skippedRuns = new LongAdder();
+
+  // how late the latest batch ran after the time its earliest transfer was due
+  private volatile long lagMillis;
+
+  private static final class Entry {
+
+    private final ScheduledTransfer transfer;
+
+    private TimingWheel.Timer<Entry> timer;
+
+    private volatile TransferResult lastResult;
+
+    private Entry(ScheduledTransfer transfer) {
+      this.transfer = transfer;
+    }
+  }
+
+  @Autowired
+  public TransferScheduler(AccountsService accountsService,
+    @Value("${transfers.schedule.path:data/schedule.log}") String path,
+    @Value("${transfers.schedule.sync:true}") boolean sync,
+    @Value("${transfers.schedule.tick-ms:100}") long tickMillis,
+    @Value("${transfers.schedule.batch-size:1000}") int batchSize,
+    @Value("${transfers.schedule.max-missed-runs:0}") int maxMissedRuns) throws IOException {
+    this.accountsService = accountsService;
+    this.tickMillis = Math.max(1, tickMillis);
+    this.batchSize = Math.max(1, batchSize);
+    this.maxMissedRuns = Math.max(0, maxMissedRuns);
+    this.wheel = new TimingWheel<>(System.currentTimeMillis() / this.tickMillis);
+    this.store = path.isEmpty() ? null : new ScheduleStore(Paths.get(path), sync);
+    if (store != null) {
+      for (ScheduledTransfer transfer : store.load().values()) {
+        Entry entry = new Entry(transfer);
+        entries.put(transfer.getScheduleId(), entry);
+        entry.timer = wheel.schedule(tickOf(transfer.getExecuteAt()), entry);
+      }
+    }
+    this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "transfer-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ticker.scheduleWithFixedDelay(this::runDue, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // returns the transfer as it was scheduled, with its new schedule id, or null when its source account is over
+  // the transfer rate limit; the runs are not held to the limit again
+  public ScheduledTransfer schedule(ScheduledTransfer request) {
+    if (!accountsService.acquireScheduled(request.getAccountIdFrom())) {
+      return null;
+    }
+    ScheduledTransfer transfer = copyOf(request);
+    transfer.setScheduleId(UUID.randomUUID().toString());
+    transfer.setLastResult(null);
+    if (transfer.getIntervalMs() == 0) {
+      transfer.setRemaining(0);
+    }
+    Entry entry = new Entry(transfer);
+    lock.lock();
+    try {
+      if (store != null) {
+        store.scheduled(transfer);
+        store.commit();
+      }
+      entries.put(transfer.getScheduleId(), entry);
+      entry.timer = wheel.schedule(tickOf(transfer.getExecuteAt()), entry);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    } finally {
+      lock.unlock();
+    }
+    return copyOf(transfer);
+  }
+
+  // null once the transfer ran for the last time or was cancelled
+  public ScheduledTransfer get(String scheduleId) {
+    Entry entry = entries.get(scheduleId);
+    if (entry == null) {
+      return null;
+    }
+    lock.lock();
+    try {
+      ScheduledTransfer transfer = copyOf(entry.transfer);
+      transfer.setLastResult(entry.lastResult);
+      return transfer;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // false when there is no such pending transfer
+  public boolean cancel(String scheduleId) {
+    lock.lock();
+    try {
+      Entry entry = entries.remove(scheduleId);
+      if (entry == null) {
+        return false;
+      }
+      wheel.cancel(entry.timer);
+      if (store != null) {
+        store.removed(scheduleId);
+        store.commit();
+      }
+      cancelled.increment();
+      return true;
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("transfers.scheduled.pending", entries.size()),
+      new Metric<>("transfers.scheduled.runs", runs.sum()),
+      new Metric<>("transfers.scheduled.failed-runs", failedRuns.sum()),
+      new Metric<>("transfers.scheduled.cancelled", cancelled.sum()),
+      new Metric<>("transfers.scheduled.skipped-runs", skippedRuns.sum()),
+      new Metric<>("transfers.scheduled.lag-ms", lagMillis));
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    ticker.shutdown();
+    ticker.awaitTermination(5, TimeUnit.SECONDS);
+    lock.lock();
+    try {
+      if (store != null) {
+        store.close();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void runDue() {
+    try {
+      long now = System.currentTimeMillis();
+      List<Entry> due = new ArrayList<>();
+      lock.lock();
+      try {
+        wheel.advance(now / tickMillis, due::add);
+      } finally {
+        lock.unlock();
+      }
+      for (int from = 0; from < due.size(); from += batchSize) {
+        run(due.subList(from, Math.min(due.size(), from + batchSize)), now);
+      }
+    } catch (RuntimeException re) {
+      // an exception would stop the ticker for good
+      log.error("Failed to run scheduled transfers", re);
+    }
+  }
+
+  private void run(List<Entry> due, long now) {
+    List<Entry> running = new ArrayList<>(due.size());
+    List<TransferAmount> transfers = new ArrayList<>(due.size());
+    long earliest = now;
+    lock.lock();
+    try {
+      for (Entry entry : due) {
+        ScheduledTransfer transfer = entry.transfer;
+        // cancelled after it came due
+        if (entries.get(transfer.getScheduleId()) != entry) {
+          continue;
+        }
+        transfers.add(transferAmount(transfer));
+        running.add(entry);
+        earliest = Math.min(earliest, transfer.getExecuteAt());
+        advance(entry, now);
+      }
+      if (store != null) {
+        store.commit();
+        if (store.needsCompaction(entries.size())) {
+          List<ScheduledTransfer> pending = new ArrayList<>(entries.size());
+          for (Entry entry : entries.values()) {
+            pending.add(entry.transfer);
+          }
+          store.rewrite(pending);
+        }
+      }
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    } finally {
+      lock.unlock();
+    }
+    if (transfers.isEmpty()) {
+      return;
+    }
+    lagMillis = now - earliest;
+    TransferResult[] results = accountsService.transferScheduled(transfers);
+    for (int i = 0; i < results.length; i++) {
+      running.get(i).lastResult = results[i];
+      runs.increment();
+      if (results[i] != TransferResult.SUCCESS) {
+        failedRuns.increment();
+      }
+    }
+  }
+
+  // moves a standing order on to its next run, skipping the runs already due beyond max-missed-runs, or forgets
+  // a transfer that has run for the last time
+  private void advance(Entry entry, long now) throws IOException {
+    ScheduledTransfer transfer = entry.transfer;
+    long interval = transfer.getIntervalMs();
+    if (interval == 0 || transfer.getRemaining() == 1) {
+      remove(transfer);
+      return;
+    }
+    long next = transfer.getExecuteAt() + interval;
+    long remaining = transfer.getRemaining() > 0 ? transfer.getRemaining() - 1 : 0;
+    long missed = next <= now ? (now - next) / interval + 1 : 0;
+    if (missed > maxMissedRuns) {
+      long skipped = missed - maxMissedRuns;
+      if (remaining > 0 && skipped >= remaining) {
+        skippedRuns.add(remaining);
+        remove(transfer);
+        return;
+      }
+      skippedRuns.add(skipped);
+      next += skipped * interval;
+      if (remaining > 0) {
+        remaining -= skipped;
+      }
+    }
+    transfer.setExecuteAt(next);
+    transfer.setRemaining(remaining);
+    if (store != null) {
+      store.advanced(transfer.getScheduleId(), transfer.getExecuteAt(), transfer.getRemaining());
+    }
+    entry.timer = wheel.schedule(tickOf(transfer.getExecuteAt()), entry);
+  }
+
+  private void remove(ScheduledTransfer transfer) throws IOException {
+    entries.remove(transfer.getScheduleId());
+    if (store != null) {
+      store.removed(transfer.getScheduleId());
+    }
+  }
+
+  // the first tick at or after the given time
+  private long tickOf(long millis) {
+    return Math.floorDiv(millis - 1, tickMillis) + 1;
+  }
+
+  private static TransferAmount transferAmount(ScheduledTransfer transfer) {
+    TransferAmount amount = new TransferAmount();
+    amount.setTransferId(transfer.getScheduleId() + "@" + transfer.getExecuteAt());
+    amount.setAccountIdFrom(transfer.getAccountIdFrom());
+    amount.setAccountIdTo(transfer.getAccountIdTo());
+    amount.setBalance(transfer.getBalance());
+    amount.setCurrency(transfer.getCurrency());
+    return amount;
+  }
+
+  private static ScheduledTransfer copyOf(ScheduledTransfer transfer) {
+    ScheduledTransfer copy = new ScheduledTransfer();
+    copy.setScheduleId(transfer.getScheduleId());
+    copy.setAccountIdFrom(transfer.getAccountIdFrom());
+    copy.setAccountIdTo(transfer.getAccountIdTo());
+    copy.setBalance(transfer.getBalance());
+    copy.setCurrency(transfer.getCurrency());
+    copy.setExecuteAt(transfer.getExecuteAt());
+    copy.setIntervalMs(transfer.getIntervalMs());
+    copy.setRemaining(transfer.getRemaining());
+    copy.setLastResult(transfer.getLastResult());
+    return copy;
+  }
+}
@@ -0,0 +1,107 @@
+package com.db.awmd.challenge.service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Runs transfers through the request path once at startup, so the JIT has compiled it before the first
+// client does: parsing and validating the request, the service and the in-memory repository, and writing
+// the balance snapshot. Everything runs against a scratch repository and service of its own, no real
+// account or metric is touched. /health reports OUT_OF_SERVICE until the warm-up is done, which is what
+// tells a load balancer the instance is ready.
+@Component
+@Slf4j
+public class TransferWarmup implements ApplicationRunner, HealthIndicator {
+
+  private static final int ACCOUNTS = 64;
+
+  private static final int BATCH_SIZE = 16;
+
+  private final ObjectMapper objectMapper;
+
+  private final Validator validator;
+
+  // 0 skips the warm-up
+  private final int transfers;
+
+  private final int fixedPointScale;
+
+  private volatile boolean done;
+
+  @Autowired
+  public TransferWarmup(ObjectMapper objectMapper, Validator validator,
+    @Value("${startup.warmup.transfers:0}") int transfers,
+    @Value("${accounts.balance.fixed-point-scale:-1}") int fixedPointScale) {
+    this.objectMapper = objectMapper;
+    this.validator = validator;
+    this.transfers = transfers;
+    this.fixedPointScale = fixedPointScale;
+    this.done = transfers <= 0;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) throws IOException {
+    if (done) {
+      return;
+    }
+    long started = System.nanoTime();
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(fixedPointScale);
+    AccountReadCache readCache = new AccountReadCache(objectMapper, ACCOUNTS);
+    repository.setBalanceListener(readCache);
+    AccountsService service = new AccountsService(repository, (account, description) -> {
+    });
+    service.setAccountReadCache(readCache);
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("warmup-" + i, new BigDecimal(1_000_000)));
+    }
+    Random random = new Random(42);
+    List<TransferAmount> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < transfers; i++) {
+      byte[] body = ("{\"accountIdFrom\":\"warmup-" + random.nextInt(ACCOUNTS) + "\",\"accountIdTo\":\"warmup-"
+        + random.nextInt(ACCOUNTS) + "\",\"balance\":" + (1 + random.nextInt(100)) + "}")
+        .getBytes(StandardCharsets.UTF_8);
+      TransferAmount transfer = objectMapper.readValue(body, TransferAmount.class);
+      if (!validator.validate(transfer).isEmpty()) {
+        continue;
+      }
+      batch.add(transfer);
+      if (batch.size() == BATCH_SIZE) {
+        service.transferBatch(batch, false);
+        batch.clear();
+      } else {
+        service.transferAmount(null, transfer.getAccountIdFrom(), transfer.getAccountIdTo(), transfer.getBalance());
+        service.getBalanceSnapshot(transfer.getAccountIdTo());
+      }
+    }
+    done = true;
+    log.info("Warmed up the transfer path with {} transfers in {} ms", transfers,
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+  }
+
+  @Override
+  public Health health() {
+    return done ? Health.up().build() : Health.outOfService().withDetail("transfers", transfers).build();
+  }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.db.awmd.challenge.domain.ImportReport;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsBulkService.Format;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Bulk onboarding, POST imports the uploaded accounts and GET streams all accounts back in the same format
+@RestController
+@RequestMapping("/v1/bulk/accounts")
+@Slf4j
+public class AccountsBulkController {
+
+  static final String NDJSON_VALUE = "application/x-ndjson";
+
+  static final String CSV_VALUE = "text/csv";
+
+  private final AccountsBulkService accountsBulkService;
+
+  @Autowired
+  public AccountsBulkController(AccountsBulkService accountsBulkService) {
+    this.accountsBulkService = accountsBulkService;
+  }
+
+  @PostMapping(consumes = NDJSON_VALUE)
+  public ResponseEntity<ImportReport> importNdjson(InputStream body) throws IOException {
+    return importAccounts(body, Format.NDJSON);
+  }
+
+  @PostMapping(consumes = CSV_VALUE)
+  public ResponseEntity<ImportReport> importCsv(InputStream body) throws IOException {
+    return importAccounts(body, Format.CSV);
+  }
+
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> exportAccounts(
+    @RequestParam(name = "format", defaultValue = "ndjson") String format) {
+    Format exportFormat = "csv".equalsIgnoreCase(format) ? Format.CSV : Format.NDJSON;
+    log.info("Exporting accounts as {}", exportFormat);
+    return ResponseEntity.ok()
+      .contentType(MediaType.parseMediaType(exportFormat == Format.CSV ? CSV_VALUE : NDJSON_VALUE))
+      .body((StreamingResponseBody) out -> accountsBulkService.exportAccounts(out, exportFormat));
+  }
+
+  private ResponseEntity<ImportReport> importAccounts(InputStream body, Format format) throws IOException {
+    long started = System.nanoTime();
+    ImportReport report = accountsBulkService.importAccounts(body, format);
+    log.info("Imported {} accounts from {} in {} ms, {} duplicates, {} rejected", report.getImported(), format,
+      (System.nanoTime() - started) / 1_000_000, report.getDuplicates(), report.getRejected());
+    return new ResponseEntity<>(report, report.isComplete() ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+  }
+}
@@ -1,8 +1,18 @@
 package com.db.awmd.challenge.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.validation.Valid;
+import javax.validation.Validator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -12,15 +22,25 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountStatement;
 import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.InvalidAccountException;
 import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.service.AccountReadCache;
 import com.db.awmd.challenge.service.AccountsService;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import lombok.extern.slf4j.Slf4j;
 
 @RestController
@@ -28,11 +48,25 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class AccountsController {
 
+  private static final int MAX_STATEMENT_PAGE = 1000;
+
+  private static final Map<TransferResult, ResponseEntity<Object>> TRANSFER_RESPONSES = transferResponses();
+
   private final AccountsService accountsService;
 
+  private final ObjectMapper objectMapper;
+
+  private final Validator validator;
+
+  private final int maxBatchSize;
+
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, ObjectMapper objectMapper, Validator validator,
+    @Value("${transfers.batch.max-size:10000}") int maxBatchSize) {
     this.accountsService = accountsService;
+    this.objectMapper = objectMapper;
+    this.validator = validator;
+    this.maxBatchSize = maxBatchSize;
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -43,54 +77,163 @@ public class AccountsController {
     this.accountsService.createAccount(account);
     } catch (DuplicateAccountIdException daie) {
       return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+    } catch (InvalidAmountException iae) {
+      return new ResponseEntity<>(iae.getMessage(), HttpStatus.BAD_REQUEST);
+    } catch (InvalidAccountException iae) {
+      return new ResponseEntity<>(iae.getMessage(), HttpStatus.BAD_REQUEST);
     }
 
     return new ResponseEntity<>(HttpStatus.CREATED);
   }
 
+  //the body is the cached JSON of the balance snapshot, its version is the ETag so unchanged balances get 304
   @GetMapping(path = "/{accountId}")
-  public Account getAccount(@PathVariable String accountId) {
+  public ResponseEntity<byte[]> getAccount(@PathVariable String accountId, WebRequest request) {
     log.info("Retrieving account for id {}", accountId);
-    return this.accountsService.getAccount(accountId);
+    AccountReadCache.Entry entry = this.accountsService.getBalanceSnapshot(accountId);
+    if (entry == null) {
+      return ResponseEntity.ok().build();
+    }
+    String eTag = eTag(entry);
+    if (request.checkNotModified(eTag)) {
+      return null;
+    }
+    return ResponseEntity.ok().eTag(eTag).contentType(MediaType.APPLICATION_JSON_UTF8).body(entry.getJson());
+  }
+
+  //newest first, since and until are epoch millis, cursor is the nextCursor of the previous page
+  @GetMapping(path = "/{accountId}/transactions")
+  public ResponseEntity<Object> getTransactions(@PathVariable String accountId,
+    @RequestParam(name = "since", defaultValue = "0") long since,
+    @RequestParam(name = "until", defaultValue = "" + Long.MAX_VALUE) long until,
+    @RequestParam(name = "cursor", defaultValue = "0") long cursor,
+    @RequestParam(name = "limit", defaultValue = "50") int limit) {
+    if (limit < 1 || limit > MAX_STATEMENT_PAGE) {
+      return new ResponseEntity<>("Limit must be between 1 and " + MAX_STATEMENT_PAGE, HttpStatus.BAD_REQUEST);
+    }
+    AccountStatement statement = this.accountsService.getStatement(accountId, since, until, cursor, limit);
+    if (statement == null) {
+      return new ResponseEntity<>("Account id " + accountId + " does not exist", HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(statement, HttpStatus.OK);
   }
   
+  //validated here rather than with @Valid, so an invalid request is a result like any other rejection
+  //instead of an exception going through the handler resolvers
   @PutMapping(path = "/transfer",consumes = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<Object> transferMoney(@RequestBody @Valid TransferAmount transferBalance){
-	  ResponseEntity<Object> response = null;
-	  try{
-		 ///validating request body
-		final Account accountFrom = getAccountIfExists(transferBalance.getAccountIdFrom());
-		final Account accountTo = getAccountIfExists(transferBalance.getAccountIdTo());
-		validateRequest(accountFrom, accountTo, transferBalance);
-		
-		//transferring amount if the request is valid 
-		log.info("{} amount transferring from {} to {}",transferBalance.getBalance(),transferBalance.getAccountIdFrom(),transferBalance.getAccountIdTo());
-		this.accountsService.transferAmount(accountFrom, accountTo, transferBalance.getBalance());
-		
-		//if amount gets transferred successfully
-		response= new ResponseEntity<Object>("Amount successfully transferred", HttpStatus.OK);
-	  }catch(InvalidAmountException ibe){
-		response = new ResponseEntity<Object>(ibe.getMessage(), HttpStatus.BAD_REQUEST);
-	  }catch(InvalidAccountException iae){
-		response = new ResponseEntity<Object>(iae.getMessage(), HttpStatus.BAD_REQUEST);
-	  }
-	 return response;
+  public ResponseEntity<Object> transferMoney(@RequestBody TransferAmount transferBalance){
+	log.info("{} amount transferring from {} to {}",transferBalance.getBalance(),transferBalance.getAccountIdFrom(),transferBalance.getAccountIdTo());
+	if (!validator.validate(transferBalance).isEmpty()) {
+		return transferResponse(this.accountsService.invalidTransfer());
+	}
+
+	//validation and the transfer itself happen atomically in the repository
+	TransferResult result = this.accountsService.transferAmount(transferBalance.getTransferId(),
+		transferBalance.getAccountIdFrom(), transferBalance.getAccountIdTo(), transferBalance.getBalance(),
+		transferBalance.getCurrency());
+	return transferResponse(result);
   }
-  
-	private void validateRequest(Account accountFrom, Account accountTo, TransferAmount transferBalance) {
-		if (transferBalance.getAccountIdFrom().equals(transferBalance.getAccountIdTo())) {
-			throw new InvalidAccountException("Both accounts cannot be same");
-		} else if (transferBalance.getBalance().compareTo(accountFrom.getBalance()) > 0) {
-			throw new InvalidAmountException("Account id " + accountFrom.getAccountId() + " does not have sufficient balance to transfer");
+
+  //the body is a JSON array of transfers, parsed one element at a time so a batch over the maximum size is
+  //refused as soon as its first extra element is read, without the rest of the body being parsed
+  @PutMapping(path = "/transfers/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Object> transferMoneyBatch(InputStream body,
+	@RequestParam(name = "atomic", defaultValue = "false") boolean atomic) throws IOException {
+	List<TransferAmount> transfers = new ArrayList<>();
+	List<Integer> invalid = new ArrayList<>();
+	try (MappingIterator<TransferAmount> items = objectMapper.readerFor(TransferAmount.class).readValues(body)) {
+		while (items.hasNextValue()) {
+			if (transfers.size() == maxBatchSize) {
+				return new ResponseEntity<Object>("Transfer batch has more than " + maxBatchSize + " transfers",
+					HttpStatus.PAYLOAD_TOO_LARGE);
+			}
+			TransferAmount transfer = items.nextValue();
+			if (transfer == null || !validator.validate(transfer).isEmpty()) {
+				invalid.add(transfers.size());
+			}
+			transfers.add(transfer);
 		}
+	} catch (JsonProcessingException jpe) {
+		return new ResponseEntity<Object>("Malformed transfer batch: " + jpe.getOriginalMessage(), HttpStatus.BAD_REQUEST);
+	}
+	log.info("Transferring batch of {} transfers, atomic {}", transfers.size(), atomic);
+
+	TransferResult[] results;
+	if (invalid.isEmpty()) {
+		results = this.accountsService.transferBatch(transfers, atomic);
+	} else {
+		results = transferValidItems(transfers, invalid, atomic);
+	}
+
+	List<TransferOutcome> outcomes = new ArrayList<>(results.length);
+	boolean aborted = false;
+	boolean limited = false;
+	for (int i = 0; i < results.length; i++) {
+		aborted |= results[i] == TransferResult.BATCH_ABORTED;
+		limited |= results[i] == TransferResult.RATE_LIMITED;
+		outcomes.add(new TransferOutcome(i, results[i],
+			results[i] == TransferResult.SUCCESS ? null : results[i].getMessage()));
+	}
+	if (aborted && limited) {
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1")
+			.body(outcomes);
+	}
+	return new ResponseEntity<Object>(outcomes, aborted ? HttpStatus.BAD_REQUEST : HttpStatus.OK);
+  }
+
+	private TransferResult[] transferValidItems(List<TransferAmount> transfers, List<Integer> invalid, boolean atomic) {
+		TransferResult[] results = new TransferResult[transfers.size()];
+		for (int index : invalid) {
+			results[index] = this.accountsService.invalidTransfer();
+		}
+		if (atomic) {
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == null) {
+					results[i] = TransferResult.BATCH_ABORTED;
+				}
+			}
+			return results;
+		}
+		List<TransferAmount> valid = new ArrayList<>(transfers.size() - invalid.size());
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				valid.add(transfers.get(i));
+			}
+		}
+		TransferResult[] validResults = this.accountsService.transferBatch(valid, false);
+		for (int i = 0, v = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				results[i] = validResults[v++];
+			}
+		}
+		return results;
+	}
+
+	static String eTag(AccountReadCache.Entry entry) {
+		return "\"" + entry.getSnapshot().getVersion() + "\"";
+	}
+
+	//one immutable response per result, built once
+	static ResponseEntity<Object> transferResponse(TransferResult result) {
+		return TRANSFER_RESPONSES.get(result);
 	}
 
-	private Account getAccountIfExists(String accountId) {
-		final Account account = this.accountsService.getAccount(accountId);
-		if (null == account) {
-			throw new InvalidAccountException("Account id " + accountId + " does not exist"); //if the account id in request does not exist
+	private static Map<TransferResult, ResponseEntity<Object>> transferResponses() {
+		Map<TransferResult, ResponseEntity<Object>> responses = new EnumMap<>(TransferResult.class);
+		for (TransferResult result : TransferResult.values()) {
+			HttpStatus status = HttpStatus.BAD_REQUEST;
+			if (result == TransferResult.SUCCESS) {
+				status = HttpStatus.OK;
+			} else if (result == TransferResult.TRANSFER_IN_PROGRESS) {
+				status = HttpStatus.CONFLICT;
+			} else if (result == TransferResult.RATE_LIMITED) {
+				responses.put(result, ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, "1").body(result.getMessage()));
+				continue;
+			}
+			responses.put(result, new ResponseEntity<Object>(result.getMessage(), status));
 		}
-		return account;
+		return responses;
 	}
 
 }
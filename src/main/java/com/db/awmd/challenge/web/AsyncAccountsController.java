@@ -0,0 +1,132 @@
+package com.db.awmd.challenge.web;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.validation.Valid;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.ServiceOverloadedException;
+import com.db.awmd.challenge.service.AccountsService;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Same requests and responses as AccountsController, but the servlet thread is released as soon as the
+// work is queued on the transfer executor. A full queue is answered with 429 and a request that is not
+// done within the timeout with 503; a transfer that times out may still be applied, clients that retry
+// should send a transferId.
+@RestController
+@RequestMapping("/v1/async/accounts")
+@Slf4j
+public class AsyncAccountsController {
+
+  private final AccountsService accountsService;
+
+  private final Validator validator;
+
+  private final long timeoutMillis;
+
+  @Autowired
+  public AsyncAccountsController(AccountsService accountsService, Validator validator,
+    @Value("${transfers.async.timeout-ms:5000}") long timeoutMillis) {
+    this.accountsService = accountsService;
+    this.validator = validator;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+  public DeferredResult<ResponseEntity<Object>> createAccount(@RequestBody @Valid Account account) {
+    log.info("Creating account {}", account);
+    return respond(this.accountsService.submitCreateAccount(account),
+      created -> new ResponseEntity<>(HttpStatus.CREATED));
+  }
+
+  //the same cached snapshot JSON and ETag as the synchronous read, If-None-Match is read before the work is
+  //queued since the request is not used from the executor
+  @GetMapping(path = "/{accountId}")
+  public DeferredResult<ResponseEntity<Object>> getAccount(@PathVariable String accountId,
+    @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    log.info("Retrieving account for id {}", accountId);
+    return respond(this.accountsService.submitGetBalanceSnapshot(accountId), entry -> {
+      if (entry == null) {
+        return ResponseEntity.ok().build();
+      }
+      String eTag = AccountsController.eTag(entry);
+      if (ifNoneMatch != null && Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).contains(eTag)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+      }
+      return ResponseEntity.ok().eTag(eTag).contentType(MediaType.APPLICATION_JSON_UTF8).<Object>body(entry.getJson());
+    });
+  }
+
+  //validated here like the synchronous transfer, so an invalid request gets the same result
+  @PutMapping(path = "/transfer", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public DeferredResult<ResponseEntity<Object>> transferMoney(@RequestBody TransferAmount transferBalance) {
+    log.info("{} amount transferring from {} to {}", transferBalance.getBalance(), transferBalance.getAccountIdFrom(),
+      transferBalance.getAccountIdTo());
+    if (!validator.validate(transferBalance).isEmpty()) {
+      return respond(CompletableFuture.completedFuture(this.accountsService.invalidTransfer()),
+        AccountsController::transferResponse);
+    }
+    return respond(this.accountsService.submitTransfer(transferBalance.getTransferId(),
+      transferBalance.getAccountIdFrom(), transferBalance.getAccountIdTo(), transferBalance.getBalance(),
+      transferBalance.getCurrency()), AccountsController::transferResponse);
+  }
+
+  private <T> DeferredResult<ResponseEntity<Object>> respond(CompletableFuture<T> future,
+    Function<T, ResponseEntity<Object>> response) {
+    DeferredResult<ResponseEntity<Object>> deferred = new DeferredResult<>(timeoutMillis,
+      new ResponseEntity<Object>("Request timed out, retry later", HttpStatus.SERVICE_UNAVAILABLE));
+    // a request still sitting in the queue is then skipped instead of run for nobody
+    deferred.onTimeout(() -> future.cancel(false));
+    future.whenComplete((value, error) -> {
+      if (error == null) {
+        deferred.setResult(response.apply(value));
+        return;
+      }
+      Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+      ResponseEntity<Object> failure = failure(cause);
+      if (failure != null) {
+        deferred.setResult(failure);
+      } else {
+        deferred.setErrorResult(cause);
+      }
+    });
+    return deferred;
+  }
+
+  private static ResponseEntity<Object> failure(Throwable cause) {
+    if (cause instanceof ServiceOverloadedException) {
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1")
+        .body(cause.getMessage());
+    } else if (cause instanceof TimeoutException) {
+      return new ResponseEntity<>("Request timed out, retry later", HttpStatus.SERVICE_UNAVAILABLE);
+    } else if (cause instanceof DuplicateAccountIdException || cause instanceof InvalidAmountException) {
+      return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    return null;
+  }
+}
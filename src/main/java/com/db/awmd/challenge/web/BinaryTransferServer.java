@@ -0,0 +1,251 @@
+package com.db.awmd.challenge.web;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.service.AccountsService;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Transfers over a plain socket for internal gateways, without JSON and Bean Validation. A connection starts
+// with the 4 byte MAGIC, then carries any number of requests, big endian:
+//
+//   [int length of the rest][long request id][long unscaled amount][byte scale][3 bytes currency, zeros for none]
+//   [short length][account id from][short length][account id to][short length][transfer id, empty for none]
+//
+// each answered with [long request id][byte ordinal of the TransferResult], in request order. Ids are UTF-8.
+// A client may send requests without waiting for answers: every request in the buffer is decoded straight
+// from it and applied, and the answers to all of them go out in one write before the next read.
+//
+// Requests are checked like TransferAmount and then go through the same AccountsService call as PUT
+// /v1/accounts/transfer, so results, rate limits and transfer id deduplication are the same. A request
+// whose fields do not add up to its length is answered with INVALID_REQUEST; a length over the buffer size
+// or a wrong MAGIC closes the connection.
+@Component
+@ConditionalOnProperty(name = "transfers.binary.enabled", havingValue = "true")
+@Slf4j
+public class BinaryTransferServer implements PublicMetrics, DisposableBean {
+
+  public static final int MAGIC = 0x58465231;
+
+  public static final int RESPONSE_SIZE = 9;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // request id, amount, scale, currency and the three id lengths
+  private static final int MIN_LENGTH = 8 + 8 + 1 + 3 + 2 + 2 + 2;
+
+  private static final int MAX_TRANSFER_ID_LENGTH = 128;
+
+  private static final TransferResult[] RESULTS = TransferResult.values();
+
+  private final AccountsService accountsService;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final int maxConnections;
+
+  private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder invalidRequests = new LongAdder();
+
+  private final LongAdder refusedConnections = new LongAdder();
+
+  private volatile boolean open = true;
+
+  @Autowired
+  public BinaryTransferServer(AccountsService accountsService,
+    @Value("${transfers.binary.bind-address:127.0.0.1}") String bindAddress,
+    @Value("${transfers.binary.port:18100}") int port,
+    @Value("${transfers.binary.max-connections:64}") int maxConnections) throws IOException {
+    this.accountsService = accountsService;
+    this.maxConnections = maxConnections;
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port), 16);
+    Thread acceptor = new Thread(this::acceptLoop, "binary-transfer-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    log.info("Accepting binary transfers on {}", serverChannel.getLocalAddress());
+  }
+
+  public int getLocalPort() throws IOException {
+    return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.<Metric<?>>asList(
+      new Metric<>("transfers.binary.connections", connections.size()),
+      new Metric<>("transfers.binary.requests", requests.sum()),
+      new Metric<>("transfers.binary.invalid-requests", invalidRequests.sum()),
+      new Metric<>("transfers.binary.refused-connections", refusedConnections.sum()));
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    open = false;
+    serverChannel.close();
+    for (SocketChannel connection : connections) {
+      connection.close();
+    }
+  }
+
+  private void acceptLoop() {
+    while (open) {
+      try {
+        SocketChannel connection = serverChannel.accept();
+        if (connections.size() >= maxConnections) {
+          refusedConnections.increment();
+          connection.close();
+          continue;
+        }
+        connections.add(connection);
+        Thread worker = new Thread(() -> serve(connection), "binary-transfer-" + connection.socket().getPort());
+        worker.setDaemon(true);
+        worker.start();
+      } catch (IOException ioe) {
+        if (open) {
+          log.error("Failed to accept a binary transfer connection", ioe);
+        }
+      }
+    }
+  }
+
+  private void serve(SocketChannel connection) {
+    try {
+      connection.socket().setTcpNoDelay(true);
+      // array backed, so ids are decoded from the buffer's own array
+      ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+      ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (in.position() < 4) {
+        if (connection.read(in) < 0) {
+          return;
+        }
+      }
+      if (in.getInt(0) != MAGIC) {
+        log.warn("Closing binary transfer connection {} without the protocol magic", connection.getRemoteAddress());
+        return;
+      }
+      // the first read may already have brought requests after the magic
+      in.flip().position(4);
+      while (true) {
+        while (in.remaining() >= 4) {
+          int length = in.getInt(in.position());
+          if (length < MIN_LENGTH || length > BUFFER_SIZE - 4) {
+            log.warn("Closing binary transfer connection {} after a request of length {}",
+              connection.getRemoteAddress(), length);
+            return;
+          }
+          if (in.remaining() < 4 + length) {
+            break;
+          }
+          if (out.remaining() < RESPONSE_SIZE) {
+            write(connection, out);
+          }
+          in.position(in.position() + 4);
+          handle(in, in.position() + length, out);
+        }
+        in.compact();
+        write(connection, out);
+        if (connection.read(in) < 0) {
+          return;
+        }
+        in.flip();
+      }
+    } catch (IOException ioe) {
+      if (open) {
+        log.info("Binary transfer connection closed: {}", ioe.getMessage());
+      }
+    } catch (RuntimeException re) {
+      // the answers to the requests still in the buffer are lost, the client sees the connection close
+      log.error("Failed to apply a binary transfer, closing the connection", re);
+    } finally {
+      connections.remove(connection);
+      try {
+        connection.close();
+      } catch (IOException ioe) {
+        log.debug("Failed to close binary transfer connection", ioe);
+      }
+    }
+  }
+
+  // decodes one request that ends at end, applies it and appends the answer to out
+  private void handle(ByteBuffer in, int end, ByteBuffer out) {
+    requests.increment();
+    long requestId = in.getLong();
+    BigDecimal balance = BigDecimal.valueOf(in.getLong(), in.get());
+    byte first = in.get();
+    byte second = in.get();
+    byte third = in.get();
+    String accountIdFrom = string(in, end);
+    String accountIdTo = accountIdFrom != null ? string(in, end) : null;
+    String transferId = accountIdTo != null ? string(in, end) : null;
+    boolean noCurrency = first == 0 && second == 0 && third == 0;
+    // the constraints of TransferAmount
+    if (transferId == null || in.position() != end || accountIdFrom.isEmpty() || accountIdTo.isEmpty()
+      || balance.compareTo(BigDecimal.ONE) < 0 || transferId.length() > MAX_TRANSFER_ID_LENGTH
+      || !noCurrency && !(isUpperCase(first) && isUpperCase(second) && isUpperCase(third))) {
+      in.position(end);
+      invalidRequests.increment();
+      out.putLong(requestId).put((byte) accountsService.invalidTransfer().ordinal());
+      return;
+    }
+    String currency = noCurrency ? null : new String(new char[] { (char) first, (char) second, (char) third });
+    TransferResult result = accountsService.transferAmount(transferId.isEmpty() ? null : transferId,
+      accountIdFrom, accountIdTo, balance, currency);
+    out.putLong(requestId).put((byte) result.ordinal());
+  }
+
+  private static boolean isUpperCase(byte letter) {
+    return letter >= 'A' && letter <= 'Z';
+  }
+
+  // a short length and that many bytes of UTF-8, null when they would run past the end of the request
+  private static String string(ByteBuffer in, int end) {
+    if (in.position() + 2 > end) {
+      return null;
+    }
+    int length = in.getShort() & 0xFFFF;
+    if (in.position() + length > end) {
+      return null;
+    }
+    String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+
+  private static void write(SocketChannel connection, ByteBuffer out) throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      connection.write(out);
+    }
+    out.clear();
+  }
+
+  // ordinal of a result as written in answers, the results are only ever appended to
+  public static TransferResult result(byte ordinal) {
+    return RESULTS[ordinal];
+  }
+}
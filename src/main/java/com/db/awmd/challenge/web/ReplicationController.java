@@ -0,0 +1,44 @@
+package com.db.awmd.challenge.web;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.repository.ReplicatedAccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+// GET shows the role of this instance and how far it trails the primary, POST promote turns a standby into
+// the primary once the old one is gone; promoting while the old primary still takes writes splits them
+@RestController
+@RequestMapping("/v1/replication")
+@ConditionalOnProperty(name = "accounts.repository.type", havingValue = "replicated")
+@Slf4j
+public class ReplicationController {
+
+  private final ReplicatedAccountsRepository repository;
+
+  @Autowired
+  public ReplicationController(ReplicatedAccountsRepository repository) {
+    this.repository = repository;
+  }
+
+  @GetMapping
+  public ResponseEntity<Map<String, Object>> status() {
+    return ResponseEntity.ok(repository.replicationStatus());
+  }
+
+  @PostMapping(path = "/promote")
+  public ResponseEntity<Map<String, Object>> promote() throws IOException {
+    log.info("Promoting this instance to primary");
+    repository.promote();
+    return ResponseEntity.ok(repository.replicationStatus());
+  }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.web;
+
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.service.TransferScheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Future dated transfers and standing orders, run through the normal transfer path once they are due
+@RestController
+@RequestMapping("/v1/accounts/transfers/scheduled")
+@Slf4j
+public class ScheduledTransfersController {
+
+  private final TransferScheduler transferScheduler;
+
+  @Autowired
+  public ScheduledTransfersController(TransferScheduler transferScheduler) {
+    this.transferScheduler = transferScheduler;
+  }
+
+  @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Object> scheduleTransfer(@RequestBody @Valid ScheduledTransfer transfer) {
+    ScheduledTransfer scheduled = transferScheduler.schedule(transfer);
+    if (scheduled == null) {
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1")
+        .body(TransferResult.RATE_LIMITED.getMessage());
+    }
+    log.info("Scheduled transfer {} of {} from {} to {} at {}, every {} ms", scheduled.getScheduleId(),
+      scheduled.getBalance(), scheduled.getAccountIdFrom(), scheduled.getAccountIdTo(), scheduled.getExecuteAt(),
+      scheduled.getIntervalMs());
+    return new ResponseEntity<Object>(scheduled, HttpStatus.CREATED);
+  }
+
+  @GetMapping(path = "/{scheduleId}")
+  public ResponseEntity<Object> getScheduledTransfer(@PathVariable String scheduleId) {
+    ScheduledTransfer transfer = transferScheduler.get(scheduleId);
+    if (transfer == null) {
+      return new ResponseEntity<>("No pending transfer " + scheduleId, HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(transfer, HttpStatus.OK);
+  }
+
+  @DeleteMapping(path = "/{scheduleId}")
+  public ResponseEntity<Object> cancelScheduledTransfer(@PathVariable String scheduleId) {
+    if (!transferScheduler.cancel(scheduleId)) {
+      return new ResponseEntity<>("No pending transfer " + scheduleId, HttpStatus.NOT_FOUND);
+    }
+    log.info("Cancelled scheduled transfer {}", scheduleId);
+    return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+  }
+}
@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.web;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import com.db.awmd.challenge.exception.StandbyReadOnlyException;
+
+// A standby refuses every write until it is promoted, whichever endpoint the write came through. Clients
+// see 503 so they retry against the primary instead of treating it as a server error.
+@ControllerAdvice
+public class StandbyReadOnlyAdvice {
+
+  @ExceptionHandler(StandbyReadOnlyException.class)
+  public ResponseEntity<Object> standbyReadOnly(StandbyReadOnlyException sroe) {
+    return new ResponseEntity<>(sroe.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+  }
+}
@@ -1,27 +1,42 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import javax.validation.Validator;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AccountsController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -36,6 +51,12 @@ public class AccountsControllerTest {
   @Autowired
   private WebApplicationContext webApplicationContext;
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private Validator validator;
+
   @Before
   public void prepareMockMvc() {
     this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
@@ -103,6 +124,27 @@ public class AccountsControllerTest {
       .andExpect(
         content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
   }
+
+  @Test
+  public void getAccountIsNotModifiedUntilATransferChangesIt() throws Exception {
+    prepareTestData();
+    String eTag = this.mockMvc.perform(get("/v1/accounts/1001"))
+      .andExpect(status().isOk())
+      .andReturn().getResponse().getHeader("ETag");
+    assertThat(eTag).isNotNull();
+    this.mockMvc.perform(get("/v1/accounts/1001").header("If-None-Match", eTag))
+      .andExpect(status().isNotModified());
+
+    this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 5000}"))
+      .andExpect(status().isOk());
+    this.mockMvc.perform(get("/v1/accounts/1001").header("If-None-Match", eTag))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"accountId\":\"1001\",\"balance\":5000}"));
+    this.mockMvc.perform(get("/v1/accounts/1002"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.balance").value(25000));
+  }
   
   @Test
   public void transferAmountSuccessfully() throws Exception{
@@ -119,7 +161,7 @@ public class AccountsControllerTest {
 	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
 		      .content("{\"accountIdFrom\":\"1003\",\"accountIdTo\":\"1002\",\"balance\": 50000}"))
 	 		  .andExpect(status().isBadRequest())
-	 		  .andExpect(content().string("Account id 1003 does not exist"));
+	 		  .andExpect(content().string("Account to transfer from does not exist"));
 	 
   }
   
@@ -129,7 +171,7 @@ public class AccountsControllerTest {
 	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
 		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 50000}"))
 	          .andExpect(status().isBadRequest())
-	          .andExpect(content().string("Account id 1001 does not have sufficient balance to transfer"));
+	          .andExpect(content().string("Account to transfer from does not have sufficient balance to transfer"));
 	 
   }
   
@@ -142,6 +184,214 @@ public class AccountsControllerTest {
 	 		  .andExpect(content().string("Both accounts cannot be same"));
   }
   
+  @Test
+  public void testInvalidTransferRequest() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"\",\"accountIdTo\":\"1002\",\"balance\": 0}"))
+	 		  .andExpect(status().isBadRequest())
+	 		  .andExpect(content().string("Transfer request is invalid"));
+	 assertThat(accountsService.getAccount("1002").getBalance()).isEqualByComparingTo("20000");
+  }
+
+  @Test
+  public void transferBatchReportsEachItem() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(put("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+		      .content("[{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 5000},"
+		    		  + "{\"accountIdFrom\":\"1003\",\"accountIdTo\":\"1002\",\"balance\": 10},"
+		    		  + "{\"accountIdFrom\":\"1002\",\"accountIdTo\":\"1001\",\"balance\": 0}]"))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(content().json("[{\"index\":0,\"status\":\"SUCCESS\"},"
+	 				  + "{\"index\":1,\"status\":\"ACCOUNT_FROM_NOT_FOUND\",\"message\":\"Account to transfer from does not exist\"},"
+	 				  + "{\"index\":2,\"status\":\"INVALID_REQUEST\"}]"));
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("5000");
+	 assertThat(accountsService.getAccount("1002").getBalance()).isEqualByComparingTo("25000");
+  }
+
+  @Test
+  public void transferBatchOverTheMaximumSizeIsRefused() throws Exception{
+	 prepareTestData();
+	 AccountsController controller = new AccountsController(accountsService, objectMapper, validator, 2);
+	 String transfer = "{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 10}";
+	 String batch = "[" + transfer + "," + transfer + "," + transfer + "]";
+	 ResponseEntity<Object> response = controller.transferMoneyBatch(
+		 new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), false);
+	 assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+	 assertThat(response.getBody()).isEqualTo("Transfer batch has more than 2 transfers");
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("10000");
+  }
+
+  @Test
+  public void atomicTransferBatchAppliesNothingOnFailure() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(put("/v1/accounts/transfers/batch?atomic=true").contentType(MediaType.APPLICATION_JSON)
+		      .content("[{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 5000},"
+		    		  + "{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 6000}]"))
+	 		  .andExpect(status().isBadRequest())
+	 		  .andExpect(content().json("[{\"index\":0,\"status\":\"BATCH_ABORTED\"},"
+	 				  + "{\"index\":1,\"status\":\"INSUFFICIENT_BALANCE\"}]"));
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("10000");
+	 assertThat(accountsService.getAccount("1002").getBalance()).isEqualByComparingTo("20000");
+  }
+
+  @Test
+  public void transferBetweenCurrenciesNeedsARate() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountId\":\"1009\",\"balance\":100,\"currency\":\"CHF\"}")).andExpect(status().isCreated());
+	 this.mockMvc.perform(get("/v1/accounts/1009"))
+	 		  .andExpect(content().string("{\"accountId\":\"1009\",\"balance\":100,\"currency\":\"CHF\"}"));
+	 // the test context has no rates file, so only the base currency is known
+	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1009\",\"balance\": 10}"))
+	 		  .andExpect(status().isBadRequest())
+	 		  .andExpect(content().string("Amount cannot be converted between the account currencies"));
+	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 10,\"currency\":\"CHF\"}"))
+	 		  .andExpect(status().isBadRequest())
+	 		  .andExpect(content().string("Transfer currency does not match the account to transfer from"));
+	 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 10,\"currency\":\"EUR\"}"))
+	 		  .andExpect(status().isOk());
+	 assertThat(accountsService.getAccount("1009").getBalance()).isEqualByComparingTo("100");
+  }
+
+  @Test
+  public void retriedTransferIdIsAppliedOnce() throws Exception{
+	 prepareTestData();
+	 String transfer = "{\"transferId\":\"transfer-" + System.nanoTime()
+		 + "\",\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 4000}";
+	 for (int i = 0; i < 3; i++) {
+		 this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).content(transfer))
+		 		  .andExpect(status().isOk())
+		 		  .andExpect(content().string("Amount successfully transferred"));
+	 }
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("6000");
+	 assertThat(accountsService.getAccount("1002").getBalance()).isEqualByComparingTo("24000");
+  }
+
+  @Test
+  public void asyncGetAccountServesTheSameSnapshotAndETag() throws Exception{
+	 prepareTestData();
+	 String eTag = this.mockMvc.perform(get("/v1/accounts/1001"))
+	 		  .andReturn().getResponse().getHeader("ETag");
+	 MvcResult result = this.mockMvc.perform(get("/v1/async/accounts/1001"))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 this.mockMvc.perform(asyncDispatch(result))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(header().string("ETag", eTag))
+	 		  .andExpect(content().string("{\"accountId\":\"1001\",\"balance\":10000}"));
+	 result = this.mockMvc.perform(get("/v1/async/accounts/1001").header("If-None-Match", eTag))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 this.mockMvc.perform(asyncDispatch(result))
+	 		  .andExpect(status().isNotModified());
+  }
+
+  @Test
+  public void asyncTransferAmountSuccessfully() throws Exception{
+	 prepareTestData();
+	 MvcResult result = this.mockMvc.perform(put("/v1/async/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 5000}"))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 this.mockMvc.perform(asyncDispatch(result))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(content().string("Amount successfully transferred"));
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("5000");
+  }
+
+  @Test
+  public void asyncTransferReportsInsufficientBalance() throws Exception{
+	 prepareTestData();
+	 MvcResult result = this.mockMvc.perform(put("/v1/async/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\": 50000}"))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 this.mockMvc.perform(asyncDispatch(result))
+	          .andExpect(status().isBadRequest())
+	          .andExpect(content().string("Account to transfer from does not have sufficient balance to transfer"));
+  }
+
+  @Test
+  public void asyncTransferRejectsAnInvalidRequestLikeTheSyncOne() throws Exception{
+	 prepareTestData();
+	 MvcResult result = this.mockMvc.perform(put("/v1/async/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"\",\"accountIdTo\":\"1002\",\"balance\": 0}"))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 this.mockMvc.perform(asyncDispatch(result))
+	          .andExpect(status().isBadRequest())
+	          .andExpect(content().string("Transfer request is invalid"));
+	 assertThat(accountsService.getAccount("1002").getBalance()).isEqualByComparingTo("20000");
+  }
+
+  @Test
+  public void transactionsListAppliedTransfersNewestFirst() throws Exception{
+	 prepareTestData();
+	 accountsService.transferAmount("1001", "1002", new BigDecimal(100));
+	 accountsService.transferAmount("1002", "1001", new BigDecimal(40));
+	 accountsService.transferAmount("1001", "1002", new BigDecimal(50000));
+	 this.mockMvc.perform(get("/v1/accounts/1001/transactions?limit=1"))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(content().json("{\"accountId\":\"1001\",\"transactions\":[{\"accountIdFrom\":\"1002\","
+	 				  + "\"accountIdTo\":\"1001\",\"amount\":40}]}"))
+	 		  .andExpect(jsonPath("$.nextCursor").exists());
+	 this.mockMvc.perform(get("/v1/accounts/1003/transactions"))
+	 		  .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void bulkImportReportsDuplicatesAndInvalidRows() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(post("/v1/bulk/accounts").contentType("application/x-ndjson")
+		      .content("{\"accountId\":\"2001\",\"balance\":10}\n"
+		    		  + "{\"accountId\":\"1001\",\"balance\":10}\n"
+		    		  + "{\"accountId\":\"2002\",\"balance\":-5}\n"
+		    		  + "{\"accountId\":\"2003\",\"balance\":12.5}\n"))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(content().json("{\"imported\":2,\"duplicates\":1,\"rejected\":1,\"complete\":true,"
+	 				  + "\"duplicateIds\":[\"1001\"],\"errors\":[\"line 3: Initial balance must be positive.\"]}"));
+	 assertThat(accountsService.getAccount("2003").getBalance()).isEqualByComparingTo("12.5");
+  }
+
+  @Test
+  public void bulkExportStreamsEveryAccount() throws Exception{
+	 prepareTestData();
+	 MvcResult result = this.mockMvc.perform(get("/v1/bulk/accounts?format=csv"))
+	 		  .andExpect(request().asyncStarted())
+	 		  .andReturn();
+	 String csv = this.mockMvc.perform(asyncDispatch(result))
+	 		  .andExpect(status().isOk())
+	 		  .andReturn().getResponse().getContentAsString();
+	 assertThat(csv).startsWith("accountId,balance\n");
+	 assertThat(csv).contains("1001,10000\n", "1002,20000\n");
+  }
+
+  @Test
+  public void scheduledTransferCanBeCancelled() throws Exception{
+	 prepareTestData();
+	 this.mockMvc.perform(post("/v1/accounts/transfers/scheduled").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\":100}"))
+	 		  .andExpect(status().isBadRequest());
+	 String body = this.mockMvc.perform(post("/v1/accounts/transfers/scheduled").contentType(MediaType.APPLICATION_JSON)
+		      .content("{\"accountIdFrom\":\"1001\",\"accountIdTo\":\"1002\",\"balance\":100,"
+		    		  + "\"executeAt\":" + (System.currentTimeMillis() + 3_600_000) + ",\"intervalMs\":86400000}"))
+	 		  .andExpect(status().isCreated())
+	 		  .andReturn().getResponse().getContentAsString();
+	 String scheduleId = JsonPath.read(body, "$.scheduleId");
+	 this.mockMvc.perform(get("/v1/accounts/transfers/scheduled/" + scheduleId))
+	 		  .andExpect(status().isOk())
+	 		  .andExpect(jsonPath("$.intervalMs").value(86400000));
+	 this.mockMvc.perform(delete("/v1/accounts/transfers/scheduled/" + scheduleId))
+	 		  .andExpect(status().isNoContent());
+	 this.mockMvc.perform(get("/v1/accounts/transfers/scheduled/" + scheduleId))
+	 		  .andExpect(status().isNotFound());
+	 assertThat(accountsService.getAccount("1001").getBalance()).isEqualByComparingTo("10000");
+  }
+
   private void prepareTestData() {
 		Account account = new Account("1001", new BigDecimal("10000"));
 		this.accountsService.createAccount(account);
@@ -0,0 +1,345 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceCut;
+import com.db.awmd.challenge.domain.FixedPointBalance;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.FxRateTable;
+
+public class AccountsRepositoryConcurrencyTest {
+
+  private static final int ACCOUNTS = 200;
+  private static final int TRANSFERS_PER_THREAD = 20_000;
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  public void concurrentTransfersConserveMoney() throws Exception {
+    assertConservation(prepareRepository());
+  }
+
+  @Test
+  public void concurrentFixedPointTransfersConserveMoney() throws Exception {
+    assertConservation(prepareRepository(new AccountsRepositoryInMemory(2)));
+  }
+
+  @Test
+  public void splitHotAccountsConserveMoney() throws Exception {
+    // every contended transfer splits its credited account, and most transfers involve Id-0
+    AccountsRepositoryInMemory repository = prepareRepository(new AccountsRepositoryInMemory(2, true, 1, 4));
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          String other = "Id-" + (1 + random.nextInt(ACCOUNTS - 1));
+          BigDecimal amount = new BigDecimal(1 + random.nextInt(50));
+          TransferResult result = random.nextInt(4) == 0
+            ? repository.tryTransfer("Id-0", other, amount) : repository.tryTransfer(other, "Id-0", amount);
+          assertThat(result == TransferResult.SUCCESS || result == TransferResult.INSUFFICIENT_BALANCE).isTrue();
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = repository.getAccount("Id-" + i);
+      assertThat(account.getBalance().signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(account.getBalance());
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(ACCOUNTS)));
+  }
+
+  @Test
+  public void splitBalanceBorrowsFromItsCellsForDebits() {
+    FixedPointBalance balance = new FixedPointBalance(2, new BigDecimal("1.00"));
+    balance.split(4);
+    assertThat(balance.tryCredit(500)).isTrue();
+    assertThat(balance.getMinorUnits()).isEqualTo(600L);
+    assertThat(balance.takeSplitCredits()).isEqualTo(1L);
+
+    assertThat(balance.tryDebit(550)).isTrue();
+    assertThat(balance.tryDebit(51)).isFalse();
+    balance.merge();
+    assertThat(balance.isSplit()).isFalse();
+    assertThat(balance.tryCredit(1)).isTrue();
+    assertThat(balance.toBigDecimal()).isEqualByComparingTo("0.51");
+  }
+
+  private void assertConservation(AccountsRepositoryInMemory repository) throws Exception {
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    runTransfers(repository, threads);
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = repository.getAccount("Id-" + i);
+      assertThat(account.getBalance().signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(account.getBalance());
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(ACCOUNTS)));
+  }
+
+  @Test
+  public void balanceCutsAddUpWhileTransfersRun() throws Exception {
+    // split hot accounts, batches, conversions and new accounts all race with the cuts
+    AccountsRepositoryInMemory repository = prepareRepository(new AccountsRepositoryInMemory(2, true, 1, 4));
+    FxRateTable fxRates = new FxRateTable("EUR", "", 60_000, 0);
+    fxRates.update(Collections.singletonMap("USD", new BigDecimal("1.0837")));
+    repository.setFxRates(fxRates);
+    for (int i = 0; i < 10; i++) {
+      repository.createAccount(new Account("Id-USD-" + i, INITIAL_BALANCE, "USD"));
+    }
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          String account = "Id-" + (1 + random.nextInt(ACCOUNTS - 1));
+          BigDecimal amount = new BigDecimal(1 + random.nextInt(50));
+          int kind = random.nextInt(8);
+          if (kind < 4) {
+            repository.tryTransfer(account, "Id-0", amount);
+          } else if (kind == 4) {
+            repository.tryTransfer("Id-0", account, amount);
+          } else if (kind == 5) {
+            String usd = "Id-USD-" + random.nextInt(10);
+            repository.tryTransfer(random.nextBoolean() ? usd : account, random.nextBoolean() ? usd : account, amount);
+          } else {
+            List<TransferAmount> batch = new ArrayList<>();
+            for (int j = 0; j < 8; j++) {
+              TransferAmount transfer = new TransferAmount();
+              transfer.setAccountIdFrom("Id-" + random.nextInt(ACCOUNTS));
+              transfer.setAccountIdTo(j % 2 == 0 ? "Id-0" : "Id-USD-" + random.nextInt(10));
+              transfer.setBalance(amount);
+              batch.add(transfer);
+            }
+            repository.tryTransferBatch(batch, kind == 6);
+          }
+        }
+        return null;
+      }));
+    }
+    futures.add(executor.submit(() -> {
+      for (int i = 0; i < 2000; i++) {
+        repository.createAccount(new Account("Id-New-" + i, new BigDecimal(i % 7), i % 2 == 0 ? "USD" : null));
+      }
+      return null;
+    }));
+
+    int cuts = 0;
+    while (!futures.stream().allMatch(Future::isDone)) {
+      BalanceCut cut = repository.takeBalanceCut();
+      assertThat(cut.getDrift()).isEmpty();
+      assertThat(cut.getNegativeAccounts()).isEqualTo(0L);
+      cuts++;
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BalanceCut last = repository.takeBalanceCut();
+    assertThat(last.isConsistent()).isTrue();
+    assertThat(last.getAccounts()).isEqualTo(ACCOUNTS + 10 + 2000L);
+    assertThat(last.getBalances().get("EUR")).isEqualByComparingTo(sum(repository, null));
+    assertThat(last.getBalances().get("USD")).isEqualByComparingTo(sum(repository, "USD"));
+    assertThat(cuts).isGreaterThan(0);
+  }
+
+  @Test
+  public void balanceCutsAddUpBetweenNoCurrencyAndTheBaseCurrency() throws Exception {
+    // Id-0 is split up front and holds no currency, the Id-EUR accounts name the base currency: credits between
+    // them are not conversions and go the split path, which does not lock Id-0's stripe
+    AccountsRepositoryInMemory repository = prepareRepository(new AccountsRepositoryInMemory(2, true, 1, 4));
+    repository.getAccount("Id-0").fixedPointBalance().split(4);
+    repository.setFxRates(new FxRateTable("EUR", "", 60_000, 0));
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("Id-EUR-" + i, INITIAL_BALANCE, "EUR"));
+    }
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          String euro = "Id-EUR-" + random.nextInt(ACCOUNTS);
+          String other = "Id-" + (1 + random.nextInt(ACCOUNTS - 1));
+          BigDecimal amount = new BigDecimal(1 + random.nextInt(50));
+          int kind = random.nextInt(4);
+          if (kind < 2) {
+            repository.tryTransfer(euro, "Id-0", amount);
+          } else if (kind == 2) {
+            repository.tryTransfer("Id-0", euro, amount);
+          } else {
+            repository.tryTransfer(random.nextBoolean() ? euro : other, random.nextBoolean() ? euro : other, amount);
+          }
+        }
+        return null;
+      }));
+    }
+
+    int cuts = 0;
+    while (!futures.stream().allMatch(Future::isDone)) {
+      assertThat(repository.takeBalanceCut().getDrift()).isEmpty();
+      cuts++;
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BalanceCut last = repository.takeBalanceCut();
+    assertThat(last.isConsistent()).isTrue();
+    assertThat(last.getBalances().keySet()).containsExactly("EUR");
+    assertThat(last.getBalances().get("EUR")).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(2 * ACCOUNTS)));
+    assertThat(cuts).isGreaterThan(0);
+  }
+
+  @Test
+  public void balanceCutReportsDrift() {
+    AccountsRepositoryInMemory repository = prepareRepository(new AccountsRepositoryInMemory(2));
+    assertThat(repository.takeBalanceCut().isConsistent()).isTrue();
+
+    // changed behind the repository's back
+    repository.getAccount("Id-1").setBalance(new BigDecimal("-0.5"));
+    BalanceCut cut = repository.takeBalanceCut();
+    assertThat(cut.isConsistent()).isFalse();
+    assertThat(cut.getDrift().get("base")).isEqualByComparingTo("-1000.5");
+    assertThat(cut.getNegativeAccountIds()).containsExactly("Id-1");
+
+    repository.clearAccounts();
+    assertThat(repository.takeBalanceCut().isConsistent()).isTrue();
+  }
+
+  @Test
+  public void concurrentTryTransferNeverOverdraws() throws Exception {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+    repository.createAccount(new Account("Id-Source", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-Target", BigDecimal.ZERO));
+
+    int threads = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<TransferResult>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        return repository.tryTransfer("Id-Source", "Id-Target", new BigDecimal(10));
+      }));
+    }
+    start.countDown();
+
+    int succeeded = 0;
+    for (Future<TransferResult> future : futures) {
+      if (future.get() == TransferResult.SUCCESS) {
+        succeeded++;
+      } else {
+        assertThat(future.get()).isEqualTo(TransferResult.INSUFFICIENT_BALANCE);
+      }
+    }
+    executor.shutdown();
+
+    assertThat(succeeded).isEqualTo(10);
+    assertThat(repository.getAccount("Id-Source").getBalance()).isEqualByComparingTo("0");
+    assertThat(repository.getAccount("Id-Target").getBalance()).isEqualByComparingTo("100");
+  }
+
+  @Test
+  public void fixedPointRejectsAmountsBeyondScale() {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(2);
+    repository.createAccount(new Account("Id-A", new BigDecimal("10.25")));
+    repository.createAccount(new Account("Id-B", BigDecimal.ZERO));
+
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal("0.001")))
+      .isEqualTo(TransferResult.AMOUNT_OUT_OF_RANGE);
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal("10.250")))
+      .isEqualTo(TransferResult.SUCCESS);
+    assertThat(repository.getAccount("Id-B").getBalance()).isEqualByComparingTo("10.25");
+    assertThat(repository.getAccount("Id-A").getBalance()).isEqualByComparingTo("0");
+  }
+
+  private static BigDecimal sum(AccountsRepositoryInMemory repository, String currency) {
+    BigDecimal[] total = { BigDecimal.ZERO };
+    repository.forEachAccount(account -> {
+      if (Objects.equals(account.getCurrency(), currency)) {
+        total[0] = total[0].add(account.getBalance());
+      }
+    });
+    return total[0];
+  }
+
+  private AccountsRepositoryInMemory prepareRepository() {
+    return prepareRepository(new AccountsRepositoryInMemory());
+  }
+
+  private AccountsRepositoryInMemory prepareRepository(AccountsRepositoryInMemory repository) {
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+    return repository;
+  }
+
+  private void runTransfers(AccountsRepositoryInMemory repository, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        start.await();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          int from = random.nextInt(ACCOUNTS);
+          int to = random.nextInt(ACCOUNTS);
+          if (from == to) {
+            continue;
+          }
+          try {
+            repository.updateAccountBalance(repository.getAccount("Id-" + from),
+              repository.getAccount("Id-" + to), new BigDecimal(1 + random.nextInt(50)));
+          } catch (InvalidAmountException expected) {
+            // insufficient balance, nothing was moved
+          }
+        }
+        return null;
+      }));
+    }
+
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+  }
+}
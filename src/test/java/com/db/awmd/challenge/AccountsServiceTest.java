@@ -3,11 +3,17 @@ package com.db.awmd.challenge;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -16,16 +22,28 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferReceipt;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.FxRateTable;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AsyncNotificationService;
 import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.service.TransferIdCache;
+import com.db.awmd.challenge.service.TransferRateLimiter;
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class AccountsServiceTest {
   
   @Autowired
   private AccountsService accountsService;
+
+  @Autowired
+  private TransferMetrics transferMetrics;
   
   @Test
   public void addAccount() throws Exception {
@@ -140,5 +158,131 @@ public class AccountsServiceTest {
 	  verify(notificationService, times(2)).notifyAboutTransfer(any(), any());//verify if the notification service method was invoked 2 times
 	  																			//test will fail if the service is not invoked
   }
+
+  @Test
+  public void testNotificationsOfAConvertedTransferStateEachAccountsCurrency() throws Exception{
+	  FxRateTable fxRates = new FxRateTable("EUR", "", 0, 0);
+	  fxRates.update(Collections.singletonMap("USD", new BigDecimal("1.25")));
+	  AccountsRepositoryInMemory accountRepository = new AccountsRepositoryInMemory();
+	  accountRepository.setFxRates(fxRates);
+	  EmailNotificationService notificationService = mock(EmailNotificationService.class);
+	  AccountsService accService = new AccountsService(accountRepository, notificationService);
+	  accService.setFxRates(fxRates);
+	  Account accountFrom = new Account("Id-FxFrom", new BigDecimal("1000.00"));
+	  Account accountTo = new Account("Id-FxTo", new BigDecimal("1000.00"), "USD");
+	  accService.createAccount(accountFrom);
+	  accService.createAccount(accountTo);
+
+	  assertThat(accService.transferAmount(null, "Id-FxFrom", "Id-FxTo", new BigDecimal("100.00")))
+		  .isEqualTo(TransferResult.SUCCESS);
+	  TransferAmount batched = new TransferAmount();
+	  batched.setAccountIdFrom("Id-FxTo");
+	  batched.setAccountIdTo("Id-FxFrom");
+	  batched.setBalance(new BigDecimal("25.00"));
+	  assertThat(accService.transferBatch(Collections.singletonList(batched), false))
+		  .containsExactly(TransferResult.SUCCESS);
+
+	  verify(notificationService).notifyAboutTransfer(accountFrom, "100.00 EUR debited and credited to account id Id-FxTo");
+	  verify(notificationService).notifyAboutTransfer(accountTo, "125.00 USD credited into the account from account id Id-FxFrom");
+	  verify(notificationService).notifyAboutTransfer(accountTo, "25.00 USD debited and credited to account id Id-FxFrom");
+	  verify(notificationService).notifyAboutTransfer(accountFrom, "20.00 EUR credited into the account from account id Id-FxTo");
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testTransferMetricsAreRecorded() throws Exception{
+	  this.accountsService.createAccount(new Account("Id-MetricsFrom", new BigDecimal(100)));
+	  this.accountsService.createAccount(new Account("Id-MetricsTo", new BigDecimal(100)));
+	  long transfersBefore = transferMetrics.getTransfers();
+
+	  this.accountsService.transferAmount("Id-MetricsFrom", "Id-MetricsTo", new BigDecimal(60));
+	  this.accountsService.transferAmount("Id-MetricsFrom", "Id-MetricsTo", new BigDecimal(60));
+
+	  Map<String, Object> snapshot = transferMetrics.snapshot();
+	  assertThat(transferMetrics.getTransfers()).isEqualTo(transfersBefore + 1);
+	  assertThat((Map<String, Object>) snapshot.get("rejected")).containsKey("INSUFFICIENT_BALANCE");
+	  assertThat((Long) ((Map<String, Object>) snapshot.get("rejected")).get("INSUFFICIENT_BALANCE")).isGreaterThan(0L);
+	  assertThat((Long) ((Map<String, Object>) snapshot.get("latencyMicros")).get("count")).isGreaterThanOrEqualTo(2L);
+  }
+
+  @Test
+  public void testTransfersOverTheRateLimitAreRejected() throws Exception{
+	  AccountsRepository accountRepository = mock(AccountsRepository.class);
+	  when(accountRepository.tryTransferWithReceipt(any(), any(), any()))
+		  .thenReturn(new TransferReceipt(TransferResult.SUCCESS, BigDecimal.ONE, null, BigDecimal.ONE, null));
+	  when(accountRepository.getAccount(any())).thenReturn(new Account("Id-To"));
+	  AccountsService accService = new AccountsService(accountRepository, mock(EmailNotificationService.class));
+	  //two transfers per account at once, the limit is refilled at one per second
+	  accService.setTransferRateLimiter(new TransferRateLimiter(0, 0, 1, 2, 100));
+
+	  assertThat(accService.transferAmount(null, "Id-Flood", "Id-To", BigDecimal.ONE)).isEqualTo(TransferResult.SUCCESS);
+	  assertThat(accService.transferAmount(null, "Id-Flood", "Id-To", BigDecimal.ONE)).isEqualTo(TransferResult.SUCCESS);
+	  assertThat(accService.transferAmount(null, "Id-Flood", "Id-To", BigDecimal.ONE))
+		  .isEqualTo(TransferResult.RATE_LIMITED);
+	  //other accounts are not throttled by the flood
+	  assertThat(accService.transferAmount(null, "Id-Quiet", "Id-To", BigDecimal.ONE)).isEqualTo(TransferResult.SUCCESS);
+	  verify(accountRepository, times(3)).tryTransferWithReceipt(any(), any(), any());
+
+	  TransferAmount limited = new TransferAmount();
+	  limited.setAccountIdFrom("Id-Flood");
+	  limited.setAccountIdTo("Id-To");
+	  limited.setBalance(BigDecimal.ONE);
+	  TransferAmount allowed = new TransferAmount();
+	  allowed.setAccountIdFrom("Id-Quiet");
+	  allowed.setAccountIdTo("Id-To");
+	  allowed.setBalance(BigDecimal.ONE);
+	  assertThat(accService.transferBatch(Arrays.asList(allowed, limited), true))
+		  .containsExactly(TransferResult.BATCH_ABORTED, TransferResult.RATE_LIMITED);
+	  verify(accountRepository, never()).tryTransferBatchWithReceipts(any(), anyBoolean());
+  }
+
+  @Test
+  public void testRetriedTransferIdIsAnsweredOverTheRateLimit() throws Exception{
+	  AccountsRepository accountRepository = mock(AccountsRepository.class);
+	  when(accountRepository.tryTransferWithReceipt(any(), any(), any()))
+		  .thenReturn(new TransferReceipt(TransferResult.SUCCESS, BigDecimal.ONE, null, BigDecimal.ONE, null));
+	  when(accountRepository.getAccount(any())).thenReturn(new Account("Id-To"));
+	  AccountsService accService = new AccountsService(accountRepository, mock(EmailNotificationService.class));
+	  accService.setTransferIdCache(new TransferIdCache(100, 60, 1));
+	  //one transfer per account at once, the limit is refilled at one per second
+	  accService.setTransferRateLimiter(new TransferRateLimiter(0, 0, 1, 1, 100));
+
+	  assertThat(accService.transferAmount("transfer-done", "Id-Retry", "Id-To", BigDecimal.ONE))
+		  .isEqualTo(TransferResult.SUCCESS);
+	  //the bucket is empty now, retries still get the recorded outcome and do not spend a token
+	  assertThat(accService.transferAmount("transfer-done", "Id-Retry", "Id-To", BigDecimal.ONE))
+		  .isEqualTo(TransferResult.SUCCESS);
+	  TransferAmount retried = new TransferAmount();
+	  retried.setTransferId("transfer-done");
+	  retried.setAccountIdFrom("Id-Retry");
+	  retried.setAccountIdTo("Id-To");
+	  retried.setBalance(BigDecimal.ONE);
+	  assertThat(accService.transferBatch(Collections.singletonList(retried), true))
+		  .containsExactly(TransferResult.SUCCESS);
+	  //a new id is refused and released, so it is refused again rather than reported in progress
+	  assertThat(accService.transferAmount("transfer-new", "Id-Retry", "Id-To", BigDecimal.ONE))
+		  .isEqualTo(TransferResult.RATE_LIMITED);
+	  assertThat(accService.transferAmount("transfer-new", "Id-Retry", "Id-To", BigDecimal.ONE))
+		  .isEqualTo(TransferResult.RATE_LIMITED);
+	  verify(accountRepository, times(1)).tryTransferWithReceipt(any(), any(), any());
+	  verify(accountRepository, never()).tryTransferBatchWithReceipts(any(), anyBoolean());
+  }
+
+  @Test
+  public void testAsyncNotificationsAreCoalescedPerAccount() throws Exception{
+	  EmailNotificationService emailService = mock(EmailNotificationService.class);
+	  AsyncNotificationService notificationService = new AsyncNotificationService(emailService, 100, 200, 100,
+		  AsyncNotificationService.OverflowPolicy.BLOCK, 100);
+	  notificationService.start();
+	  Account account = new Account("Id-Notify");
+	  notificationService.notifyAboutTransfer(account, "first");
+	  notificationService.notifyAboutTransfer(account, "second");
+	  notificationService.notifyAboutTransfer(new Account("Id-Other"), "third");
+	  notificationService.stop();
+
+	  verify(emailService).notifyAboutTransfer(account, "first\nsecond");
+	  verify(emailService, times(2)).notifyAboutTransfer(any(), any());
+	  assertThat(notificationService.getQueueDepth()).isEqualTo(0);
+  }
   
 }
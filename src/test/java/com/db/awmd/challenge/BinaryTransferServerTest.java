@@ -0,0 +1,98 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransferIdCache;
+import com.db.awmd.challenge.web.BinaryTransferServer;
+
+public class BinaryTransferServerTest {
+
+  private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+
+  private BinaryTransferServer server;
+
+  @After
+  public void tearDown() throws Exception {
+    server.destroy();
+  }
+
+  @Test
+  public void answersPipelinedRequestsInOrder() throws Exception {
+    AccountsService accountsService = new AccountsService(repository, (account, description) -> {
+    });
+    accountsService.setTransferIdCache(new TransferIdCache(1000, 60, 4));
+    server = new BinaryTransferServer(accountsService, "127.0.0.1", 0, 4);
+    repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+
+    try (Socket socket = new Socket("127.0.0.1", server.getLocalPort())) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out.writeInt(BinaryTransferServer.MAGIC);
+      request(out, 1, 4000, 2, "", "Id-1", "Id-2", "t-1");
+      // a retry with the same transfer id is not applied again
+      request(out, 2, 4000, 2, "", "Id-1", "Id-2", "t-1");
+      request(out, 3, 5, 1, "", "Id-1", "Id-2", "");
+      request(out, 4, 1, 0, "eur", "Id-1", "Id-2", "");
+      request(out, 5, 1000, 0, "", "Id-2", "Id-1", "");
+      // an account id longer than the request is refused, the requests after it are still read
+      out.writeInt(28);
+      out.writeLong(6);
+      out.writeLong(1);
+      out.write(new byte[4]);
+      out.writeShort(500);
+      out.write(new byte[] { 'I', 'd', '-', '1', 0, 0 });
+      request(out, 7, 1, 0, "", "Id-1", "Id-3", "");
+      out.flush();
+
+      assertThat(response(in, 1)).isEqualTo(TransferResult.SUCCESS);
+      assertThat(response(in, 2)).isEqualTo(TransferResult.SUCCESS);
+      assertThat(response(in, 3)).isEqualTo(TransferResult.INVALID_REQUEST);
+      assertThat(response(in, 4)).isEqualTo(TransferResult.INVALID_REQUEST);
+      assertThat(response(in, 5)).isEqualTo(TransferResult.INSUFFICIENT_BALANCE);
+      assertThat(response(in, 6)).isEqualTo(TransferResult.INVALID_REQUEST);
+      assertThat(response(in, 7)).isEqualTo(TransferResult.ACCOUNT_TO_NOT_FOUND);
+    }
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("60");
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("40");
+  }
+
+  private static void request(DataOutputStream out, long requestId, long unscaled, int scale, String currency,
+    String accountIdFrom, String accountIdTo, String transferId) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream request = new DataOutputStream(bytes);
+    request.writeLong(requestId);
+    request.writeLong(unscaled);
+    request.writeByte(scale);
+    request.write(currency.isEmpty() ? new byte[3] : currency.getBytes(StandardCharsets.US_ASCII));
+    for (String id : new String[] { accountIdFrom, accountIdTo, transferId }) {
+      byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+      request.writeShort(encoded.length);
+      request.write(encoded);
+    }
+    out.writeInt(bytes.size());
+    bytes.writeTo(out);
+  }
+
+  private static TransferResult response(DataInputStream in, long requestId) throws IOException {
+    assertThat(in.readLong()).isEqualTo(requestId);
+    return BinaryTransferServer.result(in.readByte());
+  }
+}
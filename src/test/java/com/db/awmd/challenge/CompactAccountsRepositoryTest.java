@@ -0,0 +1,150 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.repository.CompactAccountsRepository;
+
+public class CompactAccountsRepositoryTest {
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  public void keepsAccountsWhileTheTableGrows() {
+    CompactAccountsRepository repository = new CompactAccountsRepository();
+    String longId = "Id-with-an-id-too-long-for-a-slot-";
+    for (int i = 0; i < 50_000; i++) {
+      String accountId = (i % 10 == 0 ? longId : "Id-") + i;
+      repository.createAccount(new Account(accountId, new BigDecimal(i).movePointLeft(2)));
+    }
+
+    assertThat(repository.getAccount("Id-12345").getBalance()).isEqualByComparingTo("123.45");
+    assertThat(repository.getAccount(longId + 40000).getBalance()).isEqualByComparingTo("400.00");
+    assertThat(repository.getAccount("Id-50001")).isNull();
+    Map<String, BigDecimal> exported = new HashMap<>();
+    repository.forEachAccount(account -> exported.put(account.getAccountId(), account.getBalance()));
+    assertThat(exported).hasSize(50_000);
+    assertThat(exported.get(longId + 49990)).isEqualByComparingTo("499.90");
+
+    repository.clearAccounts();
+    assertThat(repository.getAccount("Id-12345")).isNull();
+  }
+
+  @Test
+  public void rejectsDuplicatesAndBalancesBeyondTheScale() {
+    CompactAccountsRepository repository = new CompactAccountsRepository();
+    repository.createAccount(new Account("Id-A", BigDecimal.ONE));
+    try {
+      repository.createAccount(new Account("Id-A", BigDecimal.TEN));
+      fail("Should have failed when adding duplicate account");
+    } catch (DuplicateAccountIdException ex) {
+      assertThat(ex.getMessage()).isEqualTo("Account id Id-A already exists!");
+    }
+    try {
+      repository.createAccount(new Account("Id-B", new BigDecimal("0.001")));
+      fail("Should have failed for a balance with more decimal places than the scale");
+    } catch (InvalidAmountException ex) {
+      assertThat(repository.getAccount("Id-B")).isNull();
+    }
+  }
+
+  @Test
+  public void tryTransferReportsTheSameResultsAsTheLockingRepository() {
+    CompactAccountsRepository repository = new CompactAccountsRepository();
+    repository.createAccount(new Account("Id-A", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-B", BigDecimal.ZERO));
+
+    assertThat(repository.tryTransfer("Id-C", "Id-B", BigDecimal.TEN)).isEqualTo(TransferResult.ACCOUNT_FROM_NOT_FOUND);
+    assertThat(repository.tryTransfer("Id-A", "Id-C", BigDecimal.TEN)).isEqualTo(TransferResult.ACCOUNT_TO_NOT_FOUND);
+    assertThat(repository.tryTransfer("Id-A", "Id-A", BigDecimal.TEN)).isEqualTo(TransferResult.SAME_ACCOUNT);
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal(101)))
+      .isEqualTo(TransferResult.INSUFFICIENT_BALANCE);
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal("0.001")))
+      .isEqualTo(TransferResult.AMOUNT_OUT_OF_RANGE);
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal("60.25"))).isEqualTo(TransferResult.SUCCESS);
+
+    // views are detached, only the repository's own state counts
+    Account view = repository.getAccount("Id-A");
+    view.setBalance(BigDecimal.ZERO);
+    assertThat(repository.getAccount("Id-A").getBalance()).isEqualByComparingTo("39.75");
+    assertThat(repository.getAccount("Id-B").getBalance()).isEqualByComparingTo("60.25");
+  }
+
+  @Test
+  public void atomicBatchAppliesNothingOnFailure() {
+    CompactAccountsRepository repository = new CompactAccountsRepository();
+    for (int i = 1; i <= 4; i++) {
+      repository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+
+    TransferResult[] results = repository.tryTransferBatch(Arrays.asList(
+      transfer("Id-1", "Id-2", 600), transfer("Id-3", "Id-1", 300), transfer("Id-1", "Id-4", 800)), true);
+
+    assertThat(results).containsExactly(TransferResult.BATCH_ABORTED, TransferResult.BATCH_ABORTED,
+      TransferResult.INSUFFICIENT_BALANCE);
+    for (int i = 1; i <= 4; i++) {
+      assertThat(repository.getAccount("Id-" + i).getBalance()).isEqualByComparingTo(INITIAL_BALANCE);
+    }
+  }
+
+  @Test
+  public void concurrentTransfersConserveMoney() throws Exception {
+    CompactAccountsRepository repository = new CompactAccountsRepository();
+    int accounts = 200;
+    for (int i = 0; i < accounts; i++) {
+      repository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 20_000; i++) {
+          repository.tryTransfer("Id-" + random.nextInt(accounts), "Id-" + random.nextInt(accounts),
+            new BigDecimal(random.nextInt(300)));
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      BigDecimal balance = repository.getAccount("Id-" + i).getBalance();
+      assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(accounts)));
+  }
+
+  private static TransferAmount transfer(String from, String to, int amount) {
+    TransferAmount transfer = new TransferAmount();
+    transfer.setAccountIdFrom(from);
+    transfer.setAccountIdTo(to);
+    transfer.setBalance(new BigDecimal(amount));
+    return transfer;
+  }
+}
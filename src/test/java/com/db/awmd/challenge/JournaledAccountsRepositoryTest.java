@@ -0,0 +1,255 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.FxRateTable;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+
+public class JournaledAccountsRepositoryTest {
+
+  private static final int ACCOUNTS = 100;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void restoresAccountsAfterRestart() throws Exception {
+    File journal = new File(folder.getRoot(), "journal");
+
+    JournaledAccountsRepository repository = open(journal, true);
+    repository.createAccount(new Account("Id-1", new BigDecimal("100.50")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("20")));
+    assertThat(repository.tryTransfer("Id-1", "Id-2", new BigDecimal("40.25"))).isEqualTo(TransferResult.SUCCESS);
+    assertThat(repository.tryTransfer("Id-2", "Id-1", new BigDecimal("1000")))
+      .isEqualTo(TransferResult.INSUFFICIENT_BALANCE);
+    repository.destroy();
+
+    JournaledAccountsRepository restarted = open(journal, true);
+    assertThat(restarted.getAccount("Id-1").getBalance()).isEqualByComparingTo("60.25");
+    assertThat(restarted.getAccount("Id-2").getBalance()).isEqualByComparingTo("60.25");
+
+    // appends after a replay continue the same log
+    restarted.tryTransfer("Id-2", "Id-1", new BigDecimal("0.25"));
+    restarted.destroy();
+    JournaledAccountsRepository again = open(journal, true);
+    assertThat(again.getAccount("Id-1").getBalance()).isEqualByComparingTo("60.50");
+    again.destroy();
+  }
+
+  @Test
+  public void restoresCurrenciesAndConvertedAmounts() throws Exception {
+    File journal = new File(folder.getRoot(), "journal");
+    FxRateTable fxRates = new FxRateTable("EUR", "", 60_000, 0);
+    fxRates.update(Collections.singletonMap("JPY", new BigDecimal("160.5")));
+
+    JournaledAccountsRepository repository = open(journal, true);
+    repository.setFxRates(fxRates);
+    repository.createAccount(new Account("Id-EUR", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-JPY", BigDecimal.ZERO, "JPY"));
+    assertThat(repository.tryTransfer("Id-EUR", "Id-JPY", new BigDecimal("1.01"))).isEqualTo(TransferResult.SUCCESS);
+    repository.writeSnapshot();
+    assertThat(repository.tryTransfer("Id-EUR", "Id-JPY", new BigDecimal("2"))).isEqualTo(TransferResult.SUCCESS);
+    repository.destroy();
+
+    // replay applies the recorded amounts, it needs no rates
+    JournaledAccountsRepository restarted = open(journal, true);
+    assertThat(restarted.getAccount("Id-EUR").getBalance()).isEqualByComparingTo("96.99");
+    assertThat(restarted.getAccount("Id-EUR").getCurrency()).isNull();
+    assertThat(restarted.getAccount("Id-JPY").getBalance()).isEqualByComparingTo("483");
+    assertThat(restarted.getAccount("Id-JPY").getCurrency()).isEqualTo("JPY");
+    assertThat(restarted.takeBalanceCut().getDrift()).isEmpty();
+    restarted.destroy();
+  }
+
+  @Test
+  public void restoresFromSnapshotAndJournalTail() throws Exception {
+    File journal = new File(folder.getRoot(), "journal");
+
+    JournaledAccountsRepository repository = open(journal, false);
+    repository.createAccount(new Account("Id-1", new BigDecimal(100_000)));
+    repository.createAccount(new Account("Id-2", new BigDecimal(100_000)));
+    // enough records to fill a few 1 MB segments
+    for (int i = 0; i < 60_000; i++) {
+      repository.tryTransfer(i % 2 == 0 ? "Id-1" : "Id-2", i % 2 == 0 ? "Id-2" : "Id-1", BigDecimal.ONE);
+    }
+    repository.tryTransfer("Id-1", "Id-2", new BigDecimal(7));
+    int segmentsBefore = journal.list().length;
+    repository.writeSnapshot();
+    assertThat(journal.list().length).isLessThan(segmentsBefore);
+
+    repository.tryTransfer("Id-2", "Id-1", new BigDecimal(2));
+    repository.createAccount(new Account("Id-3", new BigDecimal(5)));
+    repository.destroy();
+
+    JournaledAccountsRepository restarted = open(journal, true);
+    assertThat(restarted.getAccount("Id-1").getBalance()).isEqualByComparingTo("99995");
+    assertThat(restarted.getAccount("Id-2").getBalance()).isEqualByComparingTo("100005");
+    assertThat(restarted.getAccount("Id-3").getBalance()).isEqualByComparingTo("5");
+    restarted.destroy();
+  }
+
+  @Test
+  public void concurrentTransfersWithGroupCommitAreRestored() throws Exception {
+    File journal = new File(folder.getRoot(), "journal");
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    JournaledAccountsRepository repository = open(journal, true);
+    runTransfers(repository, threads);
+    List<BigDecimal> balances = balances(repository);
+    repository.destroy();
+
+    JournaledAccountsRepository restarted = open(journal, true);
+    assertThat(balances(restarted)).isEqualTo(balances);
+    assertThat(balances.stream().reduce(BigDecimal.ZERO, BigDecimal::add))
+      .isEqualByComparingTo(new BigDecimal(ACCOUNTS * 1_000_000L));
+    restarted.destroy();
+  }
+
+  @Test
+  public void clearsRacingTransfersAreRestored() throws Exception {
+    File journal = new File(folder.getRoot(), "journal");
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    JournaledAccountsRepository repository = open(journal, false);
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+    }
+    AtomicBoolean stop = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; !stop.get(); i++) {
+          repository.tryTransfer("Id-" + ((offset + i) % ACCOUNTS), "Id-" + ((offset + i + 1) % ACCOUNTS),
+            BigDecimal.ONE);
+        }
+      }));
+    }
+    // each clear lands between transfers, the ones after it fail until the accounts are back
+    for (int round = 0; round < 20; round++) {
+      Thread.sleep(5);
+      repository.clearAccounts();
+      for (int i = 0; i < ACCOUNTS; i++) {
+        repository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+      }
+    }
+    stop.set(true);
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    List<BigDecimal> balances = balances(repository);
+    repository.destroy();
+
+    JournaledAccountsRepository restarted = open(journal, true);
+    assertThat(balances(restarted)).isEqualTo(balances);
+    restarted.destroy();
+  }
+
+  @Test
+  public void refusesSegmentsTooLargeToMap() throws Exception {
+    try {
+      // 2048 MB overflows an int
+      new JournaledAccountsRepository(-1, new File(folder.getRoot(), "journal").getPath(), 2048, 2, true,
+        new File(folder.getRoot(), "journal.snapshot").getPath(), 0);
+      fail("Expected the segment size to be refused");
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected.getMessage()).contains("2047");
+    }
+  }
+
+  @Test
+  public void mutationsThatCannotBeJournaledAreNotApplied() throws Exception {
+    JournaledAccountsRepository repository = open(new File(folder.getRoot(), "journal"), true);
+    repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-2", new BigDecimal(100)));
+    // appends to a closed journal fail like a full disk would
+    repository.destroy();
+
+    assertThrows(() -> repository.tryTransfer("Id-1", "Id-2", BigDecimal.TEN));
+    assertThrows(() -> repository.tryTransferBatch(Arrays.asList(
+      transfer("Id-1", "Id-2", 10), transfer("Id-2", "Id-1", 30)), true));
+    assertThrows(() -> repository.tryTransferBatch(Arrays.asList(
+      transfer("Id-1", "Id-2", 10), transfer("Id-2", "Id-1", 30)), false));
+    assertThrows(() -> repository.createAccount(new Account("Id-3", BigDecimal.ONE)));
+    assertThrows(repository::clearAccounts);
+
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("100");
+    assertThat(repository.getAccount("Id-3")).isNull();
+    assertThat(repository.takeBalanceCut().isConsistent()).isTrue();
+  }
+
+  private JournaledAccountsRepository open(File journal, boolean syncCommit) throws Exception {
+    return new JournaledAccountsRepository(-1, journal.getPath(), 1, 2, syncCommit,
+      new File(journal.getParentFile(), journal.getName() + ".snapshot").getPath(), 0);
+  }
+
+  private void runTransfers(AccountsRepository repository, int threads) throws Exception {
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 2_000; i++) {
+          repository.tryTransfer("Id-" + ((offset + i) % ACCOUNTS), "Id-" + ((offset + i + 1) % ACCOUNTS),
+            new BigDecimal(1 + (offset + i) % 7));
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+  }
+
+  private static List<BigDecimal> balances(AccountsRepository repository) {
+    List<BigDecimal> balances = new ArrayList<>();
+    for (int i = 0; i < ACCOUNTS; i++) {
+      balances.add(repository.getAccount("Id-" + i).getBalance());
+    }
+    return balances;
+  }
+
+  private static TransferAmount transfer(String from, String to, int amount) {
+    TransferAmount transfer = new TransferAmount();
+    transfer.setAccountIdFrom(from);
+    transfer.setAccountIdTo(to);
+    transfer.setBalance(new BigDecimal(amount));
+    return transfer;
+  }
+
+  private static void assertThrows(Runnable mutation) {
+    try {
+      mutation.run();
+      fail("Expected the journal append to fail");
+    } catch (UncheckedIOException expected) {
+      // the journal is closed
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.service.AccountsService;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = LeanChallengeApplication.class, properties = {
+  "startup.warmup.transfers=1000", "transfers.schedule.path=" })
+@ActiveProfiles("lean")
+@WebAppConfiguration
+public class LeanChallengeApplicationTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private WebApplicationContext webApplicationContext;
+
+  @Test
+  public void servesTransfersAndReportsUpOnceWarmedUp() throws Exception {
+    MockMvc mockMvc = webAppContextSetup(webApplicationContext).build();
+    accountsService.getAccountsRepository().clearAccounts();
+    mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountId\":\"Id-1\",\"balance\":100}")).andExpect(status().isCreated());
+    mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountId\":\"Id-2\",\"balance\":0}")).andExpect(status().isCreated());
+    mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountIdFrom\":\"Id-1\",\"accountIdTo\":\"Id-2\",\"balance\":40}")).andExpect(status().isOk());
+
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("40");
+    assertThat(accountsService.getAccount("warmup-0")).isNull();
+    mockMvc.perform(get("/health"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.status").value("UP"));
+  }
+}
@@ -0,0 +1,125 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.StandbyReadOnlyException;
+import com.db.awmd.challenge.repository.ReplicatedAccountsRepository;
+
+public class ReplicatedAccountsRepositoryTest {
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  private final List<ReplicatedAccountsRepository> instances = new ArrayList<>();
+
+  @After
+  public void tearDown() throws Exception {
+    for (ReplicatedAccountsRepository instance : instances) {
+      instance.destroy();
+    }
+  }
+
+  @Test
+  public void standbyFollowsThePrimaryAndRefusesWrites() throws Exception {
+    ReplicatedAccountsRepository primary = primary();
+    int accounts = 50;
+    for (int i = 0; i < accounts; i++) {
+      primary.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+    // joins while transfers are running, so it starts from an image that is not a single point in time
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 20_000; i++) {
+          primary.tryTransfer("Id-" + random.nextInt(accounts), "Id-" + random.nextInt(accounts),
+            new BigDecimal(random.nextInt(100)));
+        }
+      }));
+    }
+    ReplicatedAccountsRepository standby = standbyOf(primary);
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    primary.createAccount(new Account("Id-Late", BigDecimal.TEN));
+
+    awaitCaughtUp(primary, standby);
+    for (int i = 0; i < accounts; i++) {
+      assertThat(standby.getAccount("Id-" + i).getBalance())
+        .isEqualByComparingTo(primary.getAccount("Id-" + i).getBalance());
+    }
+    assertThat(standby.getAccount("Id-Late").getBalance()).isEqualByComparingTo("10");
+    // halves of transfers the image already had are not counted twice
+    assertThat(standby.takeBalanceCut().getDrift()).isEmpty();
+    assertThat(primary.takeBalanceCut().getDrift()).isEmpty();
+    try {
+      standby.tryTransfer("Id-0", "Id-1", BigDecimal.ONE);
+      fail("Should have refused a transfer on the standby");
+    } catch (StandbyReadOnlyException sroe) {
+      assertThat(sroe.getMessage()).isEqualTo("Standby is read only until it is promoted");
+    }
+  }
+
+  @Test
+  public void promotedStandbyTakesWritesAndShipsThemToTheNextStandby() throws Exception {
+    ReplicatedAccountsRepository primary = primary();
+    primary.createAccount(new Account("Id-A", INITIAL_BALANCE));
+    primary.createAccount(new Account("Id-B", INITIAL_BALANCE));
+    ReplicatedAccountsRepository standby = standbyOf(primary);
+    assertThat(primary.tryTransfer("Id-A", "Id-B", new BigDecimal(100))).isEqualTo(TransferResult.SUCCESS);
+    awaitCaughtUp(primary, standby);
+
+    primary.destroy();
+    standby.promote();
+    assertThat(standby.getRole()).isEqualTo(ReplicatedAccountsRepository.Role.PRIMARY);
+    assertThat(standby.tryTransfer("Id-B", "Id-A", new BigDecimal(50))).isEqualTo(TransferResult.SUCCESS);
+
+    ReplicatedAccountsRepository next = standbyOf(standby);
+    awaitCaughtUp(standby, next);
+    assertThat(next.getAccount("Id-A").getBalance()).isEqualByComparingTo("950");
+    assertThat(next.getAccount("Id-B").getBalance()).isEqualByComparingTo("1050");
+  }
+
+  private ReplicatedAccountsRepository primary() throws Exception {
+    ReplicatedAccountsRepository primary = new ReplicatedAccountsRepository(-1, "primary", "127.0.0.1", 0, "", 1024,
+      64, 100);
+    instances.add(primary);
+    return primary;
+  }
+
+  private ReplicatedAccountsRepository standbyOf(ReplicatedAccountsRepository primary) throws Exception {
+    ReplicatedAccountsRepository standby = new ReplicatedAccountsRepository(-1, "standby", "127.0.0.1", 0,
+      "127.0.0.1:" + primary.getReplicationPort(), 1024, 64, 100);
+    instances.add(standby);
+    return standby;
+  }
+
+  private void awaitCaughtUp(ReplicatedAccountsRepository primary, ReplicatedAccountsRepository standby)
+    throws InterruptedException {
+    Object sequence = primary.replicationStatus().get("sequence");
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!sequence.equals(standby.replicationStatus().get("appliedSequence"))) {
+      if (System.nanoTime() > deadline) {
+        fail("Standby did not catch up with sequence " + sequence + ": " + standby.replicationStatus());
+      }
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.ShardedAccountsRepository;
+
+public class ShardedAccountsRepositoryTest {
+
+  private static final int ACCOUNTS = 200;
+  private static final int TRANSFERS_PER_THREAD = 20_000;
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  public void concurrentCrossShardTransfersConserveMoney() throws Exception {
+    ShardedAccountsRepository repository = prepareRepository(new ShardedAccountsRepository(4));
+    runTransfers(repository, Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = repository.getAccount("Id-" + i);
+      assertThat(account.getBalance().signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(account.getBalance());
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(ACCOUNTS)));
+    repository.destroy();
+  }
+
+  @Test
+  public void tryTransferReportsTheSameResultsAsTheLockingRepository() throws Exception {
+    ShardedAccountsRepository repository = new ShardedAccountsRepository(4);
+    repository.createAccount(new Account("Id-A", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-B", BigDecimal.ZERO));
+
+    assertThat(repository.tryTransfer("Id-C", "Id-B", BigDecimal.TEN)).isEqualTo(TransferResult.ACCOUNT_FROM_NOT_FOUND);
+    assertThat(repository.tryTransfer("Id-A", "Id-C", BigDecimal.TEN)).isEqualTo(TransferResult.ACCOUNT_TO_NOT_FOUND);
+    assertThat(repository.tryTransfer("Id-A", "Id-A", BigDecimal.TEN)).isEqualTo(TransferResult.SAME_ACCOUNT);
+    assertThat(repository.tryTransfer("Id-A", "Id-B", new BigDecimal(101)))
+      .isEqualTo(TransferResult.INSUFFICIENT_BALANCE);
+    assertThat(repository.tryTransferAsync("Id-A", "Id-B", new BigDecimal(60)).get(5, TimeUnit.SECONDS))
+      .isEqualTo(TransferResult.SUCCESS);
+
+    assertThat(repository.getAccount("Id-A").getBalance()).isEqualByComparingTo("40");
+    assertThat(repository.getAccount("Id-B").getBalance()).isEqualByComparingTo("60");
+    repository.destroy();
+  }
+
+  @Test
+  public void atomicBatchAcrossShardsAppliesNothingOnFailure() throws Exception {
+    ShardedAccountsRepository repository = prepareRepository(new ShardedAccountsRepository(4));
+
+    TransferResult[] results = repository.tryTransferBatch(Arrays.asList(
+      transfer("Id-1", "Id-2", 600), transfer("Id-3", "Id-1", 300), transfer("Id-1", "Id-4", 800)), true);
+
+    assertThat(results).containsExactly(TransferResult.BATCH_ABORTED, TransferResult.BATCH_ABORTED,
+      TransferResult.INSUFFICIENT_BALANCE);
+    for (int i = 1; i <= 4; i++) {
+      assertThat(repository.getAccount("Id-" + i).getBalance()).isEqualByComparingTo(INITIAL_BALANCE);
+    }
+    repository.destroy();
+  }
+
+  private ShardedAccountsRepository prepareRepository(ShardedAccountsRepository repository) {
+    for (int i = 0; i < ACCOUNTS; i++) {
+      repository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+    return repository;
+  }
+
+  private TransferAmount transfer(String from, String to, int amount) {
+    TransferAmount transfer = new TransferAmount();
+    transfer.setAccountIdFrom(from);
+    transfer.setAccountIdTo(to);
+    transfer.setBalance(new BigDecimal(amount));
+    return transfer;
+  }
+
+  private void runTransfers(ShardedAccountsRepository repository, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        start.await();
+        for (int i = 0; i < TRANSFERS_PER_THREAD / 10; i++) {
+          repository.tryTransfer("Id-" + random.nextInt(ACCOUNTS), "Id-" + random.nextInt(ACCOUNTS),
+            new BigDecimal(1 + random.nextInt(50)));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+  }
+}
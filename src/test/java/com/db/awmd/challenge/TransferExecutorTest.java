@@ -0,0 +1,62 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.exception.ServiceOverloadedException;
+import com.db.awmd.challenge.service.TransferExecutor;
+
+public class TransferExecutorTest {
+
+  @Test
+  public void refusesWorkWhenTheQueueIsFull() throws Exception {
+    TransferExecutor executor = new TransferExecutor(1, 1, 5000);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Boolean> running = executor.submit(() -> await(release));
+    CompletableFuture<Boolean> queued = executor.submit(() -> true);
+    CompletableFuture<Boolean> refused = executor.submit(() -> true);
+
+    assertThat(causeOf(refused)).isInstanceOf(ServiceOverloadedException.class);
+    release.countDown();
+    assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+    executor.stop();
+  }
+
+  @Test
+  public void dropsWorkThatWaitedLongerThanTheTimeout() throws Exception {
+    TransferExecutor executor = new TransferExecutor(1, 10, 50);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.submit(() -> await(release));
+    CompletableFuture<Boolean> queued = executor.submit(() -> true);
+
+    Thread.sleep(100);
+    release.countDown();
+    assertThat(causeOf(queued)).isInstanceOf(TimeoutException.class);
+    executor.stop();
+  }
+
+  private static boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ie) {
+      throw new IllegalStateException(ie);
+    }
+  }
+
+  private static Throwable causeOf(CompletableFuture<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      return null;
+    } catch (ExecutionException ee) {
+      return ee.getCause();
+    }
+  }
+}
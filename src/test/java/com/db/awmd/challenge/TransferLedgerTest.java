@@ -0,0 +1,129 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountStatement;
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.domain.TransferAmount;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.FxRateTable;
+import com.db.awmd.challenge.repository.TransferLedger;
+
+public class TransferLedgerTest {
+
+  @Test
+  public void statementPagesNewestFirst() {
+    TransferLedger ledger = new TransferLedger(1024);
+    for (int i = 1; i <= 5; i++) {
+      ledger.record("Id-A", "Id-B", new BigDecimal(i));
+      ledger.record("Id-C", "Id-D", BigDecimal.ONE);
+    }
+
+    AccountStatement first = ledger.statement("Id-B", 0, Long.MAX_VALUE, 0, 2);
+    assertThat(first.getTransactions()).hasSize(2);
+    assertThat(first.getTransactions().get(0).getAmount()).isEqualByComparingTo("5");
+    assertThat(first.getTransactions().get(1).getAmount()).isEqualByComparingTo("4");
+    assertThat(first.getNextCursor()).isNotNull();
+
+    AccountStatement second = ledger.statement("Id-B", 0, Long.MAX_VALUE, first.getNextCursor(), 2);
+    assertThat(second.getTransactions().get(0).getAmount()).isEqualByComparingTo("3");
+    AccountStatement last = ledger.statement("Id-B", 0, Long.MAX_VALUE, second.getNextCursor(), 2);
+    assertThat(last.getTransactions()).hasSize(1);
+    assertThat(last.getNextCursor()).isNull();
+
+    LedgerEntry entry = last.getTransactions().get(0);
+    assertThat(entry.getAccountIdFrom()).isEqualTo("Id-A");
+    assertThat(entry.getAccountIdTo()).isEqualTo("Id-B");
+    assertThat(entry.getAmount()).isEqualByComparingTo("1");
+  }
+
+  @Test
+  public void statementFiltersByTime() throws Exception {
+    TransferLedger ledger = new TransferLedger(1024);
+    ledger.record("Id-A", "Id-B", BigDecimal.ONE);
+    Thread.sleep(5);
+    long between = System.currentTimeMillis();
+    Thread.sleep(5);
+    ledger.record("Id-A", "Id-B", BigDecimal.TEN);
+
+    assertThat(ledger.statement("Id-A", between, Long.MAX_VALUE, 0, 10).getTransactions()).hasSize(1);
+    assertThat(ledger.statement("Id-A", 0, between, 0, 10).getTransactions().get(0).getAmount())
+      .isEqualByComparingTo("1");
+  }
+
+  @Test
+  public void oldestEntriesAreDroppedBeyondCapacity() {
+    TransferLedger ledger = new TransferLedger(16);
+    for (int i = 1; i <= 100; i++) {
+      ledger.record("Id-A", "Id-B", new BigDecimal(i));
+    }
+    ledger.record("Id-C", "Id-D", new BigDecimal("123456789012345678901234567890.5"));
+
+    AccountStatement statement = ledger.statement("Id-A", 0, Long.MAX_VALUE, 0, 1000);
+    assertThat(statement.getTransactions()).hasSize(15);
+    assertThat(statement.getTransactions().get(14).getAmount()).isEqualByComparingTo("86");
+    assertThat(ledger.statement("Id-C", 0, Long.MAX_VALUE, 0, 10).getTransactions().get(0).getAmount())
+      .isEqualByComparingTo("123456789012345678901234567890.5");
+  }
+
+  @Test
+  public void repositoryRecordsAppliedTransfersOnly() {
+    TransferLedger ledger = new TransferLedger(1024);
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+    repository.setTransferLedger(ledger);
+    repository.createAccount(new Account("Id-A", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-B", BigDecimal.ZERO));
+
+    repository.tryTransfer("Id-A", "Id-B", new BigDecimal(30));
+    repository.tryTransfer("Id-A", "Id-B", new BigDecimal(300));
+
+    assertThat(ledger.statement("Id-A", 0, Long.MAX_VALUE, 0, 10).getTransactions()).hasSize(1);
+    repository.clearAccounts();
+    assertThat(ledger.statement("Id-A", 0, Long.MAX_VALUE, 0, 10).getTransactions()).isEmpty();
+  }
+
+  @Test
+  public void repositoryConvertsTransfersBetweenCurrencies() {
+    TransferLedger ledger = new TransferLedger(1024);
+    FxRateTable fxRates = new FxRateTable("EUR", "", 60_000, 0);
+    fxRates.update(Collections.singletonMap("USD", new BigDecimal("1.1025")));
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+    repository.setTransferLedger(ledger);
+    repository.setFxRates(fxRates);
+    repository.createAccount(new Account("Id-EUR", new BigDecimal(100), "EUR"));
+    repository.createAccount(new Account("Id-USD", BigDecimal.ZERO, "USD"));
+    repository.createAccount(new Account("Id-GBP", BigDecimal.ZERO, "GBP"));
+
+    assertThat(repository.tryTransfer("Id-EUR", "Id-USD", new BigDecimal(10))).isEqualTo(TransferResult.SUCCESS);
+    assertThat(repository.tryTransfer("Id-EUR", "Id-GBP", new BigDecimal(10)))
+      .isEqualTo(TransferResult.FX_RATE_UNAVAILABLE);
+    TransferResult[] results = repository.tryTransferBatch(Arrays.asList(
+      transfer("Id-USD", "Id-EUR", "11.03"), transfer("Id-EUR", "Id-USD", "1000")), true);
+    assertThat(results).containsExactly(TransferResult.INSUFFICIENT_BALANCE, TransferResult.BATCH_ABORTED);
+    repository.tryTransferBatch(Arrays.asList(transfer("Id-USD", "Id-EUR", "1.02")), false);
+
+    // 11.025 rounded half even to cents of USD, 1.02 USD back at the inverse rate is 0.9252 EUR
+    assertThat(repository.getAccount("Id-USD").getBalance()).isEqualByComparingTo("10.00");
+    assertThat(repository.getAccount("Id-EUR").getBalance()).isEqualByComparingTo("90.93");
+    assertThat(repository.getAccount("Id-GBP").getBalance()).isEqualByComparingTo("0");
+    LedgerEntry converted = ledger.statement("Id-USD", 0, Long.MAX_VALUE, 0, 10).getTransactions().get(1);
+    assertThat(converted.getAmount()).isEqualByComparingTo("10");
+    assertThat(converted.getCreditedAmount()).isEqualByComparingTo("11.02");
+  }
+
+  private static TransferAmount transfer(String accountIdFrom, String accountIdTo, String amount) {
+    TransferAmount transfer = new TransferAmount();
+    transfer.setAccountIdFrom(accountIdFrom);
+    transfer.setAccountIdTo(accountIdTo);
+    transfer.setBalance(new BigDecimal(amount));
+    return transfer;
+  }
+}
@@ -0,0 +1,154 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransferRateLimiter;
+import com.db.awmd.challenge.service.TransferScheduler;
+
+public class TransferSchedulerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+
+  private final AccountsService accountsService = new AccountsService(repository, (account, description) -> {
+  });
+
+  private final List<TransferScheduler> schedulers = new ArrayList<>();
+
+  @After
+  public void tearDown() throws Exception {
+    for (TransferScheduler scheduler : schedulers) {
+      scheduler.destroy();
+    }
+  }
+
+  @Test
+  public void runsDueTransfersAndStandingOrders() throws Exception {
+    repository.createAccount(new Account("Id-1", new BigDecimal(1000)));
+    repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+    // one millisecond ticks, so the transfer due in 600 ms is cascaded down from the second level
+    TransferScheduler scheduler = open("", 1);
+    long now = System.currentTimeMillis();
+    scheduler.schedule(transfer(10, now - 1000, 0, 0));
+    scheduler.schedule(transfer(100, now + 600, 0, 0));
+    ScheduledTransfer standingOrder = scheduler.schedule(transfer(1, now, 20, 3));
+    ScheduledTransfer later = scheduler.schedule(transfer(50, now + 60_000, 0, 0));
+
+    awaitBalance("Id-2", "113");
+    assertThat(scheduler.get(standingOrder.getScheduleId())).isNull();
+    assertThat(scheduler.get(later.getScheduleId()).getExecuteAt()).isEqualTo(now + 60_000);
+    assertThat(scheduler.size()).isEqualTo(1);
+    assertThat(scheduler.cancel(later.getScheduleId())).isTrue();
+    assertThat(scheduler.cancel(later.getScheduleId())).isFalse();
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("887");
+  }
+
+  @Test
+  public void scheduleSurvivesRestart() throws Exception {
+    repository.createAccount(new Account("Id-1", new BigDecimal(1000)));
+    repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+    String path = new File(folder.getRoot(), "schedule.log").getPath();
+    long now = System.currentTimeMillis();
+    TransferScheduler scheduler = open(path, 10);
+    ScheduledTransfer later = scheduler.schedule(transfer(10, now + 3_600_000, 0, 0));
+    ScheduledTransfer standingOrder = scheduler.schedule(transfer(1, now + 100, 86_400_000, 12));
+    ScheduledTransfer cancelled = scheduler.schedule(transfer(1, now + 3_600_000, 0, 0));
+    scheduler.cancel(cancelled.getScheduleId());
+    awaitBalance("Id-2", "1");
+    scheduler.destroy();
+
+    TransferScheduler restarted = open(path, 10);
+    assertThat(restarted.size()).isEqualTo(2);
+    assertThat(restarted.get(later.getScheduleId()).getBalance()).isEqualByComparingTo("10");
+    assertThat(restarted.get(cancelled.getScheduleId())).isNull();
+    ScheduledTransfer next = restarted.get(standingOrder.getScheduleId());
+    assertThat(next.getExecuteAt()).isEqualTo(now + 100 + 86_400_000);
+    assertThat(next.getRemaining()).isEqualTo(11L);
+    restarted.cancel(later.getScheduleId());
+    restarted.destroy();
+
+    assertThat(open(path, 10).size()).isEqualTo(1);
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("1");
+  }
+
+  @Test
+  public void schedulingIsHeldToTheRateLimit() throws Exception {
+    accountsService.setTransferRateLimiter(new TransferRateLimiter(0, 0, 1, 2, 100));
+    TransferScheduler scheduler = open("", 10);
+    long later = System.currentTimeMillis() + 3_600_000;
+    assertThat(scheduler.schedule(transfer(1, later, 0, 0))).isNotNull();
+    assertThat(scheduler.schedule(transfer(1, later, 60_000, 0))).isNotNull();
+    assertThat(scheduler.schedule(transfer(1, later, 0, 0))).isNull();
+    assertThat(scheduler.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void missedRunsBeyondTheCapAreSkipped() throws Exception {
+    repository.createAccount(new Account("Id-1", new BigDecimal(1000)));
+    repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+    TransferScheduler scheduler = open("", 10, 2);
+    long now = System.currentTimeMillis();
+    // ten runs a minute apart are due, the last of them 30 seconds ago
+    ScheduledTransfer standingOrder = scheduler.schedule(transfer(1, now - 570_000, 60_000, 0));
+    ScheduledTransfer finite = scheduler.schedule(transfer(10, now - 570_000, 60_000, 5));
+
+    // the first run and two made up ones, the finite order has no runs left after the ones skipped
+    awaitBalance("Id-2", "13");
+    Thread.sleep(100);
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("13");
+    assertThat(scheduler.get(finite.getScheduleId())).isNull();
+    ScheduledTransfer next = scheduler.get(standingOrder.getScheduleId());
+    assertThat(next.getExecuteAt()).isEqualTo(now + 30_000);
+    assertThat(next.getRemaining()).isEqualTo(0L);
+  }
+
+  private TransferScheduler open(String path, long tickMillis) throws Exception {
+    return open(path, tickMillis, Integer.MAX_VALUE);
+  }
+
+  private TransferScheduler open(String path, long tickMillis, int maxMissedRuns) throws Exception {
+    TransferScheduler scheduler = new TransferScheduler(accountsService, path, false, tickMillis, 1000,
+      maxMissedRuns);
+    schedulers.add(scheduler);
+    return scheduler;
+  }
+
+  private static ScheduledTransfer transfer(long amount, long executeAt, long intervalMs, long remaining) {
+    ScheduledTransfer transfer = new ScheduledTransfer();
+    transfer.setAccountIdFrom("Id-1");
+    transfer.setAccountIdTo("Id-2");
+    transfer.setBalance(new BigDecimal(amount));
+    transfer.setExecuteAt(executeAt);
+    transfer.setIntervalMs(intervalMs);
+    transfer.setRemaining(remaining);
+    return transfer;
+  }
+
+  private void awaitBalance(String accountId, String balance) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (repository.getAccount(accountId).getBalance().compareTo(new BigDecimal(balance)) != 0) {
+      if (System.nanoTime() > deadline) {
+        fail("Balance of " + accountId + " is " + repository.getAccount(accountId).getBalance() + ", not " + balance);
+      }
+      Thread.sleep(5);
+    }
+  }
+}